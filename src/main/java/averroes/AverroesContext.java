@@ -0,0 +1,324 @@
+package averroes;
+
+import averroes.soot.BodyValidator;
+import averroes.soot.CodeGenerator;
+import averroes.soot.Hierarchy;
+import averroes.soot.JreClassTable;
+import averroes.tamiflex.TamiFlexFactsDatabase;
+import averroes.util.Metrics;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.commons.cli.CommandLine;
+import soot.G;
+
+/**
+ * The state of one run of {@link Main}: the parsed options, the Soot singletons ({@link G}), the
+ * class hierarchy, the code generator, the TamiFlex facts, the shared library classes it holds, the
+ * generated BCEL classes, the bodies pending validation, and the recorded metrics. The static accessors (e.g., {@link Hierarchy#v()},
+ * {@link averroes.options.AverroesOptions}) all look up the context of the current thread, which is
+ * the default context unless a task is running in another one through {@link #run(Callable)}. That
+ * way, independent runs of {@link Main} (e.g., for different applications) can run on separate
+ * threads of the same JVM without sharing any state.
+ *
+ * <p>Only the state of the {@link Main} pipeline is kept here. The frameworks pipeline ({@link
+ * averroes.frameworks.Main}) keeps its options, caches, and printers in static fields, so it only
+ * runs in the default context.
+ *
+ * <p>A thread only runs in a context while it runs a task through {@link #run(Callable)}. Work that
+ * is handed off to another thread (e.g., the output files of {@link averroes.util.io.Printers}, or
+ * the samples of {@link Metrics}) is wrapped with {@link #wrap(Callable)} when it is submitted, so
+ * that it runs in the context of the thread that submitted it.
+ */
+public class AverroesContext {
+
+  private static final AverroesContext DEFAULT = new AverroesContext(G.v());
+  private static final ThreadLocal<AverroesContext> current = new ThreadLocal<AverroesContext>();
+
+  static {
+    // The default context keeps whatever Soot state exists at this point
+    G.setGlobalObjectGetter(
+        new G.GlobalObjectGetter() {
+          @Override
+          public G getG() {
+            return v().getG();
+          }
+
+          @Override
+          public void reset() {
+            v().resetG();
+          }
+        });
+  }
+
+  // Soot looks this up on every call to a singleton, so it's read without locking
+  private volatile G g;
+  private CommandLine commandLine = null;
+  private List<String> dynamicClasses = null;
+  private Hierarchy hierarchy = null;
+  private CodeGenerator codeGenerator = null;
+  private TamiFlexFactsDatabase tamiFlexFacts = null;
+  private JreClassTable libraryClassTable = null;
+  private Set<JavaClass> bcelClasses = new HashSet<JavaClass>();
+  private BodyValidator bodyValidator = new BodyValidator();
+  private Metrics metrics = new Metrics();
+
+  /** Create a new context, with its own Soot singletons. */
+  public AverroesContext() {
+    this(new G());
+  }
+
+  private AverroesContext(G g) {
+    this.g = g;
+  }
+
+  /**
+   * Get the context of the current thread.
+   *
+   * @return
+   */
+  public static AverroesContext v() {
+    AverroesContext context = current.get();
+    return context == null ? DEFAULT : context;
+  }
+
+  /**
+   * Get the default context, i.e., the one of the threads that do not run in any other context.
+   *
+   * @return
+   */
+  public static AverroesContext getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * Run the given task in this context on the current thread, and restore the context of the thread
+   * afterwards. The default context cannot be run this way, since it is the one of all the threads
+   * that do not run in any other context.
+   *
+   * @param task
+   * @return the result of the task
+   * @throws Exception
+   */
+  public <T> T run(Callable<T> task) throws Exception {
+    if (this == DEFAULT) {
+      throw new IllegalStateException("The default context cannot be run on a thread");
+    }
+    AverroesContext previous = current.get();
+    current.set(this);
+    try {
+      return task.call();
+    } finally {
+      if (previous == null) {
+        current.remove();
+      } else {
+        current.set(previous);
+      }
+    }
+  }
+
+  /**
+   * Bind the given task to the context of the current thread, so that it runs in that context on
+   * whichever thread calls it later. A task submitted from the default context is returned as is.
+   *
+   * @param task
+   * @return
+   */
+  public static <T> Callable<T> wrap(Callable<T> task) {
+    AverroesContext context = v();
+    return context == DEFAULT ? task : () -> context.run(task);
+  }
+
+  /**
+   * Bind the given task to the context of the current thread, like {@link #wrap(Callable)}.
+   *
+   * @param task
+   * @return
+   */
+  public static Runnable wrap(Runnable task) {
+    Callable<Void> callable =
+        wrap(
+            () -> {
+              task.run();
+              return null;
+            });
+    return () -> {
+      try {
+        callable.call();
+      } catch (RuntimeException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    };
+  }
+
+  /**
+   * Release all the state of this context, so that it can be garbage collected even if the context
+   * itself is kept (e.g., between the jobs of a long-running process). The options are kept.
+   */
+  public synchronized void release() {
+    g = new G();
+    dynamicClasses = null;
+    hierarchy = null;
+    codeGenerator = null;
+    tamiFlexFacts = null;
+    setLibraryClassTable(null);
+    bcelClasses = new HashSet<JavaClass>();
+    bodyValidator = new BodyValidator();
+    metrics = new Metrics();
+  }
+
+  /**
+   * Get the Soot singletons of this context.
+   *
+   * @return
+   */
+  public G getG() {
+    return g;
+  }
+
+  /** Replace the Soot singletons of this context with new ones. */
+  public void resetG() {
+    g = new G();
+  }
+
+  /**
+   * Get the parsed command line options of this context.
+   *
+   * @return
+   */
+  public CommandLine getCommandLine() {
+    return commandLine;
+  }
+
+  /**
+   * Set the parsed command line options of this context. This also forgets anything that was read
+   * from the files that the previous options point to.
+   *
+   * @param commandLine
+   */
+  public synchronized void setCommandLine(CommandLine commandLine) {
+    this.commandLine = commandLine;
+    dynamicClasses = null;
+    tamiFlexFacts = null;
+    setLibraryClassTable(null);
+  }
+
+  /**
+   * Get the names of the dynamic classes read from the dynamic classes file, or null if it has not
+   * been read yet.
+   *
+   * @return
+   */
+  public List<String> getDynamicClasses() {
+    return dynamicClasses;
+  }
+
+  /**
+   * Set the names of the dynamic classes read from the dynamic classes file.
+   *
+   * @param dynamicClasses
+   */
+  public void setDynamicClasses(List<String> dynamicClasses) {
+    this.dynamicClasses = dynamicClasses;
+  }
+
+  /**
+   * Get the class hierarchy of this context, creating it from the Soot scene on the first call.
+   *
+   * @return
+   */
+  public synchronized Hierarchy getHierarchy() {
+    if (hierarchy == null) {
+      hierarchy = new Hierarchy();
+    }
+    return hierarchy;
+  }
+
+  /** Forget the class hierarchy of this context, so that it is created again when needed. */
+  public synchronized void resetHierarchy() {
+    hierarchy = null;
+  }
+
+  /**
+   * Get the code generator of this context, creating it on the first call.
+   *
+   * @return
+   */
+  public synchronized CodeGenerator getCodeGenerator() {
+    if (codeGenerator == null) {
+      codeGenerator = new CodeGenerator();
+    }
+    return codeGenerator;
+  }
+
+  /**
+   * Get the TamiFlex facts of this context, loading them from the TamiFlex facts file on the first
+   * call.
+   *
+   * @return
+   */
+  public synchronized TamiFlexFactsDatabase getTamiFlexFacts() {
+    if (tamiFlexFacts == null) {
+      tamiFlexFacts = new TamiFlexFactsDatabase();
+    }
+    return tamiFlexFacts;
+  }
+
+  /**
+   * Get the table of the shared library classes that this context holds, or null if it does not
+   * hold one.
+   *
+   * @return
+   */
+  public synchronized JreClassTable getLibraryClassTable() {
+    return libraryClassTable;
+  }
+
+  /**
+   * Hold the given table of the shared library classes, and close the one held before, if any.
+   *
+   * @param libraryClassTable
+   */
+  public synchronized void setLibraryClassTable(JreClassTable libraryClassTable) {
+    if (this.libraryClassTable != null) {
+      this.libraryClassTable.close();
+    }
+    this.libraryClassTable = libraryClassTable;
+  }
+
+  /**
+   * Get the BCEL classes of the JAR files generated in this context.
+   *
+   * @return
+   */
+  public Set<JavaClass> getBcelClasses() {
+    return bcelClasses;
+  }
+
+  /**
+   * Get the body validator of this context.
+   *
+   * @return
+   */
+  public BodyValidator getBodyValidator() {
+    return bodyValidator;
+  }
+
+  /**
+   * Get the metrics recorded in this context.
+   *
+   * @return
+   */
+  public Metrics getMetrics() {
+    return metrics;
+  }
+
+  /** Replace the metrics recorded in this context with an empty set of metrics. */
+  public void resetMetrics() {
+    metrics = new Metrics();
+  }
+}
@@ -0,0 +1,262 @@
+package averroes;
+
+import averroes.options.AverroesOptions;
+import averroes.soot.JreClassTable;
+import averroes.util.MathUtils;
+import averroes.util.io.Paths;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.apache.commons.cli.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs Averroes for many applications that share the same library class path. The applications
+ * are listed in a JSON manifest of the form:
+ *
+ * <pre>
+ * {
+ *   "libraryJars": "lib1.jar:lib2.jar",
+ *   "jreDirectory": "system",
+ *   "outputDirectory": "out",
+ *   "options": ["-g"],
+ *   "applications": [
+ *     {"name": "app1", "applicationJars": "app1.jar", "applicationRegex": "app1.**",
+ *      "mainClass": "app1.Main", "tamiflexFactsFile": "refl.log", "dynamicClassesFile": "dyn.txt"}
+ *   ]
+ * }
+ * </pre>
+ *
+ * The library JAR files and the JRE archives are indexed once in the shared {@link
+ * JreClassTable}. Then each application runs on its own {@link AverroesContext} (in sequence, or
+ * in parallel with -t), with its own Soot scene, since cleaning up the library classes mutates
+ * them. Each application writes its output to a directory named after it under the output
+ * directory, and the per-application and amortized timings are written to batch-report.json.
+ */
+public class BatchMain {
+
+    private static Option manifest =
+            Option.builder("f")
+                    .longOpt("manifest")
+                    .desc("the JSON manifest that lists the applications and their shared library class path")
+                    .hasArg()
+                    .argName("file")
+                    .required()
+                    .build();
+
+    private static Option threads =
+            Option.builder("t")
+                    .longOpt("threads")
+                    .desc("the number of applications that run at the same time (default: 1)")
+                    .hasArg()
+                    .argName("n")
+                    .required(false)
+                    .build();
+
+    private static Options options = new Options().addOption(manifest).addOption(threads);
+
+    /**
+     * The main method of the Averroes batch mode.
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        ExecutorService pool = null;
+        try {
+            CommandLine cmd = new DefaultParser().parse(options, args);
+            Manifest batch;
+            try (Reader reader = Files.newBufferedReader(new File(cmd.getOptionValue(manifest.getOpt())).toPath())) {
+                batch = new Gson().fromJson(reader, Manifest.class);
+            }
+
+            // Reject the whole batch before any application runs if the manifest is invalid
+            checkApplications(batch);
+
+            // Index the shared library side once
+            long start = System.nanoTime();
+            JreClassTable.setEnabled(true);
+            List<File> libraries = new ArrayList<File>();
+            Arrays.stream(batch.libraryJars.split(File.pathSeparator))
+                    .filter(lib -> lib.trim().length() > 0)
+                    .forEach(lib -> libraries.add(new File(lib)));
+            libraries.addAll(JreClassTable.findJreArchives(
+                    "system".equals(batch.jreDirectory) ? System.getProperty("java.home") : batch.jreDirectory));
+            int libraryClasses;
+            try (JreClassTable table = JreClassTable.get(libraries)) {
+                libraryClasses = table.getClasses().size();
+            }
+            double shared = seconds(start);
+            System.out.println("Indexed " + libraryClasses + " shared library classes in " + shared + " seconds.");
+
+            // Run the applications
+            pool = Executors.newFixedThreadPool(Integer.parseInt(cmd.getOptionValue(threads.getOpt(), "1")));
+            List<Future<JsonObject>> results = new ArrayList<Future<JsonObject>>();
+            for (Application application : batch.applications) {
+                String[] applicationArgs = application.toArguments(batch);
+                results.add(pool.submit(() -> runApplication(application.name, applicationArgs)));
+            }
+
+            JsonArray applications = new JsonArray();
+            double sum = 0;
+            int succeeded = 0;
+            for (Future<JsonObject> result : results) {
+                JsonObject json = result.get();
+                applications.add(json);
+                sum += json.get("seconds").getAsDouble();
+                succeeded += "ok".equals(json.get("status").getAsString()) ? 1 : 0;
+            }
+            double total = seconds(start);
+
+            // Write the batch report
+            JsonObject report = new JsonObject();
+            report.addProperty("applications", results.size());
+            report.addProperty("succeeded", succeeded);
+            report.addProperty("sharedLibraryClasses", libraryClasses);
+            report.addProperty("sharedSeconds", shared);
+            report.addProperty("totalSeconds", total);
+            report.addProperty("sumApplicationSeconds", MathUtils.round(sum));
+            report.addProperty("amortizedSeconds", results.isEmpty() ? 0 : MathUtils.round(total / results.size()));
+            report.add("runs", applications);
+
+            File reportFile = new File(batch.outputDirectory, "batch-report.json");
+            reportFile.getAbsoluteFile().getParentFile().mkdirs();
+            Files.write(
+                    reportFile.toPath(),
+                    new GsonBuilder().setPrettyPrinting().create().toJson(report).getBytes(StandardCharsets.UTF_8));
+            System.out.println(succeeded + " of " + results.size() + " applications done in " + total
+                    + " seconds (" + report.get("amortizedSeconds").getAsDouble() + " seconds per application).");
+        } catch (ParseException | IOException | ExecutionException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+            JreClassTable.setEnabled(false);
+        }
+    }
+
+    /**
+     * Check that every application in the given manifest has a name, and that no two of them write
+     * to the same output directory, which is named after the application.
+     *
+     * @param batch
+     */
+    private static void checkApplications(Manifest batch) {
+        Set<String> directories = new HashSet<String>();
+        for (int i = 0; i < batch.applications.size(); i++) {
+            String name = batch.applications.get(i).name;
+            if (name == null || name.trim().isEmpty()) {
+                throw new IllegalArgumentException("Application " + i + " in the batch manifest has no name.");
+            }
+            if (!directories.add(new File(batch.outputDirectory, name).getAbsoluteFile().toPath().normalize().toString())) {
+                throw new IllegalArgumentException("More than one application in the batch manifest is named " + name + ".");
+            }
+        }
+    }
+
+    /**
+     * Run Averroes for one application in a new context. A failure only fails that application.
+     *
+     * @param name
+     * @param args
+     * @return the status, timing, and output paths of the run
+     */
+    private static JsonObject runApplication(String name, String[] args) {
+        JsonObject result = new JsonObject();
+        result.addProperty("name", name);
+        long start = System.nanoTime();
+
+        AverroesContext context = new AverroesContext();
+        try {
+            AverroesOptions.checkArguments(args);
+            context.run(
+                    () -> {
+                        Main.run(args);
+                        result.addProperty("placeholderLibraryJar", Paths.placeholderLibraryJarFile().getAbsolutePath());
+                        result.addProperty("averroesLibraryClassJar", Paths.averroesLibraryClassJarFile().getAbsolutePath());
+                        try (Reader reader = Files.newBufferedReader(Paths.reportFile().toPath(), StandardCharsets.UTF_8)) {
+                            result.add("report", new JsonParser().parse(reader));
+                        }
+                        return null;
+                    });
+            result.addProperty("status", "ok");
+        } catch (Exception e) {
+            e.printStackTrace();
+            result.addProperty("status", "error");
+            result.addProperty("message", e.toString());
+        } finally {
+            context.release();
+        }
+
+        result.addProperty("seconds", seconds(start));
+        return result;
+    }
+
+    private static double seconds(long start) {
+        return MathUtils.round((System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * The batch manifest.
+     */
+    private static class Manifest {
+        private String libraryJars = "";
+        private String jreDirectory = "system";
+        private String outputDirectory = "batch";
+        private List<String> options = new ArrayList<String>();
+        private List<Application> applications = new ArrayList<Application>();
+    }
+
+    /**
+     * An application in the batch manifest.
+     */
+    private static class Application {
+        private String name;
+        private String applicationJars;
+        private String applicationRegex;
+        private String mainClass;
+        private String tamiflexFactsFile;
+        private String dynamicClassesFile;
+
+        /**
+         * The arguments of {@link Main} for this application.
+         *
+         * @param batch
+         * @return
+         */
+        private String[] toArguments(Manifest batch) {
+            List<String> args = new ArrayList<String>();
+            args.addAll(Arrays.asList("-r", applicationRegex, "-m", mainClass, "-a", applicationJars));
+            if (!batch.libraryJars.isEmpty()) {
+                args.addAll(Arrays.asList("-l", batch.libraryJars));
+            }
+            args.addAll(Arrays.asList("-j", batch.jreDirectory, "-o", new File(batch.outputDirectory, name).getPath()));
+            if (tamiflexFactsFile != null) {
+                args.addAll(Arrays.asList("-t", tamiflexFactsFile));
+            }
+            if (dynamicClassesFile != null) {
+                args.addAll(Arrays.asList("-d", dynamicClassesFile));
+            }
+            args.addAll(batch.options);
+            return args.toArray(new String[0]);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package averroes;
+
+import averroes.options.AverroesOptions;
+import averroes.soot.JreClassTable;
+import averroes.util.io.Paths;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.cli.*;
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A long-running Averroes process that accepts jobs over HTTP on the loopback interface. Each job
+ * is a POST to /run with a JSON body of the form {"args": [...]}, where the arguments are the same
+ * as the ones of {@link Main}. The job runs in its own {@link AverroesContext}, and the response
+ * has the paths of the generated JAR files, the run report, and what the job shared with the other
+ * jobs. A POST to /shutdown stops the daemon.
+ *
+ * <p>Repeated jobs skip the JVM startup, the loading of Soot, and the JIT warm-up. The daemon also
+ * enables the {@link JreClassTable}, so that the JRE archives and library JAR files are indexed
+ * once and shared by all the jobs, instead of being copied into the organized library JAR file of
+ * each one. Only the index of the archives is shared: each job still parses the library classes it
+ * uses into its own Soot scene, so the saving is in organizing the JAR files.
+ */
+public class Daemon {
+
+    private static Option port =
+            Option.builder("p")
+                    .longOpt("port")
+                    .desc("the loopback port on which the daemon accepts jobs (default: 7070)")
+                    .hasArg()
+                    .argName("port")
+                    .required(false)
+                    .build();
+
+    private static Option threads =
+            Option.builder("t")
+                    .longOpt("threads")
+                    .desc("the number of jobs that run at the same time (default: 1)")
+                    .hasArg()
+                    .argName("n")
+                    .required(false)
+                    .build();
+
+    private static Option jreDirectory =
+            Option.builder("j")
+                    .longOpt("java-runtime-directory")
+                    .desc("a JRE directory (or system) whose class table is loaded on startup")
+                    .hasArg()
+                    .argName("directory")
+                    .required(false)
+                    .build();
+
+    private static Option help =
+            Option.builder("h")
+                    .longOpt("help")
+                    .desc("print out this help message")
+                    .hasArg(false)
+                    .required(false)
+                    .build();
+
+    private static Options options =
+            new Options().addOption(port).addOption(threads).addOption(jreDirectory).addOption(help);
+
+    /**
+     * The main method of the Averroes daemon.
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        try {
+            CommandLine cmd = new DefaultParser().parse(options, args);
+            if (cmd.hasOption(help.getOpt())) {
+                new HelpFormatter().printHelp("java -cp averroes.jar averroes.Daemon", "", options, "", true);
+                return;
+            }
+
+            // Share the library archives with all the jobs, and index the JRE upfront if asked to
+            JreClassTable.setEnabled(true);
+            if (cmd.hasOption(jreDirectory.getOpt())) {
+                String jre = cmd.getOptionValue(jreDirectory.getOpt());
+                JreClassTable.get(
+                        JreClassTable.findJreArchives("system".equals(jre) ? System.getProperty("java.home") : jre))
+                        .close();
+            }
+
+            ExecutorService jobs =
+                    Executors.newFixedThreadPool(Integer.parseInt(cmd.getOptionValue(threads.getOpt(), "1")));
+            HttpServer server =
+                    HttpServer.create(
+                            new InetSocketAddress(
+                                    InetAddress.getLoopbackAddress(),
+                                    Integer.parseInt(cmd.getOptionValue(port.getOpt(), "7070"))),
+                            0);
+            server.createContext("/run", exchange -> handleRun(exchange, jobs));
+            server.createContext(
+                    "/shutdown",
+                    exchange -> {
+                        JsonObject result = new JsonObject();
+                        result.addProperty("status", "stopped");
+                        respond(exchange, 200, result);
+                        new Thread(() -> {
+                            server.stop(0);
+                            jobs.shutdown();
+                            try {
+                                jobs.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                            JreClassTable.setEnabled(false);
+                        }).start();
+                    });
+            server.setExecutor(Executors.newCachedThreadPool());
+            server.start();
+            System.out.println("Averroes daemon listening on " + server.getAddress());
+        } catch (ParseException | IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Run the job in the given request on the job pool, and respond with its result once it's done.
+     *
+     * @param exchange
+     * @param jobs
+     * @throws IOException
+     */
+    private static void handleRun(HttpExchange exchange, ExecutorService jobs) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            respond(exchange, 405, error("Jobs have to be submitted with POST."));
+            return;
+        }
+
+        String[] args;
+        try {
+            String body = IOUtils.toString(exchange.getRequestBody(), StandardCharsets.UTF_8);
+            JsonArray array = new JsonParser().parse(body).getAsJsonObject().getAsJsonArray("args");
+            args = new String[array.size()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = array.get(i).getAsString();
+            }
+            AverroesOptions.checkArguments(args);
+        } catch (ParseException | RuntimeException e) {
+            respond(exchange, 400, error("Invalid job: " + e.getMessage()));
+            return;
+        }
+
+        try {
+            respond(exchange, 200, jobs.submit(() -> runJob(args)).get());
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+            respond(exchange, 500, error("The job failed: " + e.getCause()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            respond(exchange, 500, error("The job was interrupted."));
+        }
+    }
+
+    /**
+     * Run Averroes with the given arguments in a new context, and release the context afterwards.
+     *
+     * @param args
+     * @return the paths of the generated JAR files, and the run report
+     * @throws Exception
+     */
+    private static JsonObject runJob(String[] args) throws Exception {
+        AverroesContext context = new AverroesContext();
+        try {
+            return context.run(
+                    () -> {
+                        Main.run(args);
+
+                        JsonObject result = new JsonObject();
+                        result.addProperty("status", "ok");
+                        result.addProperty("placeholderLibraryJar", Paths.placeholderLibraryJarFile().getAbsolutePath());
+                        result.addProperty("averroesLibraryClassJar", Paths.averroesLibraryClassJarFile().getAbsolutePath());
+                        result.add("report", readJson(Paths.reportFile().toPath()));
+                        result.addProperty("sharedLibraryState", "archive index (saves organizing the library JAR files)");
+                        return result;
+                    });
+        } finally {
+            context.release();
+        }
+    }
+
+    private static JsonElement readJson(java.nio.file.Path file) throws IOException {
+        return new JsonParser().parse(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+    }
+
+    private static JsonObject error(String message) {
+        JsonObject result = new JsonObject();
+        result.addProperty("status", "error");
+        result.addProperty("message", message);
+        return result;
+    }
+
+    private static void respond(HttpExchange exchange, int code, JsonObject json) throws IOException {
+        byte[] bytes = json.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(code, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
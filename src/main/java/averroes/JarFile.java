@@ -12,6 +12,7 @@ package averroes;
 import averroes.exceptions.Assertions;
 import averroes.soot.Names;
 import averroes.util.io.Paths;
+import averroes.util.jfr.ClassVerifyEvent;
 import org.apache.bcel.Repository;
 import org.apache.bcel.classfile.ClassFormatException;
 import org.apache.bcel.classfile.ClassParser;
@@ -48,7 +49,7 @@ import java.util.stream.Collectors;
  */
 public class JarFile {
 
-  private static Set<JavaClass> bcelClasses = new HashSet<JavaClass>();
+  private Set<String> frameworkClassFiles = new HashSet<String>();
   private JarOutputStream jarOutputStream;
   private File fileName;
 
@@ -121,7 +122,7 @@ public class JarFile {
     for (String classFile : classFiles) {
       ClassParser parser = new ClassParser(placeholderJar.getPath(), classFile);
       JavaClass cls = parser.parse();
-      bcelClasses.add(cls);
+      AverroesContext.v().getBcelClasses().add(cls);
     }
   }
 
@@ -131,9 +132,7 @@ public class JarFile {
    * @throws IOException
    */
   public void addGeneratedFrameworkClassFiles() throws IOException {
-    Set<String> classFiles = new HashSet<>();
     File dir = Paths.frameworksLibraryClassesOutputDirectory();
-    File placeholderJar = Paths.placeholderFrameworkJarFile();
 
     // Add the class files to the crafted JAR file.
     FileUtils.listFiles(dir, new String[] {"class"}, true).stream()
@@ -143,28 +142,51 @@ public class JarFile {
               try {
                 String className = relativize(dir, file);
                 add(dir, file);
-                classFiles.add(className);
+                frameworkClassFiles.add(className);
               } catch (IOException e) {
                 e.printStackTrace();
               }
             });
+    finishGeneratedFrameworkClassFiles();
+  }
+
+  /**
+   * Add the given generated framework class file to the Jar file. Call {@link
+   * #finishGeneratedFrameworkClassFiles()} once all of them are added.
+   *
+   * @param className
+   * @param bytes
+   * @throws IOException
+   */
+  public void addGeneratedFrameworkClassFile(String className, byte[] bytes) throws IOException {
+    add(new ByteArrayInputStream(bytes), className);
+    frameworkClassFiles.add(className);
+  }
+
+  /**
+   * Close the Jar file and load the generated framework class files in it into the BCEL
+   * repository.
+   *
+   * @throws IOException
+   */
+  public void finishGeneratedFrameworkClassFiles() throws IOException {
+    File placeholderJar = Paths.placeholderFrameworkJarFile();
     close();
 
-    // Set BCEL's repository class path.
+    // Create BCEL's repository for the class path.
     SyntheticRepository rep =
         SyntheticRepository.getInstance(new ClassPath(placeholderJar.toString()));
-    Repository.setRepository(rep);
 
     // Now add all those class files in the crafted JAR file to the BCEL
     // repository.
-    for (String classFile : classFiles) {
+    for (String classFile : frameworkClassFiles) {
       ClassParser parser = new ClassParser(placeholderJar.getPath(), classFile);
       JavaClass cls = parser.parse();
-      bcelClasses.add(cls);
+      AverroesContext.v().getBcelClasses().add(cls);
     }
 
     // Now we need to add all the BCEL classes
-    bcelClasses.forEach(c -> Repository.getRepository().storeClass(c));
+    setBcelRepository(rep);
   }
 
   /**
@@ -198,7 +220,7 @@ public class JarFile {
     }
     close();
 
-    // Set BCEL's repository class path.
+    // Create BCEL's repository for the class path.
     SyntheticRepository rep =
         SyntheticRepository.getInstance(
             new ClassPath(
@@ -207,18 +229,32 @@ public class JarFile {
                     + placeholderJar
                     + File.pathSeparator
                     + Paths.organizedApplicationJarFile()));
-    Repository.setRepository(rep);
 
     // Now add the class files (including ones from placeholder JAR) to the
     // BCEL repository.
     ClassParser parser = new ClassParser(averroesLibraryClassJar.getPath(), className);
     JavaClass cls = parser.parse();
-    bcelClasses.add(cls);
+    AverroesContext.v().getBcelClasses().add(cls);
 
     // Now we need to add all the BCEL classes (including ones from previous
     // placeholder JAR to force BCEL to load
     // those crafted files when it looks them up
-    bcelClasses.forEach(c -> Repository.getRepository().storeClass(c));
+    setBcelRepository(rep);
+  }
+
+  /**
+   * Make the given repository BCEL's repository, and add all the BCEL classes of the current {@link
+   * AverroesContext} to it. BCEL only has one global repository, so this is done under a lock.
+   *
+   * @param repository
+   */
+  private static void setBcelRepository(SyntheticRepository repository) {
+    synchronized (Repository.class) {
+      Repository.setRepository(repository);
+      AverroesContext.v()
+          .getBcelClasses()
+          .forEach(c -> Repository.getRepository().storeClass(c));
+    }
   }
 
   /**
@@ -320,7 +356,9 @@ public class JarFile {
    * @throws ClassFormatException
    */
   public void verify() throws ClassFormatException, IOException {
-    for (JavaClass cls : bcelClasses) {
+    for (JavaClass cls : AverroesContext.v().getBcelClasses()) {
+      ClassVerifyEvent event = new ClassVerifyEvent();
+      event.begin();
       Verifier verifier = VerifierFactory.getVerifier(cls.getClassName());
       Method[] methods = cls.getMethods();
       for (int i = 0; i < methods.length; i++) {
@@ -336,6 +374,7 @@ public class JarFile {
 
         Assertions.verificationResultOKAssertion(vr, cls.getClassName(), methods[i].getName());
       }
+      event.commit(cls.getClassName());
     }
   }
 
@@ -348,6 +387,8 @@ public class JarFile {
     try (java.util.jar.JarFile jarFile = new java.util.jar.JarFile(new File(file))) {
       jarFile.stream().forEach(entry -> {
         if (entry.getName().endsWith(".class")) {
+          ClassVerifyEvent event = new ClassVerifyEvent();
+          event.begin();
           try {
             ClassReader classReader = new ClassReader(jarFile.getInputStream(entry));
             ClassWriter classWriter = new ClassWriter(classReader, ClassWriter.COMPUTE_MAXS);
@@ -362,6 +403,7 @@ public class JarFile {
           } catch (IOException e) {
             e.printStackTrace();
           }
+          event.commit(entry.getName());
         }
       });
     } catch (IOException e) {
@@ -10,6 +10,8 @@
 package averroes;
 
 import averroes.options.AverroesOptions;
+import averroes.soot.JarFactoryClassProvider;
+import averroes.soot.JreClassTable;
 import averroes.util.io.Paths;
 import java.io.File;
 import java.io.IOException;
@@ -20,8 +22,6 @@ import java.util.Set;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.filefilter.FileFilterUtils;
 
 /**
  * Utility class to organize the input JAR files to Averroes into two JAR files only: one for the
@@ -90,37 +90,58 @@ public class JarOrganizer {
    * @throws URISyntaxException
    */
   private void processInputs() throws ZipException, IOException {
-    AverroesOptions.getApplicationJars().forEach(jar -> processArchive(jar, true));
+    for (String jar : AverroesOptions.getApplicationJars()) {
+      processArchive(jar, true);
+    }
   }
 
-  /** Process the dependencies of the input JAR files. */
-  private void processDependencies() {
+  /**
+   * Process the dependencies of the input JAR files.
+   *
+   * @throws IOException
+   */
+  private void processDependencies() throws IOException {
+    // Take the library dependencies and the JRE libraries from the shared table
+    if (JreClassTable.isEnabled()) {
+      processJreClassTable();
+      return;
+    }
+
     // Add the application library dependencies
-    AverroesOptions.getLibraryJarFiles().forEach(lib -> processArchive(lib, false));
+    for (String lib : AverroesOptions.getLibraryJarFiles()) {
+      processArchive(lib, false);
+    }
 
     // Add the JRE libraries
-    if ("system".equals(AverroesOptions.getJreDirectory())) {
-      processJreArchives(System.getProperty("java.home"));
-    } else {
-      processJreArchives(AverroesOptions.getJreDirectory());
-    }
+    processJreArchives(AverroesOptions.getJreHome());
   }
 
   /**
    * Process the JRE archives (recognized JAR files are: rt.jar, jsse.jar, jce.jar).
    *
    * @param dir
+   * @throws IOException
    */
-  private void processJreArchives(String dir) {
-    File directory = new File(dir);
-    org.apache.commons.io.filefilter.IOFileFilter nameFilter =
-        FileFilterUtils.or(
-            FileFilterUtils.nameFileFilter("rt.jar"),
-            FileFilterUtils.nameFileFilter("jsse.jar"),
-            FileFilterUtils.nameFileFilter("jce.jar"));
-
-    FileUtils.listFiles(directory, nameFilter, FileFilterUtils.trueFileFilter())
-        .forEach(file -> processArchive(file.getPath(), false));
+  private void processJreArchives(String dir) throws IOException {
+    for (File file : JreClassTable.findJreArchives(dir)) {
+      processArchive(file.getPath(), false);
+    }
+  }
+
+  /**
+   * Process the shared table of the library classes. The library classes are not copied to the
+   * organized library JAR file, the {@link JarFactoryClassProvider} takes the ones that are not
+   * shadowed by an earlier class straight from the table.
+   *
+   * @throws IOException
+   */
+  private void processJreClassTable() throws IOException {
+    for (String className : JreClassTable.forCurrentOptions().getClasses().keySet()) {
+      if (!classNames.contains(className)) {
+        libraryClassNames.add(className);
+        classNames.add(className);
+      }
+    }
   }
 
   /**
@@ -128,8 +149,10 @@ public class JarOrganizer {
    *
    * @param fileName
    * @param fromApplicationArchive
+   * @throws IOException
    */
-  private void processArchive(String fileName, boolean fromApplicationArchive) {
+  private void processArchive(String fileName, boolean fromApplicationArchive)
+      throws IOException {
     // Exit if the fileName is empty
     if (fileName.trim().length() <= 0) {
       return;
@@ -142,8 +165,7 @@ public class JarOrganizer {
             + " archive: "
             + file.getAbsolutePath());
 
-    try {
-      ZipFile archive = new ZipFile(file);
+    try (ZipFile archive = new ZipFile(file)) {
       Enumeration<? extends ZipEntry> entries = archive.entries();
 
       while (entries.hasMoreElements()) {
@@ -152,10 +174,6 @@ public class JarOrganizer {
           addClass(archive, entry, fromApplicationArchive);
         }
       }
-      archive.close();
-    } catch (IOException e) {
-      e.printStackTrace();
-      System.exit(1);
     }
   }
 
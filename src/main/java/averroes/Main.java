@@ -10,11 +10,13 @@
 package averroes;
 
 import averroes.options.AverroesOptions;
+import averroes.soot.BodyValidator;
 import averroes.soot.CodeGenerator;
 import averroes.soot.Hierarchy;
 import averroes.soot.JarFactoryClassProvider;
 import averroes.soot.SootSceneUtil;
 import averroes.util.MathUtils;
+import averroes.util.Metrics;
 import averroes.util.TimeUtils;
 import averroes.util.io.Paths;
 import org.apache.commons.io.FileUtils;
@@ -40,133 +42,184 @@ public class Main {
      */
     public static void main(String[] args) {
         try {
-            // Find the total execution time, instead of depending on the Unix
-            // time command
-            TimeUtils.splitStart();
-
-            // Process the arguments
-            AverroesOptions.processArguments(args);
-
-            // Reset Soot
-            G.reset();
-
-            // Create the output directory and clean up any class files in there
-            FileUtils.forceMkdir(Paths.libraryClassesOutputDirectory());
-            FileUtils.cleanDirectory(Paths.classesOutputDirectory());
-
-            // Organize the input JAR files
-            System.out.println();
-            System.out.println("Organizing the JAR files...");
-            JarOrganizer jarOrganizer = new JarOrganizer();
-            jarOrganizer.organizeInputJarFiles();
-
-            // Print some statistics
-            System.out.println("# application classes: " + jarOrganizer.applicationClassNames().size());
-            System.out.println("# library classes: " + jarOrganizer.libraryClassNames().size());
-
-            // Add the organized archives for the application and its
-            // dependencies.
-            TimeUtils.reset();
-            JarFactoryClassProvider provider = new JarFactoryClassProvider();
-            provider.prepareJarFactoryClasspath();
-
-            // Set some soot parameters
-            SourceLocator.v().setClassProviders(Collections.singletonList(provider));
-            SootSceneUtil.addCommonDynamicClasses(provider);
-            Options.v().classes().addAll(provider.getApplicationClassNames());
-            Options.v().set_main_class(AverroesOptions.getMainClass());
-            Options.v().set_validate(true);
-
-            // Load the necessary classes
-            System.out.println();
-            System.out.println("Loading classes...");
-            Scene.v().loadNecessaryClasses();
-            Scene.v().setMainClassFromOptions();
-            double soot = TimeUtils.elapsedTime();
-            System.out.println("Soot loaded the input classes in " + soot + " seconds.");
-
-            // Now let Averroes do its thing
-            // First, create the class hierarchy
-            TimeUtils.reset();
-            System.out.println();
-            System.out.println("Creating the class hierarchy for the placeholder library...");
-            Hierarchy.v();
-
-            // Output some initial statistics
-            System.out.println(
-                    "# initial application classes: " + Hierarchy.v().getApplicationClasses().size());
-            System.out.println("# initial library classes: " + Hierarchy.v().getLibraryClasses().size());
-            System.out.println("# initial library methods: " + Hierarchy.v().getLibraryMethodCount());
-            System.out.println("# initial library fields: " + Hierarchy.v().getLibraryFieldCount());
-            System.out.println(
-                    "# referenced library methods: " + Hierarchy.v().getReferencedLibraryMethodCount());
-            System.out.println(
-                    "# referenced library fields: " + Hierarchy.v().getReferencedLibraryFieldCount());
-
-            // Cleanup the hierarchy
-            System.out.println();
-            System.out.println("Cleaning up the class hierarchy...");
-            Hierarchy.v().cleanupLibraryClasses();
-
-            // Output some cleanup statistics
-            System.out.println(
-                    "# removed library methods: " + Hierarchy.v().getRemovedLibraryMethodCount());
-            System.out.println(
-                    "# removed library fields: " + Hierarchy.v().getRemovedLibraryFieldCount());
-            // The +1 is for Finalizer.register that will be added later
-            System.out.println("# final library methods: " + (Hierarchy.v().getLibraryMethodCount() + 1));
-            System.out.println("# final library fields: " + Hierarchy.v().getLibraryFieldCount());
-
-            // Output some code generation statistics
-            System.out.println();
-            System.out.println("Generating extra library classes...");
-            System.out.println(
-                    "# generated library classes: " + CodeGenerator.v().getGeneratedClassCount());
-            System.out.println(
-                    "# generated library methods: " + CodeGenerator.v().getGeneratedMethodCount());
-
-            // Create the Averroes library class
-            System.out.println();
-            System.out.println("Creating the skeleton for Averroes's main library class...");
-            CodeGenerator.v().createAverroesLibraryClass();
-
-            // Create method bodies to the library classes
-            System.out.println("Generating the method bodies for the placeholder library classes ...");
-            CodeGenerator.v().createLibraryMethodBodies();
-
-            // Create empty classes for the basic classes required internally by
-            // Soot
-            System.out.println("Generating empty basic library classes required by Soot...");
-            for (SootClass basicClass :
-                    Hierarchy.v().getBasicClassesDatabase().getMissingBasicClasses()) {
-                CodeGenerator.writeLibraryClassFile(basicClass);
-            }
-            double averroes = TimeUtils.elapsedTime();
-            System.out.println(
-                    "Placeholder library classes created and validated in " + averroes + " seconds.");
-
-            // Create the jar file and add all the generated class files to it.
-            TimeUtils.reset();
-            JarFile librJarFile = new JarFile(Paths.placeholderLibraryJarFile());
-            librJarFile.addGeneratedLibraryClassFiles();
-            JarFile aveJarFile = new JarFile(Paths.averroesLibraryClassJarFile());
-            aveJarFile.addAverroesLibraryClassFile();
-            double bcel = TimeUtils.elapsedTime();
-            System.out.println("Placeholder library JAR file verified in " + bcel + " seconds.");
-            System.out.println(
-                    "Total time (without verification) is " + MathUtils.round(soot + averroes) + " seconds.");
-            System.out.println(
-                    "Total time (with verification) is "
-                            + MathUtils.round(soot + averroes + bcel)
-                            + " seconds.");
-
-            double total = TimeUtils.elapsedSplitTime();
-            System.out.println("Elapsed time: " + total + " seconds.");
+            run(args);
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Run Averroes with the given arguments in the current {@link AverroesContext}. To run several
+     * analyses at once, run each of them in its own context, e.g., {@code new
+     * AverroesContext().run(() -> { Main.run(args); return null; })}.
+     *
+     * @param args
+     * @throws Exception
+     */
+    public static void run(String[] args) throws Exception {
+        // Find the total execution time, instead of depending on the Unix
+        // time command
+        TimeUtils.splitStart();
+        Metrics.reset();
+
+        // Process the arguments
+        AverroesOptions.processArguments(args);
+
+        // Reset Soot
+        G.reset();
+
+        // Create the output directory and clean up any class files in there
+        FileUtils.forceMkdir(Paths.libraryClassesOutputDirectory());
+        FileUtils.cleanDirectory(Paths.classesOutputDirectory());
+
+        // Organize the input JAR files
+        Metrics.startPhase("organize");
+        System.out.println();
+        System.out.println("Organizing the JAR files...");
+        JarOrganizer jarOrganizer = new JarOrganizer();
+        jarOrganizer.organizeInputJarFiles();
+
+        // Print some statistics
+        System.out.println("# application classes: " + jarOrganizer.applicationClassNames().size());
+        System.out.println("# library classes: " + jarOrganizer.libraryClassNames().size());
+        Metrics.count("applicationClasses", jarOrganizer.applicationClassNames().size());
+        Metrics.count("libraryClasses", jarOrganizer.libraryClassNames().size());
+
+        // Add the organized archives for the application and its
+        // dependencies.
+        TimeUtils.reset();
+        Metrics.startPhase("soot");
+        JarFactoryClassProvider provider = new JarFactoryClassProvider();
+        provider.prepareJarFactoryClasspath();
+
+        // Set some soot parameters
+        SourceLocator.v().setClassProviders(Collections.singletonList(provider));
+        SootSceneUtil.addCommonDynamicClasses(provider);
+        Options.v().classes().addAll(provider.getApplicationClassNames());
+        Options.v().set_main_class(AverroesOptions.getMainClass());
+        BodyValidator.setPolicy(AverroesOptions.getValidationPolicy());
+        Options.v().set_validate(BodyValidator.getPolicy().isSceneWide());
+
+        // Load the necessary classes
+        System.out.println();
+        System.out.println("Loading classes...");
+        Scene.v().loadNecessaryClasses();
+        Scene.v().setMainClassFromOptions();
+        double soot = TimeUtils.elapsedTime();
+        System.out.println("Soot loaded the input classes in " + soot + " seconds.");
+
+        // Now let Averroes do its thing
+        // First, create the class hierarchy
+        TimeUtils.reset();
+        Metrics.startPhase("hierarchy");
+        System.out.println();
+        System.out.println("Creating the class hierarchy for the placeholder library...");
+        Hierarchy.v();
+
+        // Output some initial statistics
+        System.out.println(
+                "# initial application classes: " + Hierarchy.v().getApplicationClasses().size());
+        System.out.println("# initial library classes: " + Hierarchy.v().getLibraryClasses().size());
+        System.out.println("# initial library methods: " + Hierarchy.v().getLibraryMethodCount());
+        System.out.println("# initial library fields: " + Hierarchy.v().getLibraryFieldCount());
+        System.out.println(
+                "# referenced library methods: " + Hierarchy.v().getReferencedLibraryMethodCount());
+        System.out.println(
+                "# referenced library fields: " + Hierarchy.v().getReferencedLibraryFieldCount());
+        Metrics.count("initialLibraryMethods", Hierarchy.v().getLibraryMethodCount());
+        Metrics.count("initialLibraryFields", Hierarchy.v().getLibraryFieldCount());
+        Metrics.count("referencedLibraryMethods", Hierarchy.v().getReferencedLibraryMethodCount());
+        Metrics.count("referencedLibraryFields", Hierarchy.v().getReferencedLibraryFieldCount());
+
+        // Cleanup the hierarchy
+        Metrics.startPhase("cleanup");
+        System.out.println();
+        System.out.println("Cleaning up the class hierarchy...");
+        Hierarchy.v().cleanupLibraryClasses();
+
+        // Output some cleanup statistics
+        System.out.println(
+                "# removed library methods: " + Hierarchy.v().getRemovedLibraryMethodCount());
+        System.out.println(
+                "# removed library fields: " + Hierarchy.v().getRemovedLibraryFieldCount());
+        // The +1 is for Finalizer.register that will be added later
+        System.out.println("# final library methods: " + (Hierarchy.v().getLibraryMethodCount() + 1));
+        System.out.println("# final library fields: " + Hierarchy.v().getLibraryFieldCount());
+        Metrics.count("removedLibraryMethods", Hierarchy.v().getRemovedLibraryMethodCount());
+        Metrics.count("removedLibraryFields", Hierarchy.v().getRemovedLibraryFieldCount());
+        Metrics.count("finalLibraryMethods", Hierarchy.v().getLibraryMethodCount() + 1);
+        Metrics.count("finalLibraryFields", Hierarchy.v().getLibraryFieldCount());
+
+        // Output some code generation statistics
+        Metrics.startPhase("generate");
+        System.out.println();
+        System.out.println("Generating extra library classes...");
+        System.out.println(
+                "# generated library classes: " + CodeGenerator.v().getGeneratedClassCount());
+        System.out.println(
+                "# generated library methods: " + CodeGenerator.v().getGeneratedMethodCount());
+        if (AverroesOptions.isPackGeneratedClasses()) {
+            CodeGenerator.v().writeGeneratedClassesMapping();
+        } else {
+            FileUtils.deleteQuietly(Paths.generatedClassesMappingFile());
+        }
+        Metrics.count("generatedLibraryClasses", CodeGenerator.v().getGeneratedClassCount());
+
+        // Create the Averroes library class
+        System.out.println();
+        System.out.println("Creating the skeleton for Averroes's main library class...");
+        CodeGenerator.v().createAverroesLibraryClass();
+
+        // Create method bodies to the library classes
+        System.out.println("Generating the method bodies for the placeholder library classes ...");
+        CodeGenerator.v().createLibraryMethodBodies();
+
+        // Validate the generated method bodies before any of them is written to disk
+        Metrics.startPhase("validate");
+        System.out.println("Validating the generated method bodies (" + BodyValidator.getPolicy() + ")...");
+        BodyValidator.validateAll();
+
+        // Write the class files of the library classes
+        Metrics.startPhase("write");
+        System.out.println("Writing the class files of the placeholder library classes...");
+        CodeGenerator.v().writeLibraryClassFiles();
+
+        // Create empty classes for the basic classes required internally by
+        // Soot
+        System.out.println("Generating empty basic library classes required by Soot...");
+        for (SootClass basicClass :
+                Hierarchy.v().getBasicClassesDatabase().getMissingBasicClasses()) {
+            CodeGenerator.writeLibraryClassFile(basicClass);
+        }
+        double averroes = TimeUtils.elapsedTime();
+        Metrics.count("generatedLibraryMethods", CodeGenerator.v().getGeneratedMethodCount());
+        Metrics.count("generatedStatements", CodeGenerator.v().getGeneratedStatementCount());
+        System.out.println(
+                "Placeholder library classes created and validated in " + averroes + " seconds.");
+
+        // Create the jar file and add all the generated class files to it.
+        TimeUtils.reset();
+        Metrics.startPhase("jar");
+        JarFile librJarFile = new JarFile(Paths.placeholderLibraryJarFile());
+        librJarFile.addGeneratedLibraryClassFiles();
+        JarFile aveJarFile = new JarFile(Paths.averroesLibraryClassJarFile());
+        aveJarFile.addAverroesLibraryClassFile();
+        double bcel = TimeUtils.elapsedTime();
+        System.out.println("Placeholder library JAR file verified in " + bcel + " seconds.");
+        System.out.println(
+                "Total time (without verification) is " + MathUtils.round(soot + averroes) + " seconds.");
+        System.out.println(
+                "Total time (with verification) is "
+                        + MathUtils.round(soot + averroes + bcel)
+                        + " seconds.");
+
+        double total = TimeUtils.elapsedSplitTime();
+        System.out.println("Elapsed time: " + total + " seconds.");
+
+        // Write the machine-readable run report next to the JAR files
+        Metrics.writeReport(Paths.reportFile());
+    }
+
     public static void usage() {
         System.out.println();
         System.out.println("Usage: java -jar averroes.jar [options]");
@@ -59,6 +59,8 @@ public class ExpectedOutputPrinter {
 
     } catch (Exception e) {
       e.printStackTrace();
+    } finally {
+      Printers.shutdown();
     }
   }
 }
@@ -1,11 +1,19 @@
 package averroes.frameworks;
 
+import averroes.AverroesContext;
 import averroes.JarFile;
+import averroes.frameworks.analysis.BytecodeFactExtractor;
+import averroes.frameworks.analysis.XtaJimpleBody;
 import averroes.frameworks.options.FrameworksOptions;
 import averroes.frameworks.soot.ClassWriter;
 import averroes.frameworks.soot.CodeGenerator;
+import averroes.frameworks.soot.DependencyResolver;
+import averroes.frameworks.soot.ModelCache;
+import averroes.frameworks.soot.Optimizer;
+import averroes.soot.BodyValidator;
 import averroes.soot.SootSceneUtil;
 import averroes.util.MathUtils;
+import averroes.util.Metrics;
 import averroes.util.SootUtils;
 import averroes.util.TimeUtils;
 import averroes.util.io.Paths;
@@ -13,9 +21,12 @@ import averroes.util.io.Printers;
 import org.apache.commons.io.FileUtils;
 import soot.G;
 import soot.Scene;
+import soot.SootClass;
+import soot.SootMethod;
 import soot.options.Options;
 
 import java.io.IOException;
+import java.util.Set;
 
 /**
  * The main Averroes class.
@@ -25,20 +36,36 @@ import java.io.IOException;
 public class Main {
 
     /**
-     * The main Averroes method.
+     * The main Averroes method. It keeps its state in static fields, so it only runs in the default
+     * {@link AverroesContext}.
      *
      * @param args
      */
     public static void main(String[] args) {
+        if (AverroesContext.v() != AverroesContext.getDefault()) {
+            throw new IllegalStateException("The frameworks pipeline only runs in the default context");
+        }
+
+        boolean failed = false;
         try {
             // Start calculating the total execution time
             TimeUtils.splitStart();
+            Metrics.reset();
 
             // Process the arguments
             FrameworksOptions.processArguments(args);
 
             // Reset Soot
             G.reset();
+            BytecodeFactExtractor.reset();
+            XtaJimpleBody.reset();
+            DependencyResolver.reset();
+            Printers.setEnabled(!FrameworksOptions.isDisableArtifacts());
+            Printers.setBinary(FrameworksOptions.isBinarySummaries());
+            if (FrameworksOptions.isOptimize() && FrameworksOptions.getCacheDirectory() != null) {
+                System.out.println("The model cache is disabled, since -O makes each model depend on the whole library.");
+            }
+            ModelCache.configure(FrameworksOptions.isOptimize() ? null : FrameworksOptions.getCacheDirectory());
 
             // Create the output directory and clean up any class files in there
             averroes.util.io.Paths.deleteClassAnalysisDirectories();
@@ -50,27 +77,71 @@ public class Main {
             Options.v().classes().addAll(FrameworksOptions.getClasses());
             System.out.println(FrameworksOptions.getSootClassPath());
             Options.v().set_soot_classpath(FrameworksOptions.getSootClassPath());
-            Options.v().set_validate(true);
-            if (FrameworksOptions.isIncludeDependencies()) {
+            BodyValidator.setPolicy(FrameworksOptions.getValidationPolicy());
+            Options.v().set_validate(BodyValidator.getPolicy().isSceneWide());
+            if (FrameworksOptions.isIncludeDependencies() && FrameworksOptions.isLazyDependencies()) {
+                // Only load the dependencies reachable from the input classes, and leave the rest phantom
+                Options.v().set_allow_phantom_refs(true);
+                Set<String> dependencies = DependencyResolver.resolve();
+                dependencies.forEach(c -> Scene.v().addBasicClass(c, SootClass.BODIES));
+                Metrics.count("resolvedDependencyClasses", dependencies.size());
+                System.out.println("Resolved " + dependencies.size() + " dependency classes reachable from the input classes.");
+            } else if (FrameworksOptions.isIncludeDependencies()) {
                 Options.v().set_whole_program(true); // to model lib dependencies
                 Options.v().set_allow_phantom_refs(true); // to handle invokedynamic
             }
 
             // Load the necessary classes
             TimeUtils.reset();
+            Metrics.startPhase("soot");
             System.out.println("Loading classes...");
             Scene.v().loadNecessaryClasses();
             double soot = TimeUtils.elapsedTime();
             System.out.println("Soot loaded the input classes in " + soot + " seconds.");
+            Metrics.count("loadedClasses", Scene.v().getClasses().size());
+            Metrics.count("modelledClasses", SootSceneUtil.getClasses().size());
 
             // Add default constructors to all library classes
             SootSceneUtil.getClasses().forEach(CodeGenerator::createEmptyDefaultConstructor);
 
+            // Look up the models of the library classes in the cache, before generating any code
+            Metrics.startPhase("cache");
+            ModelCache.lookup(SootSceneUtil.getClasses());
+
             // Now let Averroes do its thing
             TimeUtils.reset();
+            Metrics.startPhase("generate");
             System.out.println("Creating Jimple bodies for framework methods...");
+            Metrics.count("originalFields", SootSceneUtil.getClasses().stream().mapToLong(SootClass::getFieldCount).sum());
             CodeGenerator.generateJimple();
+            Metrics.count("classes", SootSceneUtil.getClasses().size());
+            Metrics.count("methods", SootSceneUtil.getClasses().stream().mapToLong(SootClass::getMethodCount).sum());
+            Metrics.count("fields", SootSceneUtil.getClasses().stream().mapToLong(SootClass::getFieldCount).sum());
+            Metrics.count("statements", SootSceneUtil.getClasses().stream()
+                    .flatMap(c -> c.getMethods().stream())
+                    .filter(SootMethod::hasActiveBody)
+                    .mapToLong(m -> m.getActiveBody().getUnits().size())
+                    .sum());
+
+            // Inline, prune, and simplify the generated model
+            if (FrameworksOptions.isOptimize()) {
+                Metrics.startPhase("optimize");
+                System.out.println("Optimizing Jimple bodies for framework methods...");
+                new Optimizer().optimize();
+                Metrics.count("optimizedMethods", SootSceneUtil.getClasses().stream().mapToLong(SootClass::getMethodCount).sum());
+                Metrics.count("optimizedStatements", SootSceneUtil.getClasses().stream()
+                        .flatMap(c -> c.getMethods().stream())
+                        .filter(SootMethod::hasActiveBody)
+                        .mapToLong(m -> m.getActiveBody().getUnits().size())
+                        .sum());
+            }
+
+            // Validate the generated method bodies
+            Metrics.startPhase("validate");
+            System.out.println("Validating Jimple bodies for framework methods (" + BodyValidator.getPolicy() + ")...");
+            BodyValidator.validateAll();
 
+            Metrics.startPhase("json");
             System.out.println("Writing JSON files for framework methods...");
             // Print out JSON files
             Printers.printGeneratedJson();
@@ -79,26 +150,50 @@ public class Main {
             SootUtils.cleanupClasses();
 
             // Write class files for the generate model
+            Metrics.startPhase("write");
             System.out.println("Writing class files for framework methods...");
-            ClassWriter.writeLibraryClassFiles();
+            JarFile frameworkJarFile = new JarFile(Paths.placeholderFrameworkJarFile());
+            if (FrameworksOptions.isWriteJar()) {
+                ClassWriter.writeLibraryClassFiles(frameworkJarFile);
+            } else {
+                ClassWriter.writeLibraryClassFiles();
+            }
             double averroes = TimeUtils.elapsedTime();
             System.out.println("Placeholder framework classes created and Jimple validated in " + averroes + " seconds.");
 
             // Create the jar file, add all the generated class files to it, and, finally, verify it using ASM.
             TimeUtils.reset();
-            JarFile frameworkJarFile = new JarFile(Paths.placeholderFrameworkJarFile());
-            frameworkJarFile.addGeneratedFrameworkClassFiles();
-            JarFile.verifyJarFile(Paths.placeholderFrameworkJarFile().toString());
-
-            double bcel = TimeUtils.elapsedTime();
-            System.out.println("Placeholder framework JAR file verified in " + bcel + " seconds.");
-            System.out.println("Total time (without verification) is " + MathUtils.round(soot + averroes) + " seconds.");
-            System.out.println("Total time (with verification) is " + MathUtils.round(soot + averroes + bcel) + " seconds.");
+            Metrics.startPhase("jar");
+            if (!FrameworksOptions.isWriteJar()) {
+                frameworkJarFile.addGeneratedFrameworkClassFiles();
+            }
+            if (BodyValidator.getPolicy().isVerifyJar()) {
+                JarFile.verifyJarFile(Paths.placeholderFrameworkJarFile().toString());
+                double bcel = TimeUtils.elapsedTime();
+                System.out.println("Placeholder framework JAR file verified in " + bcel + " seconds.");
+                System.out.println("Total time (without verification) is " + MathUtils.round(soot + averroes) + " seconds.");
+                System.out.println("Total time (with verification) is " + MathUtils.round(soot + averroes + bcel) + " seconds.");
+            } else {
+                System.out.println("Placeholder framework JAR file created in " + TimeUtils.elapsedTime() + " seconds.");
+                System.out.println("Total time (without verification) is " + MathUtils.round(soot + averroes) + " seconds.");
+            }
 
             double total = TimeUtils.elapsedSplitTime();
             System.out.println("Elapsed time: " + total + " seconds.");
+
+            // Write the machine-readable run report next to the JAR file
+            Metrics.writeReport(Paths.frameworksReportFile());
         } catch (IOException e) {
             e.printStackTrace();
+            failed = true;
+        } finally {
+            // Write out any pending Jimple, JSON, and inliner files
+            Printers.shutdown();
+        }
+
+        // A worker of ShardedMain reports its failure through its exit code
+        if (failed && FrameworksOptions.isSharded()) {
+            System.exit(1);
         }
     }
 }
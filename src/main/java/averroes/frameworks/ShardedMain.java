@@ -0,0 +1,265 @@
+package averroes.frameworks;
+
+import averroes.JarFile;
+import averroes.frameworks.options.FrameworksOptions;
+import averroes.soot.Names;
+import averroes.util.Metrics;
+import averroes.util.TimeUtils;
+import averroes.util.io.Paths;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A driver that splits the input classes into shards by package, and runs a separate worker JVM of
+ * {@link Main} for each shard. Soot keeps its state in global singletons, so this is the way to
+ * generate the models of a very large framework in parallel with a bounded heap per worker. All the
+ * workers share the same (read-only) class path, and each one writes its output to its own
+ * directory. Once they are all done, their placeholder JAR files are merged into one, and their
+ * JSON and Jimple files are copied to the output directory. The common classes (e.g., rta.RTA) are
+ * generated by every worker, so they must be identical across shards.
+ *
+ * <p>It takes the same arguments as {@link Main}, where -m sets the number of workers.
+ */
+public class ShardedMain {
+
+    private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+    private static final Set<String> COMMON_CLASSES =
+            new HashSet<>(Arrays.asList(entryName(Names.RTA_CLASS), entryName(Names.XTA_CLASS), entryName(Names.CFA_CLASS)));
+
+    /**
+     * The main method of the sharded driver.
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        try {
+            TimeUtils.splitStart();
+            Metrics.reset();
+
+            // Process the arguments
+            FrameworksOptions.processArguments(args);
+            int count = FrameworksOptions.getShardCount();
+            Metrics.count("shards", count);
+
+            // Clean up the output of any previous run
+            Paths.deleteClassAnalysisDirectories();
+            Paths.deleteJimpleAnalysisDirectories();
+            Paths.deleteJsonAnalysisDirectories();
+            FileUtils.deleteDirectory(shardsDirectory());
+
+            // Run all the workers at once, and wait for them to finish
+            Metrics.startPhase("shards");
+            System.out.println("Running " + count + " Averroes workers...");
+            List<Process> workers = new ArrayList<>();
+            for (int shard = 0; shard < count; shard++) {
+                workers.add(startWorker(args, shard));
+            }
+            List<String> failures = new ArrayList<>();
+            for (int shard = 0; shard < count; shard++) {
+                int exitCode = workers.get(shard).waitFor();
+                if (exitCode != 0) {
+                    failures.add("worker " + shard + " failed with exit code " + exitCode + ", see " + logFile(shard));
+                }
+            }
+            if (!failures.isEmpty()) {
+                throw new IllegalStateException("Averroes workers failed: " + String.join("; ", failures));
+            }
+            for (int shard = 0; shard < count; shard++) {
+                addWorkerCounters(shard);
+            }
+            double workersTime = TimeUtils.elapsedSplitTime();
+            System.out.println("Averroes workers finished in " + workersTime + " seconds.");
+
+            // Merge the output of the workers
+            TimeUtils.reset();
+            Metrics.startPhase("merge");
+            System.out.println("Merging the placeholder framework JAR files of the workers...");
+            mergeJarFiles(count);
+            for (int shard = 0; shard < count; shard++) {
+                copyArtifacts(shard);
+            }
+            if (FrameworksOptions.getValidationPolicy().isVerifyJar()) {
+                JarFile.verifyJarFile(Paths.placeholderFrameworkJarFile().toString());
+            }
+            System.out.println("Placeholder framework JAR file merged in " + TimeUtils.elapsedTime() + " seconds.");
+
+            System.out.println("Elapsed time: " + TimeUtils.elapsedSplitTime() + " seconds.");
+
+            // Write the machine-readable run report next to the JAR file
+            Metrics.writeReport(Paths.frameworksReportFile());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the Averroes workers", e);
+        }
+    }
+
+    /**
+     * Start a worker JVM that models the input classes in the given shard. It runs with the same JVM
+     * options and class path as this one, and writes its output to the directory of its shard.
+     *
+     * @param args
+     * @param shard
+     * @return
+     * @throws IOException
+     */
+    private static Process startWorker(String[] args, int shard) throws IOException {
+        FileUtils.forceMkdir(shardDirectory(shard));
+
+        List<String> command = new ArrayList<>();
+        command.add(java.nio.file.Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Main.class.getName());
+        command.addAll(workerArguments(args, shard));
+
+        return new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(logFile(shard))
+                .start();
+    }
+
+    /**
+     * The arguments of the worker of the given shard. These are the arguments of the driver, except
+     * that the output directory is the one of the shard.
+     *
+     * @param args
+     * @param shard
+     * @return
+     */
+    private static List<String> workerArguments(String[] args, int shard) {
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-o") || args[i].equals("--output-directory") || args[i].equals("-k") || args[i].equals("--shard")) {
+                i++;
+            } else if (!args[i].startsWith("--output-directory=") && !args[i].startsWith("--shard=")) {
+                result.add(args[i]);
+            }
+        }
+
+        result.addAll(Arrays.asList("-o", shardDirectory(shard).getPath(), "-k", String.valueOf(shard)));
+        return result;
+    }
+
+    /**
+     * Add the counters in the run report of the worker of the given shard to the ones of the driver.
+     *
+     * @param shard
+     * @throws IOException
+     */
+    private static void addWorkerCounters(int shard) throws IOException {
+        File report = new File(shardDirectory(shard), Paths.frameworksReportFile().getName());
+        if (!report.isFile()) {
+            return;
+        }
+
+        try (Reader reader = Files.newBufferedReader(report.toPath(), StandardCharsets.UTF_8)) {
+            JsonObject counters = new JsonParser().parse(reader).getAsJsonObject().getAsJsonObject("counters");
+            if (counters != null) {
+                counters.entrySet().forEach(e -> Metrics.add(e.getKey(), e.getValue().getAsLong()));
+            }
+        }
+    }
+
+    /**
+     * Merge the placeholder JAR files of all the workers into the placeholder framework JAR file. A
+     * class that more than one worker generated (e.g., the common classes, or a dependency class in
+     * whole-library mode) is added once. The common classes must be identical in all shards.
+     *
+     * @param count
+     * @throws IOException
+     */
+    private static void mergeJarFiles(int count) throws IOException {
+        Map<String, byte[]> entries = new TreeMap<>();
+        Map<String, Integer> origins = new HashMap<>();
+
+        for (int shard = 0; shard < count; shard++) {
+            File jar = new File(shardDirectory(shard), Paths.placeholderFrameworkJarFile().getName());
+            if (!jar.isFile()) {
+                throw new IllegalStateException("Worker " + shard + " did not create " + jar);
+            }
+
+            try (ZipFile zip = new ZipFile(jar)) {
+                for (ZipEntry entry : Collections.list(zip.entries())) {
+                    if (entry.isDirectory() || entry.getName().equals(MANIFEST)) {
+                        continue;
+                    }
+
+                    byte[] bytes;
+                    try (InputStream in = zip.getInputStream(entry)) {
+                        bytes = IOUtils.toByteArray(in);
+                    }
+
+                    byte[] previous = entries.putIfAbsent(entry.getName(), bytes);
+                    if (previous == null) {
+                        origins.put(entry.getName(), shard);
+                    } else {
+                        Metrics.add("duplicateClasses", 1);
+                        if (!Arrays.equals(previous, bytes)) {
+                            String message = entry.getName() + " differs between shards " + origins.get(entry.getName()) + " and " + shard;
+                            if (COMMON_CLASSES.contains(entry.getName())) {
+                                throw new IllegalStateException(message);
+                            }
+                            System.out.println("Warning: " + message + ", keeping the first one.");
+                        }
+                    }
+                }
+            }
+        }
+
+        JarFile frameworkJarFile = new JarFile(Paths.placeholderFrameworkJarFile());
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+            frameworkJarFile.add(new ByteArrayInputStream(entry.getValue()), entry.getKey());
+        }
+        frameworkJarFile.close();
+        Metrics.count("mergedClasses", entries.size());
+    }
+
+    /**
+     * Copy the class, JSON, and Jimple files that the worker of the given shard wrote to the output
+     * directory.
+     *
+     * @param shard
+     * @throws IOException
+     */
+    private static void copyArtifacts(int shard) throws IOException {
+        File[] directories = shardDirectory(shard).listFiles(File::isDirectory);
+        for (File directory : directories == null ? new File[0] : directories) {
+            FileUtils.copyDirectory(directory, new File(FrameworksOptions.getOutputDirectory(), directory.getName()));
+        }
+    }
+
+    private static File shardsDirectory() {
+        return new File(FrameworksOptions.getOutputDirectory(), "shards");
+    }
+
+    private static File shardDirectory(int shard) {
+        return new File(shardsDirectory(), String.valueOf(shard));
+    }
+
+    private static File logFile(int shard) {
+        return new File(shardsDirectory(), shard + ".log");
+    }
+
+    private static String entryName(String className) {
+        return className.replace('.', '/') + ".class";
+    }
+}
@@ -1,10 +1,13 @@
 package averroes.frameworks.analysis;
 
 import averroes.frameworks.options.FrameworksOptions;
+import averroes.soot.BodyValidator;
 import averroes.soot.Names;
+import averroes.util.Metrics;
 import averroes.util.SootUtils;
 import averroes.util.io.Printers;
 import averroes.util.io.Printers.PrinterType;
+import averroes.util.jfr.MethodGenerationEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import soot.*;
@@ -28,37 +31,25 @@ public abstract class AbstractJimpleBody {
     protected JimpleBody originalBody;
     protected JimpleBody body;
     protected LocalGenerator localGenerator;
-    protected boolean readsArray = false;
-    protected boolean writesArray = false;
+    protected boolean readsArray;
+    protected boolean writesArray;
 
     protected Map<Type, Local> casts;
 
-    // Various constructs collected from processing the original method body.
-    // Arrays created within the original method body.
-    protected LinkedHashSet<Type> arrayCreations = new LinkedHashSet<Type>();
+    // Various constructs collected from processing the original method body (see MethodFacts).
+    protected MethodFacts facts;
+    protected LinkedHashSet<Type> arrayCreations;
+    protected LinkedHashSet<SpecialInvokeExpr> objectCreations;
+    protected LinkedHashSet<InvokeExpr> invokeStmts;
+    protected LinkedHashSet<InvokeExpr> invokeExprs;
+    protected LinkedHashSet<Type> throwables;
+    protected LinkedHashSet<SootClass> checkedExceptions;
+    protected LinkedHashSet<SootFieldRef> fieldReads;
+    protected LinkedHashSet<SootFieldRef> fieldWrites;
 
-    // Objects, other than arrays, created within the original method body.
-    protected LinkedHashSet<SpecialInvokeExpr> objectCreations =
-            new LinkedHashSet<SpecialInvokeExpr>();
-
-    // Invoke statements (i.e., return value not assigned to any local
-    // variables)
-    protected LinkedHashSet<InvokeExpr> invokeStmts = new LinkedHashSet<>();
-
-    // Invoke expression (i.e., return value is assigned to some local variable)
-    protected LinkedHashSet<InvokeExpr> invokeExprs = new LinkedHashSet<>();
-
-    // Thrown types
-    protected LinkedHashSet<Type> throwables = new LinkedHashSet<>();
-
-    // Checked exceptions (declared in the method signature)
-    protected LinkedHashSet<SootClass> checkedExceptions = new LinkedHashSet<>();
-
-    // Field reads
-    protected LinkedHashSet<SootFieldRef> fieldReads = new LinkedHashSet<>();
-
-    // Field writes
-    protected LinkedHashSet<SootFieldRef> fieldWrites = new LinkedHashSet<>();
+    // The "this" local and the first non-identity statement of the original method body
+    protected Local originalThisLocal;
+    protected Stmt originalFirstNonIdentityStmt;
 
     /**
      * Create a new type-based Jimple body creator for method M.
@@ -67,27 +58,158 @@ public abstract class AbstractJimpleBody {
      */
     protected AbstractJimpleBody(SootMethod method) {
         this.method = method;
-        originalBody = (JimpleBody) method.retrieveActiveBody();
         body = Jimple.v().newBody(method);
         localGenerator = new LocalGenerator(body);
 
         casts = new HashMap<>();
 
-        processOriginalMethodBody();
+        useFacts(extractFacts());
+    }
+
+    /**
+     * Collect the facts about the original method body from the source given in the options.
+     *
+     * @return
+     */
+    private MethodFacts extractFacts() {
+        switch (FrameworksOptions.getFactSource()) {
+            case BYTECODE:
+                return new BytecodeFactExtractor(method, this::addInvokeStmt).extract();
+            case CHECK:
+                MethodFacts facts = processOriginalMethodBody();
+                crossCheck(facts, new BytecodeFactExtractor(method, this::addInvokeStmt).extract());
+                return facts;
+            default:
+                return processOriginalMethodBody();
+        }
+    }
+
+    /**
+     * Report the differences between the facts collected from the Jimple body and the bytecode of
+     * the original method, if any.
+     *
+     * @param jimple
+     * @param bytecode
+     */
+    private void crossCheck(MethodFacts jimple, MethodFacts bytecode) {
+        List<String> expected = jimple.describe();
+        List<String> actual = bytecode.describe();
+        for (int i = 0; i < expected.size(); i++) {
+            if (!expected.get(i).equals(actual.get(i))) {
+                Metrics.add("facts.mismatches", 1);
+                logger.warn(
+                        "Bytecode facts differ from Jimple facts for "
+                                + method.getSignature()
+                                + "\n  jimple:   "
+                                + expected.get(i)
+                                + "\n  bytecode: "
+                                + actual.get(i));
+            }
+        }
+    }
+
+    /**
+     * Use the given facts to generate the new method body.
+     *
+     * @param facts
+     */
+    private void useFacts(MethodFacts facts) {
+        this.facts = facts;
+        arrayCreations = facts.arrayCreations;
+        objectCreations = facts.objectCreations;
+        invokeStmts = facts.invokeStmts;
+        invokeExprs = facts.invokeExprs;
+        throwables = facts.throwables;
+        checkedExceptions = facts.checkedExceptions;
+        fieldReads = facts.fieldReads;
+        fieldWrites = facts.fieldWrites;
+        readsArray = facts.readsArray;
+        writesArray = facts.writesArray;
+        originalThisLocal = facts.thisLocal;
+        originalFirstNonIdentityStmt = facts.firstNonIdentityStmt;
+    }
+
+    /**
+     * Add the given invoke statement of the original method body to the facts as an object creation,
+     * or as a call, unless it calls the super or an overloaded constructor.
+     *
+     * @param facts
+     * @param stmt
+     */
+    void addInvokeStmt(MethodFacts facts, InvokeStmt stmt) {
+        if (isRelevantObjectCreation(stmt)) {
+            facts.objectCreations.add((SpecialInvokeExpr) stmt.getInvokeExpr());
+        } else if (!isCallToSuperOrOverloadedConstructor(stmt)) {
+            facts.invokeStmts.add(stmt.getInvokeExpr());
+        }
     }
 
     /**
      * Generate the code for the underlying Soot method (which is assumed to be concrete).
      */
     public void generateCode() {
-        Printers.printJimple(PrinterType.ORIGINAL, method);
+        prepare();
+        generateBody();
+        finish();
+    }
+
+    /**
+     * Print out the original method body, and create the shared classes, fields, and types that the
+     * generated body needs. This step changes the Soot scene, so it has to run sequentially.
+     */
+    public void prepare() {
+        // Without the original Jimple body, there's nothing to print out
+        if (originalBody != null) {
+            Printers.printJimple(PrinterType.ORIGINAL, method);
+        }
 
         // Create Common Class
         // NOTE: we will skip guarding any statements in this class
         // because it contains the guard
         ensureCommonClassExists();
 
+        // Resolving a method reference may add a phantom method to the scene, so do it now
+        objectCreations.forEach(InvokeExpr::getMethod);
+        invokeStmts.forEach(InvokeExpr::getMethod);
+        invokeExprs.forEach(InvokeExpr::getMethod);
+
+        ensureArrayTypesExist();
+    }
+
+    /**
+     * Create the array types that the generated body may need. Soot caches the array types of a type
+     * in the type itself, so {@link ArrayType#v(Type, int)} only reads the scene once they exist.
+     */
+    private void ensureArrayTypesExist() {
+        ArrayType.v(Scene.v().getObjectType(), ARRAY_LENGTH.value);
+        arrayCreations.stream()
+                .filter(t -> t instanceof ArrayType)
+                .map(t -> (ArrayType) t)
+                .forEach(t -> ArrayType.v(t.baseType, t.numDimensions));
+    }
+
+    /**
+     * Create the new Jimple body for the underlying Soot method. This step only writes to the new
+     * body, and only reads the scene, so it can run in parallel for different methods once {@link
+     * #prepare()} has been called for all of them.
+     */
+    public void generateBody() {
+        MethodGenerationEvent event = new MethodGenerationEvent();
+        event.begin();
+
         // Create the new Jimple body
+        createBody();
+
+        event.commit(
+                method.getDeclaringClass().getName(),
+                method.getNumberedSubSignature().getString(),
+                FrameworksOptions.getAnalysis());
+    }
+
+    /**
+     * Fill in the new Jimple body for the underlying Soot method from the collected facts.
+     */
+    protected void createBody() {
         insertJimpleBodyHeader();
         createObjects();
         callMethods();
@@ -95,14 +217,21 @@ public abstract class AbstractJimpleBody {
         handleFields();
         handleExceptions();
         insertJimpleBodyFooter();
+    }
 
+    /**
+     * Clean up the generated Jimple body, submit it for validation, assign it to the underlying Soot
+     * method, and print it out. The cleanup runs the Soot body transformers, whose options are shared,
+     * so this step has to run sequentially, in the same order as {@link #prepare()}.
+     */
+    public void finish() {
         // Cleanup the generated body
         SootUtils.cleanup(body);
 
-        // Validate method Jimple body & assign it to the method
-        body.validate();
-        method.setActiveBody(body);
+        // Submit method Jimple body for validation
+        BodyValidator.submit(body);
 
+        method.setActiveBody(body);
         Printers.printJimple(PrinterType.GENERATED, method);
     }
 
@@ -153,8 +282,15 @@ public abstract class AbstractJimpleBody {
     /**
      * Scan the original method body for stuff we are looking for so that we loop over the
      * instructions only once.
+     *
+     * @return
      */
-    private void processOriginalMethodBody() {
+    private MethodFacts processOriginalMethodBody() {
+        originalBody = (JimpleBody) method.retrieveActiveBody();
+        MethodFacts facts = new MethodFacts();
+        facts.thisLocal = method.isStatic() ? null : originalBody.getThisLocal();
+        facts.firstNonIdentityStmt = originalBody.getFirstNonIdentityStmt();
+
         originalBody
                 .getUnits()
                 .forEach(
@@ -166,49 +302,48 @@ public abstract class AbstractJimpleBody {
                                                 // array creations, reads, and writes
                                                 if (stmt.getRightOp() instanceof NewArrayExpr
                                                         || stmt.getRightOp() instanceof NewMultiArrayExpr) {
-                                                    arrayCreations.add(stmt.getRightOp().getType());
+                                                    facts.arrayCreations.add(stmt.getRightOp().getType());
                                                 } else if (isFieldRead(stmt)
                                                         && stmt.getRightOp().getType() instanceof RefLikeType) {
-                                                    fieldReads.add(((FieldRef) stmt.getRightOp()).getFieldRef());
+                                                    facts.fieldReads.add(((FieldRef) stmt.getRightOp()).getFieldRef());
                                                 } else if (isFieldWrite(stmt)
                                                         && stmt.getLeftOp().getType() instanceof RefLikeType) {
-                                                    fieldWrites.add(((FieldRef) stmt.getLeftOp()).getFieldRef());
-                                                } else if (!readsArray && isArrayRead(stmt)) {
-                                                    readsArray = true;
-                                                } else if (!writesArray && isArrayWrite(stmt)) {
-                                                    writesArray = true;
+                                                    facts.fieldWrites.add(((FieldRef) stmt.getLeftOp()).getFieldRef());
+                                                } else if (!facts.readsArray && isArrayRead(stmt)) {
+                                                    facts.readsArray = true;
+                                                } else if (!facts.writesArray && isArrayWrite(stmt)) {
+                                                    facts.writesArray = true;
                                                 } else if (isAssignInvoke(stmt)) {
-                                                    invokeExprs.add((InvokeExpr) stmt.getRightOp());
+                                                    facts.invokeExprs.add((InvokeExpr) stmt.getRightOp());
                                                 }
                                             }
 
                                             @Override
                                             public void caseInvokeStmt(InvokeStmt stmt) {
-                                                if (isRelevantObjectCreation(stmt)) {
-                                                    objectCreations.add((SpecialInvokeExpr) stmt.getInvokeExpr());
-                                                } else if (!isCallToSuperOrOverloadedConstructor(stmt)) {
-                                                    invokeStmts.add(stmt.getInvokeExpr());
-                                                }
+                                                addInvokeStmt(facts, stmt);
                                             }
 
                                             @Override
                                             public void caseThrowStmt(ThrowStmt stmt) {
                                                 // Only consider throwables that are not handled locally
                                                 if (!TrapManager.getTrappedUnitsOf(originalBody).contains(stmt)) {
-                                                    throwables.add(stmt.getOp().getType());
+                                                    facts.throwables.add(stmt.getOp().getType());
                                                 }
                                             }
                                         }));
 
-        processTraps();
+        processTraps(facts);
+        return facts;
     }
 
     /**
      * Process the traps of a method (i.e., catch blocks) to simulate the creation and assignment of
      * the caught-exception to a local variable that could be used in the catch block.
+     *
+     * @param facts
      */
-    private void processTraps() {
-        originalBody.getTraps().stream().map(Trap::getException).forEach(checkedExceptions::add);
+    private void processTraps(MethodFacts facts) {
+        originalBody.getTraps().stream().map(Trap::getException).forEach(facts.checkedExceptions::add);
     }
 
     /**
@@ -226,7 +361,7 @@ public abstract class AbstractJimpleBody {
          */
         if (method.isConstructor()) {
             Local base = body.getThisLocal();
-            Stmt firstNonIdentity = originalBody.getFirstNonIdentityStmt();
+            Stmt firstNonIdentity = originalFirstNonIdentityStmt;
 
             // don't guard calls to the super constructor => causes
             // uninitialized bytecode verification errors
@@ -1044,20 +1179,6 @@ public abstract class AbstractJimpleBody {
         return assign.getRightOp() instanceof ArrayRef;
     }
 
-    /**
-     * Does the underlying method read an array in any of its statements?
-     *
-     * @return
-     */
-    protected boolean readsArray() {
-        return originalBody.getUnits().stream()
-                .filter(u -> u instanceof AssignStmt)
-                .map(AssignStmt.class::cast)
-                .filter(this::isArrayRead)
-                .findFirst()
-                .isPresent();
-    }
-
     /**
      * Is this assignment an array write?
      *
@@ -1068,20 +1189,6 @@ public abstract class AbstractJimpleBody {
         return assign.getLeftOp() instanceof ArrayRef;
     }
 
-    /**
-     * Does the underlying method writes to an array in any of its statements?
-     *
-     * @return
-     */
-    protected boolean writesArray() {
-        return originalBody.getUnits().stream()
-                .filter(u -> u instanceof AssignStmt)
-                .map(AssignStmt.class::cast)
-                .filter(this::isArrayWrite)
-                .findFirst()
-                .isPresent();
-    }
-
     /**
      * Is this assignment a field read?
      *
@@ -1155,7 +1262,7 @@ public abstract class AbstractJimpleBody {
      * @return
      */
     protected Value getInvokeReceiver(InstanceInvokeExpr invoke) {
-        if (!method.isStatic() && invoke.getBase().equals(originalBody.getThisLocal())) {
+        if (!method.isStatic() && invoke.getBase().equals(originalThisLocal)) {
             return body.getThisLocal();
         } else {
             return getCompatibleValue(invoke.getBase().getType());
@@ -1166,38 +1273,6 @@ public abstract class AbstractJimpleBody {
     // if()
     // }
 
-    /**
-     * Return a list of all the object created through calls to constructors. This does not include
-     * array creations. Those are collected and handled somewhere else.
-     *
-     * @return
-     */
-    protected List<SpecialInvokeExpr> getObjectCreations() {
-        return originalBody.getUnits().stream()
-                .filter(u -> u instanceof InvokeStmt)
-                .map(InvokeStmt.class::cast)
-                .filter(s -> s.getInvokeExpr() instanceof SpecialInvokeExpr)
-                .map(s -> (SpecialInvokeExpr) s.getInvokeExpr())
-                .collect(Collectors.toList());
-    }
-
-    /**
-     * Return a list of all the created in the underlying method.
-     *
-     * @return
-     */
-    protected List<Type> getArrayCreations() {
-        return originalBody.getUnits().stream()
-                .filter(u -> u instanceof AssignStmt)
-                .map(AssignStmt.class::cast)
-                .filter(
-                        s ->
-                                s.getRightOp() instanceof NewArrayExpr
-                                        || s.getRightOp() instanceof NewMultiArrayExpr)
-                .map(s -> s.getRightOp().getType())
-                .collect(Collectors.toList());
-    }
-
     /**
      * Get all the LHS local variables for the RefLikeType parameters of the newly created Jimple
      * body.
@@ -1289,7 +1364,7 @@ public abstract class AbstractJimpleBody {
         // Do not use getCompatibleValue(a.getType). This causes errors as it
         // will happily cast an object to the NullType.
         for (int i = 0; i < originalInvokeExpr.getArgCount(); i++) {
-            if (!method.isStatic() && originalInvokeExpr.getArg(i).equals(originalBody.getThisLocal())) {
+            if (!method.isStatic() && originalInvokeExpr.getArg(i).equals(originalThisLocal)) {
                 result.add(body.getThisLocal());
             } else if (originalInvokeExpr.getArg(i).getType().equals(NullType.v())) {
                 //				result.add(getCompatibleValue(originalInvokeExpr.getMethod().getParameterType(i)));
@@ -0,0 +1,579 @@
+package averroes.frameworks.analysis;
+
+import averroes.util.BytecodeUtils;
+import org.apache.commons.io.IOUtils;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.MultiANewArrayInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+import org.objectweb.asm.tree.analysis.Analyzer;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
+import org.objectweb.asm.tree.analysis.Frame;
+import org.objectweb.asm.tree.analysis.SourceInterpreter;
+import org.objectweb.asm.tree.analysis.SourceValue;
+import soot.*;
+import soot.jimple.*;
+import soot.tagkit.InnerClassTag;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Collects the facts about an original library method directly from its bytecode with ASM, in one
+ * scan over its instructions, instead of building its Jimple body. The sources of the values on the
+ * operand stack are computed by ASM's {@link Analyzer} with a {@link SourceInterpreter}.
+ * <p>
+ * Invocations are represented by Jimple invoke expressions so that the rest of Averroes can handle
+ * them as usual. Their arguments and receivers are the "this" local, null and string constants, or
+ * fresh locals. A fresh local is typed after the instruction that produced its value (e.g., the
+ * class of a NEW instruction or the return type of a call), or after the declared type when that's
+ * not known. Jimple may infer more precise types for some locals, so the generated casts might
+ * differ slightly from the ones generated from the Jimple body.
+ */
+public class BytecodeFactExtractor {
+
+    // The class files read so far, indexed by class name
+    private static final Map<String, ClassNode> classNodes = new ConcurrentHashMap<>();
+
+    private final SootMethod method;
+    private final BiConsumer<MethodFacts, InvokeStmt> invokeStmts;
+    private final MethodFacts facts = new MethodFacts();
+
+    private MethodNode methodNode;
+    private Frame<SourceValue>[] frames;
+    private Map<Integer, Type> parameterSlots = new HashMap<>();
+    private Set<Integer> storedSlots = new HashSet<>();
+    private int localCount = 0;
+
+    /**
+     * Create a new fact extractor for the given method. Invoke statements are handed to the given
+     * consumer, which decides whether they are object creations or calls.
+     *
+     * @param method
+     * @param invokeStmts
+     */
+    public BytecodeFactExtractor(SootMethod method, BiConsumer<MethodFacts, InvokeStmt> invokeStmts) {
+        this.method = method;
+        this.invokeStmts = invokeStmts;
+    }
+
+    /**
+     * Forget the class files read so far.
+     */
+    public static void reset() {
+        classNodes.clear();
+    }
+
+    /**
+     * Extract the facts from the bytecode of the underlying method.
+     *
+     * @return
+     */
+    public MethodFacts extract() {
+        ClassNode classNode = classNode(method.getDeclaringClass().getName());
+        methodNode = methodNode(classNode);
+        try {
+            frames = new Analyzer<>(new SourceInterpreter()).analyze(classNode.name, methodNode);
+        } catch (AnalyzerException e) {
+            throw new RuntimeException("Cannot analyze the bytecode of " + method.getSignature(), e);
+        }
+
+        int slot = 0;
+        if (!method.isStatic()) {
+            facts.thisLocal = Jimple.v().newLocal("this", method.getDeclaringClass().getType());
+            slot++;
+        }
+        for (Type type : method.getParameterTypes()) {
+            parameterSlots.put(slot, type);
+            slot += type instanceof LongType || type instanceof DoubleType ? 2 : 1;
+        }
+
+        for (AbstractInsnNode insn : methodNode.instructions.toArray()) {
+            if (insn instanceof VarInsnNode && insn.getOpcode() >= Opcodes.ISTORE) {
+                storedSlots.add(((VarInsnNode) insn).var);
+            } else if (insn instanceof IincInsnNode) {
+                storedSlots.add(((IincInsnNode) insn).var);
+            }
+        }
+
+        boolean seenStmt = false;
+        for (int i = 0; i < methodNode.instructions.size(); i++) {
+            // Unreachable code does not make it into the Jimple body either
+            if (frames[i] == null) {
+                continue;
+            }
+
+            AbstractInsnNode insn = methodNode.instructions.get(i);
+            boolean isFirstStmt = !seenStmt && insn.getOpcode() > Opcodes.ALOAD;
+            seenStmt |= isFirstStmt;
+            processInsn(i, insn, isFirstStmt);
+        }
+
+        for (TryCatchBlockNode tcb : methodNode.tryCatchBlocks) {
+            String type = tcb.type == null ? "java.lang.Throwable" : tcb.type.replace('/', '.');
+            facts.checkedExceptions.add(Scene.v().getSootClass(type));
+        }
+
+        return facts;
+    }
+
+    /**
+     * Is this a write to the this$0 field in an inner class? Such writes are left out of the facts,
+     * the same as in {@link AbstractJimpleBody#isFieldWrite(AssignStmt)}.
+     *
+     * @param insn
+     * @return
+     */
+    private boolean isOuterInstanceWrite(FieldInsnNode insn) {
+        return insn.name.equals("this$0")
+                && method.getDeclaringClass().getTags().stream().anyMatch(t -> t instanceof InnerClassTag);
+    }
+
+    /**
+     * Add the facts of the given instruction.
+     *
+     * @param index
+     * @param insn
+     * @param isFirstStmt
+     */
+    private void processInsn(int index, AbstractInsnNode insn, boolean isFirstStmt) {
+        Frame<SourceValue> frame = frames[index];
+        int opcode = insn.getOpcode();
+
+        switch (opcode) {
+            case Opcodes.NEWARRAY:
+            case Opcodes.ANEWARRAY:
+            case Opcodes.MULTIANEWARRAY:
+                facts.arrayCreations.add(typeOf(insn, null));
+                break;
+            case Opcodes.GETFIELD:
+            case Opcodes.GETSTATIC:
+                if (isRefLike(((FieldInsnNode) insn).desc)) {
+                    facts.fieldReads.add(fieldRef((FieldInsnNode) insn));
+                }
+                break;
+            case Opcodes.PUTFIELD:
+            case Opcodes.PUTSTATIC:
+                if (isRefLike(((FieldInsnNode) insn).desc) && !isOuterInstanceWrite((FieldInsnNode) insn)) {
+                    facts.fieldWrites.add(fieldRef((FieldInsnNode) insn));
+                }
+                break;
+            case Opcodes.INVOKEVIRTUAL:
+            case Opcodes.INVOKESPECIAL:
+            case Opcodes.INVOKESTATIC:
+            case Opcodes.INVOKEINTERFACE:
+            case Opcodes.INVOKEDYNAMIC:
+                InvokeExpr expr = invokeExpr(insn, frame);
+                if (expr.getMethodRef().getReturnType() instanceof VoidType || isDiscarded(insn)) {
+                    InvokeStmt stmt = Jimple.v().newInvokeStmt(expr);
+                    if (isFirstStmt) {
+                        facts.firstNonIdentityStmt = stmt;
+                    }
+                    invokeStmts.accept(facts, stmt);
+                } else {
+                    facts.invokeExprs.add(expr);
+                }
+                break;
+            case Opcodes.ATHROW:
+                // Only consider throwables that are not handled locally
+                if (!isTrapped(index)) {
+                    facts.throwables.add(
+                            typeOf(top(frame, 0), RefType.v("java.lang.Throwable")));
+                }
+                break;
+            default:
+                if (opcode >= Opcodes.IALOAD && opcode <= Opcodes.SALOAD) {
+                    facts.readsArray = true;
+                } else if (opcode >= Opcodes.IASTORE && opcode <= Opcodes.SASTORE) {
+                    facts.writesArray = true;
+                }
+        }
+    }
+
+    /**
+     * Build the Jimple invoke expression for the given invoke instruction.
+     *
+     * @param insn
+     * @param frame
+     * @return
+     */
+    private InvokeExpr invokeExpr(AbstractInsnNode insn, Frame<SourceValue> frame) {
+        if (insn instanceof InvokeDynamicInsnNode) {
+            InvokeDynamicInsnNode indy = (InvokeDynamicInsnNode) insn;
+            SootMethodRef methodRef =
+                    methodRef(SootClass.INVOKEDYNAMIC_DUMMY_CLASS_NAME, indy.name, indy.desc, true);
+            Handle bsm = indy.bsm;
+            SootMethodRef bootstrapRef =
+                    methodRef(bsm.getOwner(), bsm.getName(), bsm.getDesc(), bsm.getTag() == Opcodes.H_INVOKESTATIC);
+
+            // The bootstrap arguments are left out, because dynamic invokes are not modelled
+            return Jimple.v()
+                    .newDynamicInvokeExpr(
+                            bootstrapRef,
+                            Collections.emptyList(),
+                            methodRef,
+                            bsm.getTag(),
+                            arguments(frame, methodRef.getParameterTypes()));
+        }
+
+        MethodInsnNode call = (MethodInsnNode) insn;
+        boolean isStatic = call.getOpcode() == Opcodes.INVOKESTATIC;
+        SootMethodRef methodRef = methodRef(call.owner, call.name, call.desc, isStatic);
+        List<Value> args = arguments(frame, methodRef.getParameterTypes());
+        if (isStatic) {
+            return Jimple.v().newStaticInvokeExpr(methodRef, args);
+        }
+
+        Local base = receiver(top(frame, args.size()), methodRef.getDeclaringClass().getType());
+        switch (call.getOpcode()) {
+            case Opcodes.INVOKESPECIAL:
+                return Jimple.v().newSpecialInvokeExpr(base, methodRef, args);
+            case Opcodes.INVOKEINTERFACE:
+                return Jimple.v().newInterfaceInvokeExpr(base, methodRef, args);
+            default:
+                return Jimple.v().newVirtualInvokeExpr(base, methodRef, args);
+        }
+    }
+
+    /**
+     * The arguments of a call with the given parameter types, which are on top of the operand stack.
+     *
+     * @param frame
+     * @param parameterTypes
+     * @return
+     */
+    private List<Value> arguments(Frame<SourceValue> frame, List<Type> parameterTypes) {
+        List<Value> result = new ArrayList<>();
+        int count = parameterTypes.size();
+        for (int i = 0; i < count; i++) {
+            AbstractInsnNode origin = origin(top(frame, count - 1 - i));
+            Type type = parameterTypes.get(i);
+
+            if (isThis(origin)) {
+                result.add(facts.thisLocal);
+            } else if (origin != null && origin.getOpcode() == Opcodes.ACONST_NULL) {
+                result.add(NullConstant.v());
+            } else if (origin instanceof LdcInsnNode && ((LdcInsnNode) origin).cst instanceof String) {
+                result.add(StringConstant.v((String) ((LdcInsnNode) origin).cst));
+            } else {
+                result.add(newLocal(type instanceof PrimType ? type : typeOf(origin, type)));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The receiver of a call, which is the "this" local or a fresh local.
+     *
+     * @param insn
+     * @param declaredType
+     * @return
+     */
+    private Local receiver(AbstractInsnNode insn, Type declaredType) {
+        AbstractInsnNode origin = origin(insn);
+        if (isThis(origin)) {
+            return facts.thisLocal;
+        }
+
+        Type type = typeOf(origin, declaredType);
+        return newLocal(type instanceof NullType ? declaredType : type);
+    }
+
+    /**
+     * The instruction that produced the value that is the given number of elements below the top of
+     * the operand stack. The result is null if there's more than one such instruction.
+     *
+     * @param frame
+     * @param depth
+     * @return
+     */
+    private AbstractInsnNode top(Frame<SourceValue> frame, int depth) {
+        return single(frame.getStack(frame.getStackSize() - 1 - depth));
+    }
+
+    private static AbstractInsnNode single(SourceValue value) {
+        return value.insns.size() == 1 ? value.insns.iterator().next() : null;
+    }
+
+    /**
+     * Follow copies through DUPs and locals that are stored only once, the same way Jimple propagates
+     * copies, to find the instruction that originally produced a value.
+     *
+     * @param insn
+     * @return
+     */
+    private AbstractInsnNode origin(AbstractInsnNode insn) {
+        for (int steps = 0; insn != null && steps < 16; steps++) {
+            int opcode = insn.getOpcode();
+            Frame<SourceValue> frame = frames[methodNode.instructions.indexOf(insn)];
+
+            if (opcode == Opcodes.DUP || opcode == Opcodes.ASTORE) {
+                insn = top(frame, 0);
+            } else if (opcode == Opcodes.ALOAD) {
+                AbstractInsnNode store = single(frame.getLocal(((VarInsnNode) insn).var));
+                if (store == null || store.getOpcode() != Opcodes.ASTORE) {
+                    return insn;
+                }
+                insn = store;
+            } else {
+                return insn;
+            }
+        }
+        return insn;
+    }
+
+    /**
+     * Is the given instruction a load of the "this" local?
+     *
+     * @param insn
+     * @return
+     */
+    private boolean isThis(AbstractInsnNode insn) {
+        return insn != null
+                && !method.isStatic()
+                && insn.getOpcode() == Opcodes.ALOAD
+                && ((VarInsnNode) insn).var == 0
+                && !storedSlots.contains(0);
+    }
+
+    /**
+     * The static type of the value produced by the given (origin) instruction.
+     *
+     * @param insn
+     * @param fallback the type to use if it cannot be determined from the instruction
+     * @return
+     */
+    private Type typeOf(AbstractInsnNode insn, Type fallback) {
+        if (insn == null) {
+            return fallback;
+        }
+
+        switch (insn.getOpcode()) {
+            case Opcodes.NEW:
+            case Opcodes.CHECKCAST:
+                return type(((TypeInsnNode) insn).desc);
+            case Opcodes.ANEWARRAY:
+                return type(((TypeInsnNode) insn).desc).makeArrayType();
+            case Opcodes.NEWARRAY:
+                return primitiveType(((IntInsnNode) insn).operand).makeArrayType();
+            case Opcodes.MULTIANEWARRAY:
+                return BytecodeUtils.getFieldType(((MultiANewArrayInsnNode) insn).desc);
+            case Opcodes.GETFIELD:
+            case Opcodes.GETSTATIC:
+                return BytecodeUtils.getFieldType(((FieldInsnNode) insn).desc);
+            case Opcodes.INVOKEVIRTUAL:
+            case Opcodes.INVOKESPECIAL:
+            case Opcodes.INVOKESTATIC:
+            case Opcodes.INVOKEINTERFACE:
+                return BytecodeUtils.getReturnType(((MethodInsnNode) insn).desc);
+            case Opcodes.INVOKEDYNAMIC:
+                return BytecodeUtils.getReturnType(((InvokeDynamicInsnNode) insn).desc);
+            case Opcodes.ACONST_NULL:
+                return NullType.v();
+            case Opcodes.LDC:
+                Object cst = ((LdcInsnNode) insn).cst;
+                if (cst instanceof String) {
+                    return RefType.v("java.lang.String");
+                } else if (cst instanceof org.objectweb.asm.Type) {
+                    return RefType.v("java.lang.Class");
+                }
+                return fallback;
+            case Opcodes.AALOAD:
+                Frame<SourceValue> frame = frames[methodNode.instructions.indexOf(insn)];
+                Type array = typeOf(origin(top(frame, 1)), null);
+                return array instanceof ArrayType ? ((ArrayType) array).getElementType() : fallback;
+            case Opcodes.ALOAD:
+                int var = ((VarInsnNode) insn).var;
+                if (isThis(insn)) {
+                    return method.getDeclaringClass().getType();
+                } else if (parameterSlots.containsKey(var) && !storedSlots.contains(var)) {
+                    return parameterSlots.get(var);
+                }
+                return fallback;
+            default:
+                return fallback;
+        }
+    }
+
+    /**
+     * Is the given instruction the last one in a call whose return value is popped off the stack
+     * right away?
+     *
+     * @param insn
+     * @return
+     */
+    private static boolean isDiscarded(AbstractInsnNode insn) {
+        AbstractInsnNode next = insn.getNext();
+        while (next != null && next.getOpcode() < 0) {
+            next = next.getNext();
+        }
+        return next != null && (next.getOpcode() == Opcodes.POP || next.getOpcode() == Opcodes.POP2);
+    }
+
+    /**
+     * Is the instruction at the given index covered by a try-catch block?
+     *
+     * @param index
+     * @return
+     */
+    private boolean isTrapped(int index) {
+        return methodNode.tryCatchBlocks.stream()
+                .anyMatch(
+                        tcb ->
+                                methodNode.instructions.indexOf(tcb.start) <= index
+                                        && index < methodNode.instructions.indexOf(tcb.end));
+    }
+
+    private Local newLocal(Type type) {
+        return Jimple.v().newLocal("$fact" + localCount++, type);
+    }
+
+    private SootFieldRef fieldRef(FieldInsnNode insn) {
+        return Scene.v()
+                .makeFieldRef(
+                        Scene.v().getSootClass(className(insn.owner)),
+                        insn.name,
+                        BytecodeUtils.getFieldType(insn.desc),
+                        insn.getOpcode() == Opcodes.GETSTATIC || insn.getOpcode() == Opcodes.PUTSTATIC);
+    }
+
+    private static SootMethodRef methodRef(String owner, String name, String desc, boolean isStatic) {
+        return Scene.v()
+                .makeMethodRef(
+                        Scene.v().getSootClass(className(owner)),
+                        name,
+                        BytecodeUtils.getParameterTypes(desc),
+                        BytecodeUtils.getReturnType(desc),
+                        isStatic);
+    }
+
+    /**
+     * The Soot class name for the given internal name. Methods of array types (e.g., clone) are
+     * declared by java.lang.Object.
+     *
+     * @param internalName
+     * @return
+     */
+    private static String className(String internalName) {
+        return internalName.startsWith("[") ? "java.lang.Object" : internalName.replace('/', '.');
+    }
+
+    private static Type type(String internalName) {
+        return internalName.startsWith("[")
+                ? BytecodeUtils.getFieldType(internalName)
+                : RefType.v(internalName.replace('/', '.'));
+    }
+
+    private static boolean isRefLike(String desc) {
+        return desc.startsWith("L") || desc.startsWith("[");
+    }
+
+    private static PrimType primitiveType(int operand) {
+        switch (operand) {
+            case Opcodes.T_BOOLEAN:
+                return BooleanType.v();
+            case Opcodes.T_CHAR:
+                return CharType.v();
+            case Opcodes.T_FLOAT:
+                return FloatType.v();
+            case Opcodes.T_DOUBLE:
+                return DoubleType.v();
+            case Opcodes.T_BYTE:
+                return ByteType.v();
+            case Opcodes.T_SHORT:
+                return ShortType.v();
+            case Opcodes.T_LONG:
+                return LongType.v();
+            default:
+                return IntType.v();
+        }
+    }
+
+    /**
+     * Find the method node of the underlying method in the given class node.
+     *
+     * @param classNode
+     * @return
+     */
+    private MethodNode methodNode(ClassNode classNode) {
+        StringBuilder desc = new StringBuilder("(");
+        method.getParameterTypes().forEach(t -> desc.append(AbstractJasminClass.jasminDescriptorOf(t)));
+        desc.append(")").append(AbstractJasminClass.jasminDescriptorOf(method.getReturnType()));
+
+        return classNode.methods.stream()
+                .filter(m -> m.name.equals(method.getName()) && m.desc.equals(desc.toString()))
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("Cannot find the bytecode of " + method.getSignature()));
+    }
+
+    /**
+     * Get the class node for the given class, reading its class file from the Soot class path the
+     * first time.
+     *
+     * @param className
+     * @return
+     */
+    private static ClassNode classNode(String className) {
+        return classNodes.computeIfAbsent(className, BytecodeFactExtractor::readClass);
+    }
+
+    private static ClassNode readClass(String className) {
+        return readClass(readClassFile(className));
+    }
+
+    /**
+     * Read the class file of the given class. The class file is looked up by Soot's {@link
+     * SourceLocator}, the same way Soot finds the classes it loads, so that jrt: class path entries
+     * work too.
+     *
+     * @param className
+     * @return
+     */
+    public static byte[] readClassFile(String className) {
+        String entry = className.replace('.', '/') + ".class";
+        SourceLocator locator = SourceLocator.v();
+        FoundFile file = locator.lookupInClassPath(entry);
+        if (file == null && locator instanceof ModulePathSourceLocator) {
+            file = ((ModulePathSourceLocator) locator).lookUpInModulePath(entry);
+        }
+
+        if (file == null) {
+            throw new IllegalStateException("Cannot find the class file of " + className);
+        }
+
+        try (InputStream in = file.inputStream()) {
+            return IOUtils.toByteArray(in);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot read the class file of " + className, e);
+        } finally {
+            file.close();
+        }
+    }
+
+    private static ClassNode readClass(byte[] bytes) {
+        ClassNode result = new ClassNode();
+        new ClassReader(bytes).accept(result, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return result;
+    }
+}
@@ -0,0 +1,270 @@
+package averroes.frameworks.analysis;
+
+import averroes.frameworks.soot.ClassWriter;
+import averroes.frameworks.soot.CodeGenerator;
+import averroes.soot.BodyValidator;
+import averroes.soot.Names;
+import averroes.util.io.Printers;
+import averroes.util.io.Printers.PrinterType;
+import soot.*;
+import soot.jimple.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * CFA Jimple body creator that keeps the value flow of the original method, but not its control
+ * flow. The body of each library method is copied as is, except that every condition is replaced
+ * by a call to CFA.guard() in the newly generated class CFA, every target of a switch is guarded by
+ * such a call too, all arrays are of size 1, and all array accesses are to index 0. Unlike RTA and
+ * XTA, there is no set that over-approximates the objects in the library, so the points-to sets of
+ * the client are only polluted by what actually flows to them. Reading from the set yields null,
+ * and storing to it drops the value.
+ */
+public class CfaJimpleBody extends AbstractJimpleBody {
+    public static final String name = "cfa";
+
+    private SootMethodRef cfaGuard = null;
+    private Local guardLocal = null;
+    private Local emptySet = null;
+
+    /**
+     * Create a new CFA Jimple body creator for method M.
+     *
+     * @param method
+     */
+    public CfaJimpleBody(SootMethod method) {
+        super(method);
+    }
+
+    @Override
+    public void prepare() {
+        // The new body is a copy of the original one, even if the facts came from the bytecode
+        if (originalBody == null) {
+            originalBody = (JimpleBody) method.retrieveActiveBody();
+        }
+
+        super.prepare();
+        cfaGuard = Scene.v().getMethod(Names.CFA_GUARD_METHOD_SIGNATURE).makeRef();
+    }
+
+    @Override
+    protected void createBody() {
+        body.importBodyContentsFrom(originalBody);
+
+        // Guarding a condition inserts a new statement, so loop over a copy of the units
+        new ArrayList<>(body.getUnits())
+                .forEach(
+                        u -> {
+                            if (u instanceof IfStmt) {
+                                guardCondition((IfStmt) u);
+                            } else if (u instanceof SwitchStmt) {
+                                guardTargets((SwitchStmt) u);
+                            }
+                            u.getUseAndDefBoxes().stream().map(ValueBox::getValue).forEach(this::handleArray);
+                        });
+    }
+
+    /**
+     * The CFA model has no set of objects, so the set is a local variable that is always null. It is
+     * assigned at the start of the body, so that it is defined wherever it is used.
+     */
+    @Override
+    protected Local setToCast() {
+        if (emptySet == null) {
+            emptySet = localGenerator.generateLocal(Scene.v().getObjectType());
+            insertAtStart(Jimple.v().newAssignStmt(emptySet, NullConstant.v()));
+        }
+        return emptySet;
+    }
+
+    /**
+     * The CFA model has no set of objects, so the value is assigned to a fresh local variable that is
+     * never read.
+     */
+    @Override
+    protected AssignStmt buildStoreToSetExpr(Value from) {
+        return Jimple.v().newAssignStmt(localGenerator.generateLocal(from.getType()), from);
+    }
+
+    @Override
+    protected void storeToSet(Value from) {
+        // The CFA model has no set of objects, so the value only flows where the copied body sends it
+    }
+
+    /**
+     * Get a local variable that holds the return value of CFA.guard(). The call is inserted at the
+     * start of the body, so that the local is defined wherever it is used.
+     */
+    @Override
+    protected Local getGuard() {
+        if (guardLocal == null) {
+            guardLocal = localGenerator.generateLocal(BooleanType.v());
+            insertAtStart(buildGuardStmt(guardLocal));
+        }
+        return guardLocal;
+    }
+
+    @Override
+    protected void ensureCommonClassExists() {
+        createCommonClass();
+    }
+
+    /**
+     * Create the class cfa.CFA, if it does not exist yet. This does not depend on any method, so that
+     * the class can also be created when no method body is generated (e.g., all the models are taken
+     * from the {@link averroes.frameworks.soot.ModelCache}).
+     */
+    public static void createCommonClass() {
+        if (Scene.v().containsClass(Names.CFA_CLASS)) {
+            return;
+        }
+
+        // Create a public class and set its super class to java.lang.Object
+        SootClass averroesCfa =
+                CodeGenerator.createEmptyClass(
+                        Names.CFA_CLASS, Modifier.PUBLIC, Scene.v().getObjectType().getSootClass());
+
+        // Add a default constructor to it
+        CodeGenerator.createEmptyDefaultConstructor(averroesCfa);
+
+        // Add static field "bool" to the class, and the method "guard" that returns it
+        CodeGenerator.createField(
+                averroesCfa,
+                Names.BOOLEAN_FIELD_NAME,
+                BooleanType.v(),
+                Modifier.PUBLIC | Modifier.STATIC);
+        createGuardMethod(averroesCfa);
+
+        // Print out the Jimple code
+        averroesCfa.getMethods().forEach(m -> Printers.printJimple(PrinterType.GENERATED, m));
+
+        // Write it to disk
+        ClassWriter.writeLibraryClassFile(averroesCfa);
+    }
+
+    @Override
+    protected void handleFields() {
+        // Field reads and writes are copied along with the rest of the original method body
+    }
+
+    /**
+     * Add the static method "guard" to the given class. It returns the static field "bool" of the
+     * class, so that no condition that calls it could be folded away.
+     *
+     * @param cls
+     */
+    private static void createGuardMethod(SootClass cls) {
+        SootMethod guard =
+                new SootMethod(
+                        Names.GUARD_FIELD_NAME,
+                        Collections.emptyList(),
+                        BooleanType.v(),
+                        Modifier.PUBLIC | Modifier.STATIC);
+        cls.addMethod(guard);
+
+        JimpleBody guardBody = Jimple.v().newBody(guard);
+        guard.setActiveBody(guardBody);
+
+        Local ret = Jimple.v().newLocal("z0", BooleanType.v());
+        guardBody.getLocals().add(ret);
+        guardBody
+                .getUnits()
+                .add(
+                        Jimple.v()
+                                .newAssignStmt(
+                                        ret,
+                                        Jimple.v()
+                                                .newStaticFieldRef(
+                                                        Scene.v().getField(Names.CFA_BOOLEAN_FIELD_SIGNATURE).makeRef())));
+        guardBody.getUnits().add(Jimple.v().newReturnStmt(ret));
+
+        BodyValidator.submit(guardBody);
+    }
+
+    /**
+     * Replace the condition of the given if-statement with a call to CFA.guard(), so that both of its
+     * branches are reachable.
+     *
+     * @param stmt
+     */
+    private void guardCondition(IfStmt stmt) {
+        Local guard = localGenerator.generateLocal(BooleanType.v());
+
+        // This also redirects any jumps to the if-statement to the call
+        body.getUnits().insertBefore(buildGuardStmt(guard), stmt);
+        stmt.setCondition(Jimple.v().newEqExpr(guard, IntConstant.v(0)));
+    }
+
+    /**
+     * Guard every target of the given switch statement, including the default one, with a call to
+     * CFA.guard(), so that all of them are reachable whatever the key of the switch is.
+     *
+     * @param stmt
+     */
+    private void guardTargets(SwitchStmt stmt) {
+        Set<Unit> targets = new LinkedHashSet<>(stmt.getTargets());
+        targets.add(stmt.getDefaultTarget());
+
+        boolean first = true;
+        for (Unit target : targets) {
+            Local guard = localGenerator.generateLocal(BooleanType.v());
+            AssignStmt call = buildGuardStmt(guard);
+            IfStmt jump = Jimple.v().newIfStmt(Jimple.v().newEqExpr(guard, IntConstant.v(0)), target);
+
+            // The first call takes over any jumps to the switch statement
+            if (first) {
+                body.getUnits().insertBefore(call, stmt);
+                first = false;
+            } else {
+                body.getUnits().insertBeforeNoRedirect(call, stmt);
+            }
+            body.getUnits().insertBeforeNoRedirect(jump, stmt);
+        }
+    }
+
+    /**
+     * Insert the given statement after the identity statements at the start of the body.
+     *
+     * @param stmt
+     */
+    private void insertAtStart(Stmt stmt) {
+        for (Unit u : body.getUnits()) {
+            if (!(u instanceof IdentityStmt)) {
+                body.getUnits().insertBeforeNoRedirect(stmt, u);
+                return;
+            }
+        }
+        body.getUnits().add(stmt);
+    }
+
+    /**
+     * Build an assignment of the return value of CFA.guard() to the given local variable.
+     *
+     * @param guard
+     * @return
+     */
+    private AssignStmt buildGuardStmt(Local guard) {
+        return Jimple.v().newAssignStmt(guard, Jimple.v().newStaticInvokeExpr(cfaGuard));
+    }
+
+    /**
+     * Make all arrays of size 1, and all accesses to arrays read or write the element at index 0.
+     *
+     * @param value
+     */
+    private void handleArray(Value value) {
+        if (value instanceof ArrayRef) {
+            ((ArrayRef) value).setIndex(ARRAY_INDEX);
+        } else if (value instanceof NewArrayExpr) {
+            ((NewArrayExpr) value).setSize(ARRAY_LENGTH);
+        } else if (value instanceof NewMultiArrayExpr) {
+            NewMultiArrayExpr expr = (NewMultiArrayExpr) value;
+            for (int i = 0; i < expr.getSizeCount(); i++) {
+                expr.setSizeAt(i, ARRAY_LENGTH);
+            }
+        }
+    }
+}
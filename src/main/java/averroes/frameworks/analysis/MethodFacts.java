@@ -0,0 +1,90 @@
+package averroes.frameworks.analysis;
+
+import soot.Local;
+import soot.SootClass;
+import soot.SootFieldRef;
+import soot.Type;
+import soot.jimple.InvokeExpr;
+import soot.jimple.SpecialInvokeExpr;
+import soot.jimple.Stmt;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * The facts about an original library method that Averroes needs to generate the model for it. The
+ * facts are collected either from the Jimple body of the method or directly from its bytecode (see
+ * {@link BytecodeFactExtractor}).
+ */
+public class MethodFacts {
+
+    // Arrays created within the original method body.
+    final LinkedHashSet<Type> arrayCreations = new LinkedHashSet<>();
+
+    // Objects, other than arrays, created within the original method body.
+    final LinkedHashSet<SpecialInvokeExpr> objectCreations = new LinkedHashSet<>();
+
+    // Invoke statements (i.e., return value not assigned to any local variables)
+    final LinkedHashSet<InvokeExpr> invokeStmts = new LinkedHashSet<>();
+
+    // Invoke expression (i.e., return value is assigned to some local variable)
+    final LinkedHashSet<InvokeExpr> invokeExprs = new LinkedHashSet<>();
+
+    // Thrown types that are not handled locally
+    final LinkedHashSet<Type> throwables = new LinkedHashSet<>();
+
+    // Caught exceptions
+    final LinkedHashSet<SootClass> checkedExceptions = new LinkedHashSet<>();
+
+    // Field reads
+    final LinkedHashSet<SootFieldRef> fieldReads = new LinkedHashSet<>();
+
+    // Field writes
+    final LinkedHashSet<SootFieldRef> fieldWrites = new LinkedHashSet<>();
+
+    boolean readsArray = false;
+    boolean writesArray = false;
+
+    // The "this" local of the original method (null for static methods)
+    Local thisLocal = null;
+
+    // The first statement of the original method after the identity statements
+    Stmt firstNonIdentityStmt = null;
+
+    /**
+     * Describe these facts in a form that does not depend on how they were collected, so that facts
+     * from different sources can be compared. Invocations are described by their kind and callee,
+     * not by the locals they use.
+     *
+     * @return
+     */
+    public List<String> describe() {
+        List<String> result = new ArrayList<>();
+        result.add("array creations: " + toStrings(arrayCreations));
+        result.add("object creations: " + describeInvokes(objectCreations));
+        result.add("invoke statements: " + describeInvokes(invokeStmts));
+        result.add("invoke expressions: " + describeInvokes(invokeExprs));
+        result.add("throwables: " + toStrings(throwables));
+        result.add("caught exceptions: " + toStrings(checkedExceptions));
+        result.add("field reads: " + toStrings(fieldReads.stream().map(SootFieldRef::getSignature)
+                .collect(Collectors.toList())));
+        result.add("field writes: " + toStrings(fieldWrites.stream().map(SootFieldRef::getSignature)
+                .collect(Collectors.toList())));
+        result.add("reads array: " + readsArray);
+        result.add("writes array: " + writesArray);
+        return result;
+    }
+
+    private static String describeInvokes(Collection<? extends InvokeExpr> invokes) {
+        return toStrings(invokes.stream()
+                .map(e -> e.getClass().getSimpleName() + " " + e.getMethodRef().getSignature())
+                .collect(Collectors.toList()));
+    }
+
+    private static String toStrings(Collection<?> values) {
+        return values.stream().map(String::valueOf).collect(Collectors.toList()).toString();
+    }
+}
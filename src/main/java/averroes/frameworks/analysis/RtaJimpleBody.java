@@ -58,6 +58,15 @@ public class RtaJimpleBody extends AbstractJimpleBody {
 
     @Override
     protected void ensureCommonClassExists() {
+        createCommonClass();
+    }
+
+    /**
+     * Create the class rta.RTA, if it does not exist yet. This does not depend on any method, so that
+     * the class can also be created when no method body is generated (e.g., all the models are taken
+     * from the {@link averroes.frameworks.soot.ModelCache}).
+     */
+    public static void createCommonClass() {
         if (Scene.v().containsClass(Names.RTA_CLASS)) {
             return;
         }
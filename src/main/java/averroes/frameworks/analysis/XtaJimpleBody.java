@@ -1,15 +1,21 @@
 package averroes.frameworks.analysis;
 
+import averroes.frameworks.options.FrameworksOptions;
 import averroes.frameworks.soot.ClassWriter;
 import averroes.frameworks.soot.CodeGenerator;
 import averroes.soot.Names;
+import averroes.util.Metrics;
 import averroes.util.io.Printers;
 import averroes.util.io.Printers.PrinterType;
 import soot.*;
 import soot.jimple.AssignStmt;
 import soot.jimple.Jimple;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
 
 /**
  * XTA Jimple body creator that over-approximates objects in the library by using one set per method
@@ -21,8 +27,19 @@ import java.util.HashMap;
 public class XtaJimpleBody extends AbstractJimpleBody {
     public static final String name = "xta";
 
+    // The ids of the methods in each class, assigned once in the order the methods are declared
+    private static final Map<SootClass, Map<SootMethod, Integer>> methodIds = new HashMap<>();
+
+    // The set_m fields shared by methods with the same flow footprint (see --share-sets)
+    private static final Map<String, SetM> sharedSetMs = new HashMap<>();
+
+    // The set_m fields created up front, in order, so that the unused ones can be removed again
+    private static final List<SetM> createdSetMs = new ArrayList<>();
+
     private Local xtaGuard = null;
 
+    private final int methodId;
+    private SetM setMField = null;
     private SootFieldRef setM = null;
     private Local setMLocal = null;
 
@@ -36,6 +53,18 @@ public class XtaJimpleBody extends AbstractJimpleBody {
      */
     public XtaJimpleBody(SootMethod method) {
         super(method);
+        methodId = methodIds
+                .computeIfAbsent(method.getDeclaringClass(), XtaJimpleBody::numberMethods)
+                .get(method);
+    }
+
+    /**
+     * Forget the method ids and shared sets of any previous run.
+     */
+    public static void reset() {
+        methodIds.clear();
+        sharedSetMs.clear();
+        createdSetMs.clear();
     }
 
     @Override
@@ -63,6 +92,15 @@ public class XtaJimpleBody extends AbstractJimpleBody {
 
     @Override
     protected void ensureCommonClassExists() {
+        createCommonClass();
+    }
+
+    /**
+     * Create the class xta.XTA, if it does not exist yet. This does not depend on any method, so that
+     * the class can also be created when no method body is generated (e.g., all the models are taken
+     * from the {@link averroes.frameworks.soot.ModelCache}).
+     */
+    public static void createCommonClass() {
         if (Scene.v().containsClass(Names.XTA_CLASS)) {
             return;
         }
@@ -90,6 +128,63 @@ public class XtaJimpleBody extends AbstractJimpleBody {
         ClassWriter.writeLibraryClassFile(averroesXta);
     }
 
+    /**
+     * Also create the set_f and set_m fields of the method, because fields cannot be added to a class
+     * while bodies are generated in parallel. The set_m fields that no generated body uses are
+     * removed again by {@link #removeUnusedSetMs()}.
+     */
+    @Override
+    public void prepare() {
+        super.prepare();
+
+        if (FrameworksOptions.isFieldSets()) {
+            Stream.concat(fieldReads.stream(), fieldWrites.stream())
+                    .filter(XtaJimpleBody::hasSetF)
+                    .forEach(this::ensureSetFExists);
+        }
+
+        if (FrameworksOptions.isShareSets()) {
+            setMField = sharedSetMs.computeIfAbsent(footprint(), k -> new SetM(setMName()));
+        } else {
+            setMField = new SetM(setMName());
+        }
+        ensureSetMExists();
+    }
+
+    /**
+     * Also count the set_m field of the method if the generated body uses it. Bodies are finished in
+     * the order they are prepared, so the first one that uses a shared set_m field counts as creating
+     * it, and the others as sharing it.
+     */
+    @Override
+    public void finish() {
+        super.finish();
+
+        if (setM == null) {
+            return;
+        }
+
+        if (!setMField.used) {
+            setMField.used = true;
+            if (setMField.created) {
+                Metrics.add("xta.setM", 1);
+            }
+        } else if (FrameworksOptions.isShareSets()) {
+            Metrics.add("xta.sharedSetM", 1);
+        }
+    }
+
+    /**
+     * Remove the set_m fields that were created up front, but that no generated body uses. This has to
+     * be called once all the bodies are finished.
+     */
+    public static void removeUnusedSetMs() {
+        createdSetMs.stream()
+                .filter(s -> !s.used)
+                .forEach(s -> s.cls.removeField(s.cls.getFieldByName(s.name)));
+        createdSetMs.clear();
+    }
+
     @Override
     protected void handleFields() {
         fieldReads.forEach(
@@ -159,8 +254,7 @@ public class XtaJimpleBody extends AbstractJimpleBody {
      */
     private SootFieldRef getSetM() {
         if (setM == null) {
-            ensureSetMExists();
-            setM = method.getDeclaringClass().getFieldByName(setMName()).makeRef();
+            setM = method.getDeclaringClass().getFieldByName(setMField.name).makeRef();
         }
 
         return setM;
@@ -174,10 +268,11 @@ public class XtaJimpleBody extends AbstractJimpleBody {
      */
     private SootFieldRef getSetF(SootFieldRef fieldRef) {
         if (!setF.containsKey(fieldRef)) {
-            // ensureSetFExists(field);
-            // setF.put(field,
-            // field.getDeclaringClass().getFieldByName(setFName(field)));
-            setF.put(fieldRef, fieldRef);
+            if (FrameworksOptions.isFieldSets() && hasSetF(fieldRef)) {
+                setF.put(fieldRef, fieldRef.declaringClass().getFieldByName(setFName(fieldRef)).makeRef());
+            } else {
+                setF.put(fieldRef, fieldRef);
+            }
         }
 
         return setF.get(fieldRef);
@@ -193,45 +288,61 @@ public class XtaJimpleBody extends AbstractJimpleBody {
         storeField(getSetF(fieldRef), from);
     }
 
-    // /**
-    // * Ensures that the declaring class of the given Soot field declares the
-    // * set_f field.
-    // *
-    // * @param field
-    // */
-    // private void ensureSetFExists(SootField field) {
-    // SootClass cls = field.getDeclaringClass();
-    // String name = setFName(field);
-    //
-    // if (!cls.declaresFieldByName(name)) {
-    // int modifiers = Modifier.PRIVATE | (field.isStatic() ? Modifier.STATIC :
-    // 0);
-    // cls.addField(new SootField(name, field.getType(), modifiers));
-    // }
-    // }
+    /**
+     * Ensures that the declaring class of the given Soot field declares the set_f field. The set_f
+     * field is always static, so that there is one set per field rather than one per object, and
+     * reading it does not need a receiver cast from set_m.
+     *
+     * @param fieldRef
+     */
+    private void ensureSetFExists(SootFieldRef fieldRef) {
+        SootClass cls = fieldRef.declaringClass();
+        String name = setFName(fieldRef);
+
+        if (!cls.declaresFieldByName(name)) {
+            cls.addField(new SootField(name, fieldRef.type(), Modifier.PRIVATE | Modifier.STATIC));
+            Metrics.add("xta.setF", 1);
+        }
+    }
+
+    /**
+     * Does the given field get its own set_f field? Only private fields of the library classes do,
+     * because clients may access all other fields directly.
+     *
+     * @param fieldRef
+     * @return
+     */
+    private static boolean hasSetF(SootFieldRef fieldRef) {
+        return fieldRef.declaringClass().isApplicationClass()
+                && fieldRef.declaringClass().declaresField(fieldRef.name(), fieldRef.type())
+                && fieldRef.resolve().isPrivate();
+    }
 
     /**
      * Ensures that the declaring class of the given Soot method declares the set_m field.
      */
     private void ensureSetMExists() {
         SootClass cls = method.getDeclaringClass();
-        String name = setMName();
+        String name = setMField.name;
 
         if (!cls.declaresFieldByName(name)) {
             int modifiers = Modifier.PRIVATE | (method.isStatic() ? Modifier.STATIC : 0);
             cls.addField(new SootField(name, Scene.v().getObjectType(), modifiers));
+            setMField.cls = cls;
+            setMField.created = true;
+            createdSetMs.add(setMField);
         }
     }
 
-    // /**
-    // * The name of the set_f field for the given Soot field.
-    // *
-    // * @param field
-    // * @return
-    // */
-    // private String setFName(SootField field) {
-    // return Names.SET_FIELD_PREFIX + field.getName();
-    // }
+    /**
+     * The name of the set_f field for the given Soot field.
+     *
+     * @param fieldRef
+     * @return
+     */
+    private String setFName(SootFieldRef fieldRef) {
+        return Names.SET_FIELD_PREFIX + fieldRef.name();
+    }
 
     /**
      * The name of the set_m field for the given Soot method. We're using the index of the method here
@@ -242,6 +353,56 @@ public class XtaJimpleBody extends AbstractJimpleBody {
      * @return
      */
     private String setMName() {
-        return Names.SET_METHOD_PREFIX + method.getDeclaringClass().getMethods().indexOf(method);
+        return Names.SET_METHOD_PREFIX + methodId;
+    }
+
+    /**
+     * Describe everything that flows in and out of the set_m field of the underlying method. Methods
+     * of the same class with the same footprint can share one set_m field without losing much
+     * precision (e.g., trivial getters of fields of the same type).
+     *
+     * @return
+     */
+    private String footprint() {
+        return method.getDeclaringClass().getName()
+                + (method.isStatic() ? " static " : " ")
+                + (method.isConstructor() ? "<init> " : "")
+                + method.getReturnType()
+                + " "
+                + method.getParameterTypes()
+                + " "
+                + facts.describe();
+    }
+
+    /**
+     * Number all the methods of the given class in the order they are declared.
+     *
+     * @param cls
+     * @return
+     */
+    private static Map<SootMethod, Integer> numberMethods(SootClass cls) {
+        Map<SootMethod, Integer> result = new HashMap<>();
+        for (SootMethod m : cls.getMethods()) {
+            result.put(m, result.size());
+        }
+        return result;
+    }
+
+    /**
+     * A set_m field that may be shared by several methods.
+     */
+    private static class SetM {
+        final String name;
+
+        // The class that prepare() added the field to, if it did
+        SootClass cls = null;
+        boolean created = false;
+
+        // Does any generated body use the field? This is only set in finish().
+        boolean used = false;
+
+        SetM(String name) {
+            this.name = name;
+        }
     }
 }
@@ -0,0 +1,38 @@
+package averroes.frameworks.options;
+
+/**
+ * Where Averroes takes the facts about an original library method from (e.g., the objects it
+ * creates, the methods it calls, and the fields it accesses) when it generates the model for it.
+ */
+public enum FactSource {
+    /**
+     * Build the Jimple body of the original method and scan its statements.
+     */
+    JIMPLE,
+
+    /**
+     * Scan the bytecode of the original method with ASM, without building its Jimple body.
+     */
+    BYTECODE,
+
+    /**
+     * Use the facts from the Jimple body, but also extract them from the bytecode and report any
+     * method where the two differ.
+     */
+    CHECK;
+
+    /**
+     * Parse a fact source from its (case-insensitive) name.
+     *
+     * @param value
+     * @return
+     */
+    public static FactSource parse(String value) {
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(
+                    "Invalid fact source: " + value + ". Expected one of jimple, bytecode, check.");
+        }
+    }
+}
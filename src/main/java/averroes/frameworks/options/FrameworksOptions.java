@@ -1,5 +1,6 @@
 package averroes.frameworks.options;
 
+import averroes.options.ValidationPolicy;
 import averroes.util.io.FileFilters;
 import org.apache.commons.cli.*;
 import org.apache.commons.io.FileUtils;
@@ -9,7 +10,11 @@ import soot.SourceLocator;
 import java.io.File;
 import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
 
 /**
@@ -101,6 +106,139 @@ public final class FrameworksOptions {
                     .required(false)
                     .build();
 
+    private static Option validation =
+            Option.builder("v")
+                    .longOpt("validation")
+                    .desc(
+                            "the validation policy for the generated code (one of full, generated, sampled:N, off). The default is full")
+                    .hasArg()
+                    .argName("policy")
+                    .required(false)
+                    .build();
+
+    private static Option optimize =
+            Option.builder("O")
+                    .longOpt("optimize")
+                    .desc(
+                            "setting this flag will make Averroes inline, prune, and simplify the generated model before validating it")
+                    .hasArg(false)
+                    .required(false)
+                    .build();
+
+    private static Option maxInlineRounds =
+            Option.builder("r")
+                    .longOpt("max-inline-rounds")
+                    .desc(
+                            "together with -O, the maximum number of inlining rounds the optimizer runs before it reaches a fixpoint. The default is 5")
+                    .hasArg()
+                    .argName("rounds")
+                    .required(false)
+                    .build();
+
+    private static Option inlineGrowthBudget =
+            Option.builder("l")
+                    .longOpt("inline-growth-budget")
+                    .desc(
+                            "together with -O, the maximum number of statements the optimizer may add to the model by inlining. The default is no limit")
+                    .hasArg()
+                    .argName("statements")
+                    .required(false)
+                    .build();
+
+    private static Option facts =
+            Option.builder("f")
+                    .longOpt("facts")
+                    .desc(
+                            "where to take the facts about the original library methods from (one of jimple, bytecode, check). The default is jimple")
+                    .hasArg()
+                    .argName("source")
+                    .required(false)
+                    .build();
+
+    private static Option disableArtifacts =
+            Option.builder("n")
+                    .longOpt("disable-artifacts")
+                    .desc(
+                            "setting this flag will make Averroes skip writing the Jimple, JSON, and inliner files that describe the generated code")
+                    .hasArg(false)
+                    .required(false)
+                    .build();
+
+    private static Option binarySummaries =
+            Option.builder("b")
+                    .longOpt("binary-summaries")
+                    .desc(
+                            "setting this flag will make Averroes also write a binary encoding of the JSON summaries of the generated classes")
+                    .hasArg(false)
+                    .required(false)
+                    .build();
+
+    private static Option writeJar =
+            Option.builder("s")
+                    .longOpt("write-jar")
+                    .desc(
+                            "setting this flag will make Averroes write the generated class files straight into the placeholder JAR file, instead of the classes directory")
+                    .hasArg(false)
+                    .required(false)
+                    .build();
+
+    private static Option shareSets =
+            Option.builder("x")
+                    .longOpt("share-sets")
+                    .desc(
+                            "setting this flag will make the XTA model use one set_m field for all the methods of a class that have the same flow footprint")
+                    .hasArg(false)
+                    .required(false)
+                    .build();
+
+    private static Option fieldSets =
+            Option.builder("e")
+                    .longOpt("field-sets")
+                    .desc(
+                            "setting this flag will make the XTA model use one static set_f field for each private field, instead of the field itself")
+                    .hasArg(false)
+                    .required(false)
+                    .build();
+
+    private static Option lazyDependencies =
+            Option.builder("z")
+                    .longOpt("lazy-dependencies")
+                    .desc(
+                            "together with -w, setting this flag will make Averroes only load and model the library dependencies that are reachable from the given library code")
+                    .hasArg(false)
+                    .required(false)
+                    .build();
+
+    private static Option cacheDirectory =
+            Option.builder("c")
+                    .longOpt("cache")
+                    .desc(
+                            "the directory in which Averroes caches the generated models of library classes across runs (no caching if not set, or with -O)")
+                    .hasArg()
+                    .argName("directory")
+                    .required(false)
+                    .build();
+
+    private static Option shards =
+            Option.builder("m")
+                    .longOpt("shards")
+                    .desc(
+                            "the number of shards (and worker processes of the sharded driver) that the input classes are split into by package (default: 1)")
+                    .hasArg()
+                    .argName("n")
+                    .required(false)
+                    .build();
+
+    private static Option shard =
+            Option.builder("k")
+                    .longOpt("shard")
+                    .desc(
+                            "only model the input classes in the given shard (0 to n-1), as the sharded driver does for each of its workers")
+                    .hasArg()
+                    .argName("k")
+                    .required(false)
+                    .build();
+
     private static Options options =
             new Options()
                     .addOption(input)
@@ -111,26 +249,70 @@ public final class FrameworksOptions {
                     .addOption(analysis)
                     .addOption(help)
                     .addOption(enableGuards)
-                    .addOption(includeDependencies);
+                    .addOption(includeDependencies)
+                    .addOption(validation)
+                    .addOption(optimize)
+                    .addOption(maxInlineRounds)
+                    .addOption(inlineGrowthBudget)
+                    .addOption(facts)
+                    .addOption(disableArtifacts)
+                    .addOption(binarySummaries)
+                    .addOption(writeJar)
+                    .addOption(shareSets)
+                    .addOption(fieldSets)
+                    .addOption(lazyDependencies)
+                    .addOption(cacheDirectory)
+                    .addOption(shards)
+                    .addOption(shard);
 
     private static CommandLine cmd;
 
+    // The shard of each input class, computed once per run
+    private static Map<String, Integer> shardOf = null;
+
+    // The fact source, parsed once per run
+    private static FactSource factSource = FactSource.JIMPLE;
+
     /**
      * Process the input arguments of Averroes.
      *
      * @param args
+     * @throws IllegalArgumentException if the arguments cannot be parsed, or contradict each other
      */
     public static void processArguments(String[] args) {
         try {
             cmd = new DefaultParser().parse(options, args);
+            shardOf = null;
 
             // Do we need to print out help messages?
             if (cmd.hasOption(help.getOpt())) {
                 help();
             }
 
+            requires(maxInlineRounds, optimize);
+            requires(inlineGrowthBudget, optimize);
+            requires(lazyDependencies, includeDependencies);
+
+            factSource = FactSource.parse(cmd.getOptionValue(facts.getOpt(), "jimple"));
         } catch (ParseException e) {
-            e.printStackTrace();
+            System.err.println(e.getMessage());
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reject the given option unless the option it depends on is set too, instead of silently
+     * ignoring it.
+     *
+     * @param option
+     * @param dependency
+     * @throws ParseException
+     */
+    private static void requires(Option option, Option dependency) throws ParseException {
+        if (cmd.hasOption(option.getOpt()) && !cmd.hasOption(dependency.getOpt())) {
+            throw new ParseException(
+                    "-" + option.getOpt() + "/--" + option.getLongOpt()
+                            + " requires -" + dependency.getOpt() + "/--" + dependency.getLongOpt());
         }
     }
 
@@ -189,11 +371,27 @@ public final class FrameworksOptions {
     }
 
     /**
-     * Get all classes under the Averroes classpath.
+     * Get all classes under the Averroes classpath, or only those in the current shard if {@link
+     * #isSharded()} returns true.
      *
      * @return
      */
     public static List<String> getClasses() {
+        if (!isSharded()) {
+            return getAllClasses();
+        }
+
+        return getAllClasses().stream()
+                .filter(c -> getShardOf().get(c) == getShard())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Get all classes under the Averroes classpath, regardless of the current shard.
+     *
+     * @return
+     */
+    public static List<String> getAllClasses() {
         return getClasses(getPrefix() + ".");
     }
 
@@ -258,4 +456,211 @@ public final class FrameworksOptions {
     public static boolean isIncludeDependencies() {
         return cmd.hasOption(includeDependencies.getOpt());
     }
+
+    /**
+     * Setting this flag will make Averroes skip writing the Jimple, JSON, and inliner files that
+     * describe the generated code.
+     *
+     * @return
+     */
+    public static boolean isDisableArtifacts() {
+        return cmd.hasOption(disableArtifacts.getOpt());
+    }
+
+    /**
+     * Setting this flag will make Averroes also write a binary encoding of the JSON summaries of the
+     * generated classes.
+     *
+     * @return
+     */
+    public static boolean isBinarySummaries() {
+        return cmd.hasOption(binarySummaries.getOpt());
+    }
+
+    /**
+     * Setting this flag will make Averroes write the generated class files straight into the
+     * placeholder JAR file, instead of the classes directory.
+     *
+     * @return
+     */
+    public static boolean isWriteJar() {
+        return cmd.hasOption(writeJar.getOpt());
+    }
+
+    /**
+     * Setting this flag will make the XTA model use one set_m field for all the methods of a class
+     * that have the same flow footprint.
+     *
+     * @return
+     */
+    public static boolean isShareSets() {
+        return cmd.hasOption(shareSets.getOpt());
+    }
+
+    /**
+     * Setting this flag will make the XTA model use one static set_f field for each private field,
+     * instead of the field itself.
+     *
+     * @return
+     */
+    public static boolean isFieldSets() {
+        return cmd.hasOption(fieldSets.getOpt());
+    }
+
+    /**
+     * Together with {@link #isIncludeDependencies()}, setting this flag will make Averroes only load
+     * and model the library dependencies that are reachable from the given library code.
+     *
+     * @return
+     */
+    public static boolean isLazyDependencies() {
+        return cmd.hasOption(lazyDependencies.getOpt());
+    }
+
+    /**
+     * The directory in which Averroes caches the generated models of library classes across runs, or
+     * null if caching is disabled.
+     *
+     * @return
+     */
+    public static File getCacheDirectory() {
+        return cmd.hasOption(cacheDirectory.getOpt())
+                ? new File(cmd.getOptionValue(cacheDirectory.getOpt()))
+                : null;
+    }
+
+    /**
+     * Where to take the facts about the original library methods from.
+     *
+     * @return
+     */
+    public static FactSource getFactSource() {
+        return factSource;
+    }
+
+    /**
+     * Setting this flag will make Averroes inline, prune, and simplify the generated model before
+     * validating it.
+     *
+     * @return
+     */
+    public static boolean isOptimize() {
+        return cmd.hasOption(optimize.getOpt());
+    }
+
+    /**
+     * The maximum number of inlining rounds the optimizer runs before it reaches a fixpoint.
+     *
+     * @return
+     */
+    public static int getMaxInlineRounds() {
+        return Integer.parseInt(cmd.getOptionValue(maxInlineRounds.getOpt(), "5"));
+    }
+
+    /**
+     * The maximum number of statements the optimizer may add to the model by inlining (-1 for no
+     * limit).
+     *
+     * @return
+     */
+    public static int getInlineGrowthBudget() {
+        return Integer.parseInt(cmd.getOptionValue(inlineGrowthBudget.getOpt(), "-1"));
+    }
+
+    /**
+     * The number of shards that the input classes are split into.
+     *
+     * @return
+     */
+    public static int getShardCount() {
+        return Integer.parseInt(cmd.getOptionValue(shards.getOpt(), "1"));
+    }
+
+    /**
+     * The shard whose input classes Averroes models in this run, or -1 to model all of them.
+     *
+     * @return
+     */
+    public static int getShard() {
+        return Integer.parseInt(cmd.getOptionValue(shard.getOpt(), "-1"));
+    }
+
+    /**
+     * Does Averroes only model the input classes in one shard?
+     *
+     * @return
+     */
+    public static boolean isSharded() {
+        return getShard() >= 0;
+    }
+
+    /**
+     * Is the given class an input class that another shard models? Such classes are still loaded
+     * (e.g., as dependencies of the input classes in this shard), but they are never modelled here.
+     *
+     * @param className
+     * @return
+     */
+    public static boolean isInOtherShard(String className) {
+        return isSharded() && getShardOf().getOrDefault(className, getShard()) != getShard();
+    }
+
+    private static Map<String, Integer> getShardOf() {
+        if (shardOf == null) {
+            shardOf = partition(getAllClasses(), getShardCount());
+        }
+        return shardOf;
+    }
+
+    /**
+     * Split the given classes into the given number of shards, keeping the classes of a package
+     * together. The largest packages are placed first, each in the shard with the fewest classes so
+     * far. The result only depends on the set of classes, so that every worker of the sharded driver
+     * computes the same shards.
+     *
+     * @param classes
+     * @param count
+     * @return the shard of each class
+     */
+    private static Map<String, Integer> partition(List<String> classes, int count) {
+        Map<String, List<String>> packages =
+                classes.stream()
+                        .collect(
+                                Collectors.groupingBy(
+                                        c -> c.substring(0, Math.max(c.lastIndexOf('.'), 0)),
+                                        TreeMap::new,
+                                        Collectors.toList()));
+        List<Map.Entry<String, List<String>>> largestFirst =
+                packages.entrySet().stream()
+                        .sorted(
+                                Comparator.comparing((Map.Entry<String, List<String>> e) -> -e.getValue().size())
+                                        .thenComparing(Map.Entry::getKey))
+                        .collect(Collectors.toList());
+
+        Map<String, Integer> result = new HashMap<>();
+        long[] load = new long[count];
+        for (Map.Entry<String, List<String>> pkg : largestFirst) {
+            int bin = 0;
+            for (int i = 1; i < count; i++) {
+                if (load[i] < load[bin]) {
+                    bin = i;
+                }
+            }
+
+            load[bin] += pkg.getValue().size();
+            for (String c : pkg.getValue()) {
+                result.put(c, bin);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The validation policy for the generated code.
+     *
+     * @return
+     */
+    public static ValidationPolicy getValidationPolicy() {
+        return ValidationPolicy.parse(cmd.getOptionValue(validation.getOpt(), ValidationPolicy.DEFAULT));
+    }
 }
@@ -1,74 +1,116 @@
 package averroes.frameworks.soot;
 
 import averroes.soot.SootSceneUtil;
+import averroes.util.Metrics;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
-import soot.RefType;
+import java.util.stream.Collectors;
 import soot.Scene;
 import soot.SootClass;
 import soot.SootMethod;
-import soot.Type;
 import soot.Unit;
-import soot.jimple.InstanceInvokeExpr;
-import soot.jimple.InvokeExpr;
-import soot.jimple.SpecialInvokeExpr;
-import soot.jimple.StaticInvokeExpr;
 import soot.jimple.Stmt;
 import soot.jimple.toolkits.callgraph.CallGraph;
 import soot.jimple.toolkits.callgraph.Edge;
-import soot.jimple.toolkits.callgraph.VirtualCalls;
-import soot.util.queue.ChunkedQueue;
-import soot.util.queue.QueueReader;
 
 public class CHABuilder {
   CallGraph cg;
+  DispatchCache dispatchCache;
 
+  /** Create a call graph builder with a fresh dispatch cache. */
+  public CHABuilder() {
+    this(new DispatchCache());
+  }
+
+  /**
+   * Create a call graph builder that shares the given dispatch cache (e.g., across the rounds of
+   * {@link Optimizer#optimize()}).
+   *
+   * @param dispatchCache
+   */
+  public CHABuilder(DispatchCache dispatchCache) {
+    this.dispatchCache = dispatchCache;
+  }
+
+  /**
+   * Build the call graph and set it in the Scene. The call sites of all the methods are first
+   * resolved sequentially into the dispatch cache, which is the only step that touches the Scene.
+   * Then the edges of each method are built in parallel from the cache, without locking, into a
+   * separate edge buffer per method. The buffers are merged into the call graph sequentially in
+   * class name and method declaration order, so the resulting call graph (and its edge order) is the
+   * same in every run. The time of each step is recorded in the cha.resolveMillis and
+   * cha.edgesMillis counters.
+   */
   public void run() {
     cg = new CallGraph();
-    SootSceneUtil.getClasses().stream()
-        .map(c -> c.getMethods())
-        .flatMap(List::stream)
-        .filter(SootMethod::isConcrete)
-        .forEach(m -> processMethod(m));
+    List<SootMethod> methods =
+        SootSceneUtil.getSortedClasses().stream()
+            .map(SootClass::getMethods)
+            .flatMap(List::stream)
+            .filter(SootMethod::isConcrete)
+            .collect(Collectors.toList());
+    buildEdges(methods).forEach(es -> es.forEach(cg::addEdge));
+    Scene.v().setCallGraph(cg);
+  }
+
+  /**
+   * Incrementally update the call graph built by {@link #run()} after the bodies of the given
+   * methods have changed (e.g., by inlining). Only the call sites in those bodies are resolved
+   * again. The edges into the changed methods are not affected, because their callers did not
+   * change.
+   *
+   * @param changed
+   */
+  public void update(Collection<SootMethod> changed) {
+    List<SootMethod> methods = new ArrayList<SootMethod>(changed);
+    methods.sort(Comparator.comparing(SootMethod::getSignature));
+
+    for (SootMethod m : methods) {
+      List<Edge> stale = new ArrayList<Edge>();
+      Iterator<Edge> it = cg.edgesOutOf(m);
+      it.forEachRemaining(stale::add);
+      stale.forEach(cg::removeEdge);
+    }
+
+    methods.removeIf(m -> !m.isConcrete());
+    buildEdges(methods).forEach(es -> es.forEach(cg::addEdge));
+
+    // Setting the call graph again resets the reachable methods that Soot caches for it
     Scene.v().setCallGraph(cg);
   }
 
-  void processMethod(SootMethod m) {
+  /**
+   * Resolve the call sites of the given methods sequentially, then build their edges in parallel.
+   *
+   * @param methods
+   * @return the edges out of each method, in the order of the methods
+   */
+  private List<List<Edge>> buildEdges(List<SootMethod> methods) {
+    long start = System.nanoTime();
+    dispatchCache.warm(methods);
+    long resolved = System.nanoTime();
+    List<List<Edge>> edges =
+        methods.parallelStream().map(this::processMethod).collect(Collectors.toList());
+    Metrics.add("cha.resolveMillis", (resolved - start) / 1000000);
+    Metrics.add("cha.edgesMillis", (System.nanoTime() - resolved) / 1000000);
+    return edges;
+  }
+
+  List<Edge> processMethod(SootMethod m) {
+    List<Edge> edges = new ArrayList<Edge>();
     m.getActiveBody().getUnits().stream()
         .filter(u -> ((Stmt) u).containsInvokeExpr())
-        .forEach(u -> processUnit(u, m));
+        .forEach(u -> processUnit(u, m, edges));
+    return edges;
   }
 
-  void processUnit(Unit u, SootMethod container) {
+  void processUnit(Unit u, SootMethod container, List<Edge> edges) {
     Stmt s = (Stmt) u;
-    InvokeExpr ie = s.getInvokeExpr();
-    ChunkedQueue<SootMethod> targets = new ChunkedQueue<>();
-    QueueReader<SootMethod> reader = targets.reader();
-    if (ie instanceof StaticInvokeExpr) {
-      targets.add(ie.getMethod());
-    } else if (ie instanceof SpecialInvokeExpr) {
-      SootMethod target =
-          VirtualCalls.v()
-              .resolveSpecial(
-                  (SpecialInvokeExpr) ie, ie.getMethodRef().getSubSignature(), container);
-      // if the call target resides in a phantom class then "target" will be null;
-      // simply do not add the target in that case
-      if (target != null) {
-        targets.add(target);
-      }
-    } else {
-      InstanceInvokeExpr iie = (InstanceInvokeExpr) ie;
-      for (SootClass clz : SootSceneUtil.getClasses()) {
-        Type tpe = RefType.v(clz);
-        Type staticType = iie.getBase().getType();
-        if (Scene.v().getFastHierarchy().canStoreType(tpe, staticType)) {
-          VirtualCalls.v()
-              .resolve(tpe, staticType, iie.getMethodRef().getSubSignature(), container, targets);
-        }
-      }
-    }
-    while (reader.hasNext()) {
-      Edge edge = new Edge(container, s, reader.next());
-      cg.addEdge(edge);
+    for (SootMethod target : dispatchCache.getTargets(s.getInvokeExpr(), container)) {
+      edges.add(new Edge(container, s, target));
     }
   }
 }
@@ -1,7 +1,9 @@
 package averroes.frameworks.soot;
 
+import averroes.JarFile;
 import averroes.soot.SootSceneUtil;
 import averroes.util.io.Paths;
+import averroes.util.jfr.ClassWriteEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import soot.SootClass;
@@ -9,10 +11,15 @@ import soot.SourceLocator;
 import soot.baf.BafASMBackend;
 import soot.options.Options;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * A utility class to write class files to disk.
@@ -27,7 +34,52 @@ public class ClassWriter {
      * Write the class file for the generated library classes.
      */
     public static void writeLibraryClassFiles() {
-        SootSceneUtil.getClasses().forEach(ClassWriter::writeLibraryClassFile);
+        writeLibraryClassFiles(ClassWriter::writeToDirectory);
+    }
+
+    /**
+     * Write the class files for the generated library classes straight into the given JAR file,
+     * instead of the classes directory.
+     *
+     * @param jarFile
+     * @throws IOException
+     */
+    public static void writeLibraryClassFiles(JarFile jarFile) throws IOException {
+        writeLibraryClassFiles(
+                (cls, bytes) ->
+                        jarFile.addGeneratedFrameworkClassFile(cls.getName().replace('.', '/') + ".class", bytes));
+        jarFile.finishGeneratedFrameworkClassFiles();
+    }
+
+    /**
+     * Write the class files for the generated library classes to the given sink, in the order of their
+     * names. Each class file only depends on its own class, so the output is the same as writing the
+     * classes one after the other.
+     * <p>
+     * Creating the backend of a class converts its Jimple bodies to Baf, which runs the shared Soot
+     * packs and interns types in the scene, so the backends are created one at a time. Emitting the
+     * bytecode then only reads the Baf bodies, except for the stack frames: ASM asks the backend for
+     * the common superclass of two types, which Soot looks up in the scene by name. Without phantom
+     * refs, that lookup never adds a class to the scene (it fails the same way as in a serial run), so
+     * the bytecode is emitted in parallel. With phantom refs (e.g., in whole-library mode), it may add
+     * a phantom class, so the bytecode is emitted one class at a time.
+     *
+     * @param sink
+     */
+    private static void writeLibraryClassFiles(ClassFileSink sink) {
+        configure();
+        List<SimpleEntry<SootClass, BafASMBackend>> backends = SootSceneUtil.getSortedClasses().stream()
+                .map(cls -> new SimpleEntry<>(cls, ModelCache.isCached(cls) ? null : createBackend(cls)))
+                .collect(Collectors.toList());
+
+        Stream<SimpleEntry<SootClass, BafASMBackend>> classes =
+                Options.v().allow_phantom_refs() ? backends.stream() : backends.parallelStream();
+        classes.map(e -> new SimpleEntry<>(e.getKey(), getClassFile(e.getKey(), e.getValue())))
+                .forEachOrdered(
+                        e -> {
+                            ModelCache.putClassFile(e.getKey(), e.getValue());
+                            write(sink, e.getKey(), e.getValue());
+                        });
     }
 
     /**
@@ -37,19 +89,90 @@ public class ClassWriter {
      * @throws IOException
      */
     public static void writeLibraryClassFile(SootClass cls) {
+        configure();
+        write(ClassWriter::writeToDirectory, cls, generateClassFile(cls, createBackend(cls)));
+    }
+
+    /**
+     * Set the output directory and Java version that Soot uses to write class files.
+     */
+    private static void configure() {
         Options.v().set_output_dir(Paths.frameworksLibraryClassesOutputDirectory().getPath());
         Options.v().set_java_version(Options.java_version_8);
+    }
 
-        File file = new File(SourceLocator.v().getFileNameFor(cls, Options.output_format_class));
-        file.getParentFile().mkdirs();
+    /**
+     * Get the class file of the given class, from the {@link ModelCache} if its model is cached, or
+     * from the given backend otherwise.
+     *
+     * @param cls
+     * @param backend
+     * @return
+     */
+    private static byte[] getClassFile(SootClass cls, BafASMBackend backend) {
+        return ModelCache.isCached(cls) ? ModelCache.getClassFile(cls) : generateClassFile(cls, backend);
+    }
+
+    /**
+     * Translate the given class to bytecode, one step after the other on the current thread.
+     *
+     * @param cls
+     * @return
+     */
+    public static byte[] generateClassFile(SootClass cls) {
+        configure();
+        return generateClassFile(cls, createBackend(cls));
+    }
+
+    /**
+     * Create the backend of the given class. This converts the Jimple bodies of the class to Baf.
+     *
+     * @param cls
+     * @return
+     */
+    private static BafASMBackend createBackend(SootClass cls) {
+        return new BafASMBackend(cls, Options.v().java_version());
+    }
+
+    /**
+     * Emit the bytecode of the given class from its backend.
+     *
+     * @param cls
+     * @param backend
+     * @return
+     */
+    private static byte[] generateClassFile(SootClass cls, BafASMBackend backend) {
+        ClassWriteEvent event = new ClassWriteEvent();
+        event.begin();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        backend.generateClassFile(bytes);
+        event.commit(cls.getName());
+        return bytes.toByteArray();
+    }
 
+    private static void write(ClassFileSink sink, SootClass cls, byte[] bytes) {
         try {
-            OutputStream streamOut = new FileOutputStream(file);
-            BafASMBackend backend = new BafASMBackend(cls, Options.v().java_version());
-            backend.generateClassFile(streamOut);
+            sink.write(cls, bytes);
         } catch (IOException e) {
-            logger.error("Cannot write class " + cls + " to " + file.getPath());
+            logger.error("Cannot write class " + cls);
             e.printStackTrace();
         }
     }
+
+    private static void writeToDirectory(SootClass cls, byte[] bytes) throws IOException {
+        File file = new File(SourceLocator.v().getFileNameFor(cls, Options.output_format_class));
+        file.getParentFile().mkdirs();
+
+        try (OutputStream streamOut = new FileOutputStream(file)) {
+            streamOut.write(bytes);
+        }
+    }
+
+    /**
+     * Where the class files end up.
+     */
+    @FunctionalInterface
+    private interface ClassFileSink {
+        void write(SootClass cls, byte[] bytes) throws IOException;
+    }
 }
@@ -1,14 +1,17 @@
 package averroes.frameworks.soot;
 
 import averroes.frameworks.analysis.AbstractJimpleBody;
+import averroes.frameworks.analysis.CfaJimpleBody;
 import averroes.frameworks.analysis.RtaJimpleBody;
 import averroes.frameworks.analysis.XtaJimpleBody;
 import averroes.frameworks.options.FrameworksOptions;
+import averroes.soot.BodyValidator;
 import averroes.soot.Names;
 import averroes.soot.SootSceneUtil;
 import soot.*;
 import soot.jimple.*;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -26,11 +29,36 @@ public class CodeGenerator {
      * <p>
      * Note: do not call Scene.v().getClasses() here as it will throw concurrent
      * modification error when new classes are added.
+     * <p>
+     * Creating the shared classes, fields (e.g., set_m and set_f for XTA), phantom methods, and array
+     * types changes the scene, so it runs sequentially for all methods first. The new bodies then
+     * only read the scene, so they are generated in parallel on the common fork/join pool. Finally,
+     * they are cleaned up, assigned, and printed out sequentially in the original order, so the output
+     * is the same as generating them one at a time.
      */
     public static void generateJimple() {
         // We ignore non-concrete methods, because they do not have method bodies (surprise!).
-        SootSceneUtil.getClasses().stream().map(SootClass::getMethods).flatMap(List::stream)
-                .filter(SootMethod::isConcrete).collect(Collectors.toList()).forEach(m -> getJimpleBodyCreator(m).generateCode());
+        // The models of the cached classes are not generated again.
+        List<AbstractJimpleBody> creators = new ArrayList<>();
+        SootSceneUtil.getClasses().stream().filter(c -> !ModelCache.isCached(c))
+                .map(SootClass::getMethods).flatMap(List::stream)
+                .filter(SootMethod::isConcrete).collect(Collectors.toList()).forEach(m -> {
+                    AbstractJimpleBody creator = getJimpleBodyCreator(m);
+                    creator.prepare();
+                    creators.add(creator);
+                });
+
+        // The cached models refer to the common class too, even if no method body is generated
+        if (ModelCache.hasHits()) {
+            createCommonClass();
+        }
+
+        creators.parallelStream().forEach(AbstractJimpleBody::generateBody);
+        creators.forEach(AbstractJimpleBody::finish);
+
+        if (FrameworksOptions.getAnalysis().equalsIgnoreCase("xta")) {
+            XtaJimpleBody.removeUnusedSetMs();
+        }
     }
 
     /**
@@ -97,7 +125,7 @@ public class CodeGenerator {
             body.getUnits().addLast(Jimple.v().newReturnVoidStmt());
 
             // Finally validate the Jimple body
-            body.validate();
+            BodyValidator.submit(body);
         }
     }
 
@@ -130,7 +158,7 @@ public class CodeGenerator {
         body.getUnits().addLast(Jimple.v().newReturnVoidStmt());
 
         // Finally validate the Jimple body
-        body.validate();
+        BodyValidator.submit(body);
     }
 
     /**
@@ -143,11 +171,26 @@ public class CodeGenerator {
             return new RtaJimpleBody(method);
         } else if (FrameworksOptions.getAnalysis().equalsIgnoreCase("xta")) {
             return new XtaJimpleBody(method);
+        } else if (FrameworksOptions.getAnalysis().equalsIgnoreCase("cfa")) {
+            return new CfaJimpleBody(method);
         } else {
             return new RtaJimpleBody(method);
         }
     }
 
+    /**
+     * Create the common class of the analysis model (e.g., rta.RTA), based on the options.
+     */
+    private static void createCommonClass() {
+        if (FrameworksOptions.getAnalysis().equalsIgnoreCase("xta")) {
+            XtaJimpleBody.createCommonClass();
+        } else if (FrameworksOptions.getAnalysis().equalsIgnoreCase("cfa")) {
+            CfaJimpleBody.createCommonClass();
+        } else {
+            RtaJimpleBody.createCommonClass();
+        }
+    }
+
     /**
      * Check if the given class has a default constructor.
      *
@@ -0,0 +1,312 @@
+package averroes.frameworks.soot;
+
+import averroes.frameworks.options.FrameworksOptions;
+import averroes.util.io.Resource;
+import averroes.util.io.ZipEntryResource;
+import org.apache.commons.io.IOUtils;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.*;
+import soot.SootClass;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Finds the dependency classes that the input classes actually need, for the demand-driven
+ * whole-library mode (see {@link FrameworksOptions#isLazyDependencies()}). Starting from all the
+ * methods of the input classes, it follows the supertypes and member signatures of every class it
+ * reaches, and the classes, fields, and methods that reachable methods refer to. A method of a
+ * dependency class is reachable if it's a static initializer, or if a reachable method invokes a
+ * method with the same name and descriptor (which over-approximates virtual dispatch). The class
+ * files are read with ASM, so that no class has to be loaded into Soot to find out if it's needed.
+ */
+public class DependencyResolver {
+
+    private static Set<String> resolved = null;
+
+    // The class path, opened once for the whole resolution
+    private final List<File> directories = new ArrayList<>();
+    private final List<ZipFile> archives = new ArrayList<>();
+
+    private final Set<String> inputs;
+    private final Set<String> needed = new LinkedHashSet<>();
+    private final Deque<String> classWorklist = new ArrayDeque<>();
+    private final Deque<MethodNode> methodWorklist = new ArrayDeque<>();
+    private final Set<MethodNode> scanned = new HashSet<>();
+
+    // The reachable name and descriptor pairs, and the methods of the needed classes that have them
+    private final Set<String> reachedSubsignatures = new HashSet<>();
+    private final Map<String, List<MethodNode>> declaredMethods = new HashMap<>();
+
+    private DependencyResolver(Collection<String> inputs) {
+        this.inputs = new HashSet<>(inputs);
+    }
+
+    /**
+     * Find the dependency classes that the input classes need, and remember them for {@link
+     * #isModelled(SootClass)}.
+     *
+     * @return the names of the needed classes, excluding the input classes
+     */
+    public static Set<String> resolve() {
+        DependencyResolver resolver = new DependencyResolver(FrameworksOptions.getClasses());
+        try {
+            resolver.open();
+            resolved = resolver.run();
+        } finally {
+            resolver.close();
+        }
+        return resolved;
+    }
+
+    /**
+     * Forget the classes resolved by any previous run.
+     */
+    public static void reset() {
+        resolved = null;
+    }
+
+    /**
+     * Should Averroes model the given library class? All library classes are modelled, unless the
+     * dependencies were resolved on demand.
+     *
+     * @param cls
+     * @return
+     */
+    public static boolean isModelled(SootClass cls) {
+        return resolved == null || resolved.contains(cls.getName());
+    }
+
+    private Set<String> run() {
+        inputs.forEach(this::needClass);
+
+        while (!classWorklist.isEmpty() || !methodWorklist.isEmpty()) {
+            if (!classWorklist.isEmpty()) {
+                processClass(classWorklist.poll());
+            } else {
+                scan(methodWorklist.poll());
+            }
+        }
+
+        Set<String> result = new LinkedHashSet<>(needed);
+        result.removeAll(inputs);
+        return result;
+    }
+
+    /**
+     * Mark the given class as needed, if it's on the class path.
+     *
+     * @param internalName
+     */
+    private void needClass(String internalName) {
+        String name = internalName.replace('/', '.');
+        if (!needed.contains(name) && find(name) != null) {
+            needed.add(name);
+            classWorklist.add(name);
+        }
+    }
+
+    /**
+     * Mark the class of the given type as needed, if it's a class or an array of classes.
+     *
+     * @param type
+     */
+    private void needType(Type type) {
+        if (type.getSort() == Type.ARRAY) {
+            type = type.getElementType();
+        }
+
+        if (type.getSort() == Type.OBJECT) {
+            needClass(type.getInternalName());
+        } else if (type.getSort() == Type.METHOD) {
+            Arrays.stream(type.getArgumentTypes()).forEach(this::needType);
+            needType(type.getReturnType());
+        }
+    }
+
+    /**
+     * Mark the class referred to by the operand of a type instruction as needed. The operand is an
+     * internal name, or a descriptor for array types.
+     *
+     * @param operand
+     */
+    private void needTypeOperand(String operand) {
+        needType(operand.startsWith("[") ? Type.getType(operand) : Type.getObjectType(operand));
+    }
+
+    /**
+     * Follow the supertypes and the member signatures of the given class, and queue its reachable
+     * methods.
+     *
+     * @param name
+     */
+    private void processClass(String name) {
+        ClassNode node = read(name);
+        boolean input = inputs.contains(name);
+
+        if (node.superName != null) {
+            needClass(node.superName);
+        }
+        node.interfaces.forEach(this::needClass);
+        node.fields.forEach(f -> needType(Type.getType(f.desc)));
+
+        for (MethodNode m : node.methods) {
+            needType(Type.getMethodType(m.desc));
+            m.exceptions.forEach(this::needClass);
+
+            String subsignature = m.name + m.desc;
+            declaredMethods.computeIfAbsent(subsignature, k -> new ArrayList<>()).add(m);
+            if (input || m.name.equals("<clinit>") || reachedSubsignatures.contains(subsignature)) {
+                methodWorklist.add(m);
+            }
+        }
+    }
+
+    /**
+     * Mark the given method as invoked, along with every method of the needed classes that it may
+     * dispatch to.
+     *
+     * @param owner
+     * @param name
+     * @param desc
+     */
+    private void reachMethod(String owner, String name, String desc) {
+        needClass(owner);
+        needType(Type.getMethodType(desc));
+
+        String subsignature = name + desc;
+        if (reachedSubsignatures.add(subsignature)) {
+            methodWorklist.addAll(declaredMethods.getOrDefault(subsignature, Collections.emptyList()));
+        }
+    }
+
+    /**
+     * Follow everything the given method refers to.
+     *
+     * @param method
+     */
+    private void scan(MethodNode method) {
+        if (!scanned.add(method)) {
+            return;
+        }
+
+        method.tryCatchBlocks.stream().filter(t -> t.type != null).forEach(t -> needClass(t.type));
+
+        for (AbstractInsnNode insn : method.instructions.toArray()) {
+            if (insn instanceof MethodInsnNode) {
+                MethodInsnNode call = (MethodInsnNode) insn;
+                if (call.owner.startsWith("[")) {
+                    needTypeOperand(call.owner);
+                } else {
+                    reachMethod(call.owner, call.name, call.desc);
+                }
+            } else if (insn instanceof FieldInsnNode) {
+                needClass(((FieldInsnNode) insn).owner);
+                needType(Type.getType(((FieldInsnNode) insn).desc));
+            } else if (insn instanceof TypeInsnNode) {
+                needTypeOperand(((TypeInsnNode) insn).desc);
+            } else if (insn instanceof MultiANewArrayInsnNode) {
+                needType(Type.getType(((MultiANewArrayInsnNode) insn).desc));
+            } else if (insn instanceof LdcInsnNode && ((LdcInsnNode) insn).cst instanceof Type) {
+                needType((Type) ((LdcInsnNode) insn).cst);
+            } else if (insn instanceof InvokeDynamicInsnNode) {
+                InvokeDynamicInsnNode indy = (InvokeDynamicInsnNode) insn;
+                needType(Type.getMethodType(indy.desc));
+                reachHandle(indy.bsm);
+                Arrays.stream(indy.bsmArgs)
+                        .filter(a -> a instanceof Handle)
+                        .forEach(a -> reachHandle((Handle) a));
+            }
+        }
+    }
+
+    private void reachHandle(Handle handle) {
+        if (handle.getTag() >= Opcodes.H_INVOKEVIRTUAL) {
+            reachMethod(handle.getOwner(), handle.getName(), handle.getDesc());
+        } else {
+            needClass(handle.getOwner());
+            needType(Type.getType(handle.getDesc()));
+        }
+    }
+
+    /**
+     * Open the input and Soot class path entries.
+     */
+    private void open() {
+        Set<String> paths = new LinkedHashSet<>(FrameworksOptions.getInputs());
+        paths.addAll(Arrays.asList(FrameworksOptions.getSootClassPath().split(File.pathSeparator)));
+
+        for (String path : paths) {
+            File file = new File(path);
+            if (file.isDirectory()) {
+                directories.add(file);
+            } else if (file.isFile()) {
+                try {
+                    archives.add(new ZipFile(file));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void close() {
+        archives.forEach(
+                a -> {
+                    try {
+                        a.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                });
+    }
+
+    /**
+     * Find the class file of the given class on the class path.
+     *
+     * @param name
+     * @return the class file, or null if it's not on the class path
+     */
+    private Resource find(String name) {
+        String entry = name.replace('.', '/') + ".class";
+        for (File directory : directories) {
+            File file = new File(directory, entry);
+            if (file.isFile()) {
+                return () -> {
+                    try {
+                        return Files.newInputStream(file.toPath());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                };
+            }
+        }
+        for (ZipFile archive : archives) {
+            ZipEntry zipEntry = archive.getEntry(entry);
+            if (zipEntry != null) {
+                return new ZipEntryResource(archive, zipEntry);
+            }
+        }
+        return null;
+    }
+
+    private ClassNode read(String name) {
+        try (InputStream in = find(name).open()) {
+            ClassNode result = new ClassNode();
+            new ClassReader(IOUtils.toByteArray(in))
+                    .accept(result, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+            return result;
+        } catch (IOException | UncheckedIOException e) {
+            throw new RuntimeException("Cannot read the class file of " + name, e);
+        }
+    }
+}
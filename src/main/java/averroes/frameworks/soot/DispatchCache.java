@@ -0,0 +1,263 @@
+package averroes.frameworks.soot;
+
+import averroes.soot.SootSceneUtil;
+import averroes.util.Metrics;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import soot.FastHierarchy;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.SootMethodRef;
+import soot.Type;
+import soot.Unit;
+import soot.jimple.InstanceInvokeExpr;
+import soot.jimple.InvokeExpr;
+import soot.jimple.SpecialInvokeExpr;
+import soot.jimple.StaticInvokeExpr;
+import soot.jimple.Stmt;
+import soot.jimple.toolkits.callgraph.VirtualCalls;
+import soot.util.NumberedString;
+import soot.util.queue.ChunkedQueue;
+import soot.util.queue.QueueReader;
+
+/**
+ * A cache of the call targets used by {@link CHABuilder}. For each declared (i.e., static) receiver
+ * type, it indexes the classes that can be stored in it. For each (declared type, subsignature,
+ * calling class) triple, it caches the resolved targets of virtual calls, and likewise for static
+ * and special calls. They are reused across call sites, and across {@link CHABuilder} runs, as long
+ * as the set of classes and their methods do not change. Resolution only depends on the calling
+ * method through its class (e.g., the accessibility of package-private methods, or the superclass
+ * of a super call), so the targets are shared by all the methods of a class, but never across
+ * classes.
+ *
+ * <p>Resolving a method reference may add phantom methods to the Scene, and {@link VirtualCalls}
+ * caches its own lookups in unsynchronized maps, so resolution holds the lock of the {@link Scene}.
+ * {@link #warm(Collection)} resolves all the call sites of some methods upfront on one thread. The
+ * lookups of those call sites then only read the cache, and do not block, so they can run in
+ * parallel.
+ *
+ * <p>The index keeps every class that can be stored in the declared type, including abstract
+ * ones. Application code may extend those abstract classes, so the concrete methods they inherit
+ * have to stay reachable.
+ */
+public class DispatchCache {
+  private final List<SootClass> classes;
+  private final Map<Type, List<SootClass>> subtypes;
+  private final Map<Key, List<SootMethod>> targets;
+  private final Map<Key, List<SootMethod>> staticTargets;
+  private final Map<Key, List<SootMethod>> specialTargets;
+
+  /** Create a new dispatch cache for the classes that Averroes processes. */
+  public DispatchCache() {
+    this(SootSceneUtil.getSortedClasses());
+  }
+
+  /**
+   * Create a new dispatch cache for the given classes.
+   *
+   * @param classes
+   */
+  public DispatchCache(Collection<SootClass> classes) {
+    this.classes = new ArrayList<SootClass>(classes);
+    subtypes = new ConcurrentHashMap<Type, List<SootClass>>();
+    targets = new ConcurrentHashMap<Key, List<SootMethod>>();
+    staticTargets = new ConcurrentHashMap<Key, List<SootMethod>>();
+    specialTargets = new ConcurrentHashMap<Key, List<SootMethod>>();
+  }
+
+  /**
+   * Resolve the targets of all the call sites in the given methods, in order, on the current thread.
+   *
+   * @param methods
+   */
+  public void warm(Collection<SootMethod> methods) {
+    for (SootMethod m : methods) {
+      for (Unit u : m.getActiveBody().getUnits()) {
+        Stmt s = (Stmt) u;
+        if (s.containsInvokeExpr()) {
+          getTargets(s.getInvokeExpr(), m);
+        }
+      }
+    }
+  }
+
+  /**
+   * Get the targets of the given call, made in the given method.
+   *
+   * @param ie
+   * @param container
+   * @return
+   */
+  public List<SootMethod> getTargets(InvokeExpr ie, SootMethod container) {
+    SootMethodRef ref = ie.getMethodRef();
+    if (ie instanceof StaticInvokeExpr) {
+      Key key = new Key(ref.declaringClass().getType(), ref.getSubSignature(), ref.declaringClass());
+      return lookup(staticTargets, key, () -> resolveStatic(ie));
+    } else if (ie instanceof SpecialInvokeExpr) {
+      Key key =
+          new Key(
+              ref.declaringClass().getType(),
+              ref.getSubSignature(),
+              container.getDeclaringClass());
+      return lookup(specialTargets, key, () -> resolveSpecial((SpecialInvokeExpr) ie, container));
+    } else {
+      InstanceInvokeExpr iie = (InstanceInvokeExpr) ie;
+      return getTargets(iie.getBase().getType(), ref.getSubSignature(), container);
+    }
+  }
+
+  /**
+   * Get the classes that can be stored in the given declared type.
+   *
+   * @param declaredType
+   * @return
+   */
+  public List<SootClass> getSubtypes(Type declaredType) {
+    return subtypes.computeIfAbsent(declaredType, this::findSubtypes);
+  }
+
+  /**
+   * Get the targets of a virtual call with the given subsignature on a receiver of the given
+   * declared type, made in the given method.
+   *
+   * @param declaredType
+   * @param subSignature
+   * @param container
+   * @return
+   */
+  public List<SootMethod> getTargets(
+      Type declaredType, NumberedString subSignature, SootMethod container) {
+    Key key = new Key(declaredType, subSignature, container.getDeclaringClass());
+    return lookup(targets, key, () -> resolve(declaredType, subSignature, container));
+  }
+
+  /**
+   * Look up the given key in the given cache, and resolve its targets if they are not there yet.
+   *
+   * @param cache
+   * @param key
+   * @param resolver
+   * @return
+   */
+  private List<SootMethod> lookup(
+      Map<Key, List<SootMethod>> cache, Key key, Supplier<List<SootMethod>> resolver) {
+    List<SootMethod> result = cache.get(key);
+
+    if (result == null) {
+      Metrics.cacheMiss("cha.dispatch");
+      result = cache.computeIfAbsent(key, k -> resolver.get());
+    } else {
+      Metrics.cacheHit("cha.dispatch");
+    }
+
+    return result;
+  }
+
+  /**
+   * Resolve the target of a static call.
+   *
+   * @param ie
+   * @return
+   */
+  private List<SootMethod> resolveStatic(InvokeExpr ie) {
+    synchronized (Scene.v()) {
+      return Collections.singletonList(ie.getMethod());
+    }
+  }
+
+  /**
+   * Resolve the target of a special call (e.g., a constructor, private, or super call). If the
+   * target resides in a phantom class, there is none.
+   *
+   * @param ie
+   * @param container
+   * @return
+   */
+  private List<SootMethod> resolveSpecial(SpecialInvokeExpr ie, SootMethod container) {
+    SootMethod target;
+    synchronized (Scene.v()) {
+      target = VirtualCalls.v().resolveSpecial(ie, ie.getMethodRef().getSubSignature(), container);
+    }
+    return target == null ? Collections.<SootMethod>emptyList() : Collections.singletonList(target);
+  }
+
+  /**
+   * Find the classes that can be stored in the given declared type.
+   *
+   * @param declaredType
+   * @return
+   */
+  private List<SootClass> findSubtypes(Type declaredType) {
+    synchronized (Scene.v()) {
+      FastHierarchy hierarchy = Scene.v().getOrMakeFastHierarchy();
+      return classes.stream()
+          .filter(c -> hierarchy.canStoreType(c.getType(), declaredType))
+          .collect(Collectors.toList());
+    }
+  }
+
+  /**
+   * Resolve the targets of a virtual call with the given subsignature for all the subtypes of the
+   * given declared type.
+   *
+   * @param declaredType
+   * @param subSignature
+   * @param container
+   * @return
+   */
+  private List<SootMethod> resolve(
+      Type declaredType, NumberedString subSignature, SootMethod container) {
+    List<SootClass> classes = getSubtypes(declaredType);
+    ChunkedQueue<SootMethod> queue = new ChunkedQueue<>();
+    QueueReader<SootMethod> reader = queue.reader();
+    synchronized (Scene.v()) {
+      for (SootClass cls : classes) {
+        VirtualCalls.v().resolve(cls.getType(), declaredType, subSignature, container, queue);
+      }
+    }
+
+    LinkedHashSet<SootMethod> result = new LinkedHashSet<SootMethod>();
+    while (reader.hasNext()) {
+      result.add(reader.next());
+    }
+    return new ArrayList<SootMethod>(result);
+  }
+
+  /** The key of the resolved targets of a virtual call. */
+  private static final class Key {
+    private final Type declaredType;
+    private final NumberedString subSignature;
+    private final SootClass caller;
+
+    private Key(Type declaredType, NumberedString subSignature, SootClass caller) {
+      this.declaredType = declaredType;
+      this.subSignature = subSignature;
+      this.caller = caller;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return declaredType.equals(other.declaredType)
+          && subSignature.equals(other.subSignature)
+          && caller.equals(other.caller);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(declaredType, subSignature, caller);
+    }
+  }
+}
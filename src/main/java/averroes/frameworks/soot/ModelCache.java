@@ -0,0 +1,345 @@
+package averroes.frameworks.soot;
+
+import averroes.frameworks.analysis.BytecodeFactExtractor;
+import averroes.frameworks.options.FrameworksOptions;
+import averroes.util.Metrics;
+import averroes.util.io.Printers;
+import averroes.util.json.JsonUtils;
+import averroes.util.json.SootClassJson;
+import org.objectweb.asm.ClassReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import soot.Scene;
+import soot.SootClass;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * A content-addressed store of the generated models of library classes, shared across runs. The
+ * key of a class is the hash of its original class file, the options that affect the generated
+ * code, and the signatures of the classes it directly refers to. On a hit, the class file and the
+ * JSON summary of the model are taken from the store, and no Jimple bodies are generated for the
+ * class. The generated Jimple files are not cached, so they are only printed out on a miss.
+ *
+ * <p>The store is not used with -O, since the optimizer inlines, removes, and replaces code across
+ * classes, so the model of a class would depend on far more than its key.
+ */
+public class ModelCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ModelCache.class);
+
+    // Bump this whenever the generated code changes for the same input
+    private static final int VERSION = 1;
+
+    // The tag of CONSTANT_Class entries in the constant pool of a class file
+    private static final int CONSTANT_CLASS = 7;
+
+    private static File directory = null;
+    private static Map<SootClass, String> keys = new HashMap<>();
+    private static Set<SootClass> hits = new HashSet<>();
+
+    /**
+     * Use the given directory as the store, or disable caching if it is null. This also forgets the
+     * keys of any previous run.
+     *
+     * @param dir
+     */
+    public static void configure(File dir) {
+        directory = dir;
+        keys = new HashMap<>();
+        hits = new HashSet<>();
+    }
+
+    /**
+     * Is caching enabled?
+     *
+     * @return
+     */
+    public static boolean isEnabled() {
+        return directory != null;
+    }
+
+    /**
+     * Compute the keys of the given classes, and look them up in the store. This has to be called
+     * before any code is generated, so that the keys only depend on the original classes.
+     *
+     * @param classes
+     */
+    public static void lookup(Collection<SootClass> classes) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        classes.forEach(
+                cls -> {
+                    String key = key(cls);
+                    if (key == null) {
+                        return;
+                    }
+
+                    keys.put(cls, key);
+                    // The JSON summary is only needed if it's going to be printed out
+                    if (classFile(key).isFile() && (!Printers.isEnabled() || jsonFile(key).isFile())) {
+                        hits.add(cls);
+                        Metrics.cacheHit("models");
+                    } else {
+                        Metrics.cacheMiss("models");
+                    }
+                });
+    }
+
+    /**
+     * Is the model of the given class taken from the store?
+     *
+     * @param cls
+     * @return
+     */
+    public static boolean isCached(SootClass cls) {
+        return hits.contains(cls);
+    }
+
+    /**
+     * Is the model of any class taken from the store?
+     *
+     * @return
+     */
+    public static boolean hasHits() {
+        return !hits.isEmpty();
+    }
+
+    /**
+     * Get the cached class file of the given class.
+     *
+     * @param cls
+     * @return
+     */
+    public static byte[] getClassFile(SootClass cls) {
+        try {
+            return Files.readAllBytes(classFile(keys.get(cls)).toPath());
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot read the cached class file of " + cls.getName(), e);
+        }
+    }
+
+    /**
+     * Get the cached JSON summary of the given class.
+     *
+     * @param cls
+     * @return
+     */
+    public static SootClassJson getJson(SootClass cls) {
+        try {
+            return JsonUtils.fromJson(jsonFile(keys.get(cls)));
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot read the cached JSON summary of " + cls.getName(), e);
+        }
+    }
+
+    /**
+     * Store the generated class file of the given class, unless it is already cached or it has no
+     * key (e.g., the classes that Averroes creates from scratch).
+     *
+     * @param cls
+     * @param bytes
+     */
+    public static void putClassFile(SootClass cls, byte[] bytes) {
+        if (keys.containsKey(cls) && !isCached(cls)) {
+            store(classFile(keys.get(cls)), file -> {
+                try (OutputStream out = Files.newOutputStream(file.toPath())) {
+                    out.write(bytes);
+                }
+            });
+        }
+    }
+
+    /**
+     * Store the JSON summary of the given class, unless it is already cached or it has no key.
+     *
+     * @param cls
+     * @param json
+     */
+    public static void putJson(SootClass cls, SootClassJson json) {
+        if (keys.containsKey(cls) && !isCached(cls)) {
+            store(jsonFile(keys.get(cls)), file -> {
+                try (Writer out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+                    json.writeJson(out);
+                }
+            });
+        }
+    }
+
+    /**
+     * Write a file of the store through a temporary file, so that concurrent runs never see a
+     * partially written entry.
+     *
+     * @param file
+     * @param content
+     */
+    private static void store(File file, Content content) {
+        try {
+            file.getParentFile().mkdirs();
+            File tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+            try {
+                content.writeTo(tmp);
+                Files.move(
+                        tmp.toPath(),
+                        file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp.toPath());
+            }
+        } catch (IOException e) {
+            logger.warn("Cannot store " + file + " in the model cache: " + e.getMessage());
+        }
+    }
+
+    private static File classFile(String key) {
+        return new File(new File(directory, key.substring(0, 2)), key + ".class");
+    }
+
+    private static File jsonFile(String key) {
+        return new File(new File(directory, key.substring(0, 2)), key + ".json");
+    }
+
+    /**
+     * Compute the key of the given class, or null if its original class file cannot be found.
+     *
+     * @param cls
+     * @return
+     */
+    private static String key(SootClass cls) {
+        byte[] bytes;
+        try {
+            bytes = BytecodeFactExtractor.readClassFile(cls.getName());
+        } catch (RuntimeException e) {
+            return null;
+        }
+
+        MessageDigest digest = newDigest();
+        digest.update(options().getBytes(StandardCharsets.UTF_8));
+        digest.update(bytes);
+        dependencies(bytes).stream()
+                .filter(d -> !d.equals(cls.getName()))
+                .forEach(d -> digest.update(describe(d).getBytes(StandardCharsets.UTF_8)));
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Describe the options that affect the generated code.
+     *
+     * @return
+     */
+    private static String options() {
+        return "v" + VERSION
+                + " analysis=" + FrameworksOptions.getAnalysis()
+                + " guards=" + FrameworksOptions.isEnableGuards()
+                + " whole=" + FrameworksOptions.isIncludeDependencies()
+                + " lazy=" + FrameworksOptions.isLazyDependencies()
+                + " share-sets=" + FrameworksOptions.isShareSets()
+                + " field-sets=" + FrameworksOptions.isFieldSets()
+                + " facts=" + FrameworksOptions.getFactSource()
+                + "\n";
+    }
+
+    /**
+     * Get the names of the classes that the given class file directly refers to, in order.
+     *
+     * @param bytes
+     * @return
+     */
+    private static TreeSet<String> dependencies(byte[] bytes) {
+        ClassReader reader = new ClassReader(bytes);
+        char[] buffer = new char[reader.getMaxStringLength()];
+        TreeSet<String> result = new TreeSet<>();
+
+        for (int i = 1; i < reader.getItemCount(); i++) {
+            int offset = reader.getItem(i);
+            // The second slot of long and double constants has no item
+            if (offset > 0 && reader.readByte(offset - 1) == CONSTANT_CLASS) {
+                String name = reader.readUTF8(offset, buffer);
+                // Array classes refer to their element type, if it's a class
+                int element = name.lastIndexOf('[');
+                if (element < 0) {
+                    result.add(name.replace('/', '.'));
+                } else if (name.charAt(element + 1) == 'L') {
+                    result.add(name.substring(element + 2, name.length() - 1).replace('/', '.'));
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Describe the signature of the given class, i.e., everything about it that the generated code
+     * of the classes that refer to it may depend on.
+     *
+     * @param className
+     * @return
+     */
+    private static String describe(String className) {
+        if (!Scene.v().containsClass(className)) {
+            return className + " missing\n";
+        }
+
+        SootClass cls = Scene.v().getSootClass(className);
+        StringBuilder result = new StringBuilder();
+        result.append(cls.getModifiers()).append(' ').append(className);
+        if (cls.hasSuperclass()) {
+            result.append(" extends ").append(cls.getSuperclass().getName());
+        }
+        result.append(" implements ")
+                .append(cls.getInterfaces().stream().map(SootClass::getName).sorted().collect(Collectors.toList()))
+                .append(cls.isPhantom() ? " phantom" : "")
+                .append('\n');
+        cls.getFields().stream()
+                .map(f -> f.getModifiers() + " " + f.getSignature())
+                .sorted()
+                .forEach(f -> result.append(f).append('\n'));
+        cls.getMethods().stream()
+                .map(m -> m.getModifiers() + " " + m.getSignature())
+                .sorted()
+                .forEach(m -> result.append(m).append('\n'));
+        return result.toString();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder result = new StringBuilder();
+        for (byte b : bytes) {
+            result.append(String.format("%02x", b));
+        }
+        return result.toString();
+    }
+
+    /**
+     * The content of a file in the store.
+     */
+    @FunctionalInterface
+    private interface Content {
+        void writeTo(File file) throws IOException;
+    }
+}
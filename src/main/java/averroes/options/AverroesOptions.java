@@ -9,6 +9,7 @@
  */
 package averroes.options;
 
+import averroes.AverroesContext;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
@@ -32,12 +33,12 @@ import soot.SootClass;
  * each property, you can consult the accompanying averroes.properties.sample file or the online
  * tutorial at {@link http ://karimali.ca/averroes}
  *
+ * <p>The parsed options are kept in the current {@link AverroesContext}.
+ *
  * @author Karim Ali
  */
 public final class AverroesOptions {
 
-  private static List<String> dynamicClasses = null;
-
   private static Option applicationRegex =
       Option.builder("r")
           .longOpt("application-regex")
@@ -131,6 +132,34 @@ public final class AverroesOptions {
           .required(false)
           .build();
 
+  private static Option packGeneratedClasses =
+      Option.builder("p")
+          .longOpt("pack-generated-classes")
+          .desc(
+              "setting this flag will make Averroes implement compatible library interfaces that are not implemented in the library using shared generated classes, instead of one generated class per interface")
+          .hasArg(false)
+          .required(false)
+          .build();
+
+  private static Option compactBodies =
+      Option.builder("c")
+          .longOpt("compact-bodies")
+          .desc(
+              "setting this flag will make the placeholder library methods call static helper methods in averroes.AbstractLibrary to access the LPT and call doItAll, instead of inlining that code in every method")
+          .hasArg(false)
+          .required(false)
+          .build();
+
+  private static Option validation =
+      Option.builder("v")
+          .longOpt("validation")
+          .desc(
+              "the validation policy for the generated code (one of full, generated, sampled:N, off). The default is full")
+          .hasArg()
+          .argName("policy")
+          .required(false)
+          .build();
+
   private static Options options =
       new Options()
           .addOption(applicationRegex)
@@ -142,9 +171,10 @@ public final class AverroesOptions {
           .addOption(outputDirectory)
           .addOption(jreDirectory)
           .addOption(help)
-          .addOption(enableGuards);
-
-  private static CommandLine cmd;
+          .addOption(enableGuards)
+          .addOption(packGeneratedClasses)
+          .addOption(compactBodies)
+          .addOption(validation);
 
   /**
    * Process the input arguments of Averroes.
@@ -153,7 +183,8 @@ public final class AverroesOptions {
    */
   public static void processArguments(String[] args) {
     try {
-      cmd = new DefaultParser().parse(options, args);
+      CommandLine cmd = new DefaultParser().parse(options, args);
+      AverroesContext.v().setCommandLine(cmd);
 
       // Do we need to print out help messages?
       if (cmd.hasOption(help.getOpt())) {
@@ -165,6 +196,40 @@ public final class AverroesOptions {
     }
   }
 
+  /**
+   * Check the given arguments of Averroes without processing them. This is meant for long-running
+   * processes, since {@link #processArguments(String[])} exits on invalid arguments, and so does
+   * Averroes on missing input files.
+   *
+   * @param args
+   * @throws ParseException if the arguments are invalid, ask for help, or name missing JAR files
+   */
+  public static void checkArguments(String[] args) throws ParseException {
+    CommandLine cmd = new DefaultParser().parse(options, args);
+    if (cmd.hasOption(help.getOpt())) {
+      throw new ParseException("The help message is only available on the command line.");
+    }
+
+    String jars =
+        cmd.getOptionValue(applicationJars.getOpt())
+            + File.pathSeparator
+            + cmd.getOptionValue(libraryJars.getOpt(), "");
+    for (String jar : jars.split(File.pathSeparator)) {
+      if (!jar.trim().isEmpty() && !new File(jar).isFile()) {
+        throw new ParseException("Cannot find the JAR file " + jar + ".");
+      }
+    }
+  }
+
+  /**
+   * Get the parsed options of the current context.
+   *
+   * @return
+   */
+  private static CommandLine cmd() {
+    return AverroesContext.v().getCommandLine();
+  }
+
   /** Print out some help information. */
   private static void help() {
     new HelpFormatter().printHelp("jar -jar averroes.jar", "", options, "", true);
@@ -177,7 +242,7 @@ public final class AverroesOptions {
    * @return
    */
   public static List<String> getApplicationRegex() {
-    return Arrays.asList(cmd.getOptionValue(applicationRegex.getOpt()).split(File.pathSeparator));
+    return Arrays.asList(cmd().getOptionValue(applicationRegex.getOpt()).split(File.pathSeparator));
   }
 
   /**
@@ -186,7 +251,7 @@ public final class AverroesOptions {
    * @return
    */
   public static String getMainClass() {
-    return cmd.getOptionValue(mainClass.getOpt());
+    return cmd().getOptionValue(mainClass.getOpt());
   }
 
   /**
@@ -195,7 +260,7 @@ public final class AverroesOptions {
    * @return
    */
   public static List<String> getApplicationJars() {
-    return Arrays.asList(cmd.getOptionValue(applicationJars.getOpt()).split(File.pathSeparator));
+    return Arrays.asList(cmd().getOptionValue(applicationJars.getOpt()).split(File.pathSeparator));
   }
 
   /**
@@ -204,7 +269,7 @@ public final class AverroesOptions {
    * @return
    */
   public static List<String> getLibraryJarFiles() {
-    return Arrays.asList(cmd.getOptionValue(libraryJars.getOpt(), "").split(File.pathSeparator));
+    return Arrays.asList(cmd().getOptionValue(libraryJars.getOpt(), "").split(File.pathSeparator));
   }
 
   /**
@@ -213,7 +278,7 @@ public final class AverroesOptions {
    * @return
    */
   public static boolean isDynamicClassesEnabled() {
-    return cmd.hasOption(dynamicClassesFile.getOpt());
+    return cmd().hasOption(dynamicClassesFile.getOpt());
   }
 
   /**
@@ -222,18 +287,20 @@ public final class AverroesOptions {
    * @return
    */
   public static List<String> getDynamicClasses() throws IOException {
+    List<String> dynamicClasses = AverroesContext.v().getDynamicClasses();
     if (dynamicClasses == null) {
       dynamicClasses = new ArrayList<String>();
 
       if (isDynamicClassesEnabled()) {
         BufferedReader in =
-            new BufferedReader(new FileReader(cmd.getOptionValue(dynamicClassesFile.getOpt())));
+            new BufferedReader(new FileReader(cmd().getOptionValue(dynamicClassesFile.getOpt())));
         String line;
         while ((line = in.readLine()) != null) {
           dynamicClasses.add(line);
         }
         in.close();
       }
+      AverroesContext.v().setDynamicClasses(dynamicClasses);
     }
 
     return dynamicClasses;
@@ -269,7 +336,7 @@ public final class AverroesOptions {
    * @return
    */
   public static boolean isTamiflexEnabled() {
-    return cmd.hasOption(tamiflexFactsFile.getOpt());
+    return cmd().hasOption(tamiflexFactsFile.getOpt());
   }
 
   /**
@@ -278,7 +345,7 @@ public final class AverroesOptions {
    * @return
    */
   public static String getTamiflexFactsFile() {
-    return cmd.getOptionValue(tamiflexFactsFile.getOpt(), "");
+    return cmd().getOptionValue(tamiflexFactsFile.getOpt(), "");
   }
 
   /**
@@ -287,7 +354,7 @@ public final class AverroesOptions {
    * @return
    */
   public static String getOutputDirectory() {
-    return cmd.getOptionValue(outputDirectory.getOpt());
+    return cmd().getOptionValue(outputDirectory.getOpt());
   }
 
   /**
@@ -297,7 +364,17 @@ public final class AverroesOptions {
    * @return
    */
   public static String getJreDirectory() {
-    return cmd.getOptionValue(jreDirectory.getOpt());
+    return cmd().getOptionValue(jreDirectory.getOpt());
+  }
+
+  /**
+   * The directory of the Java runtime environment to be used, where "system" stands for the one
+   * that runs Averroes.
+   *
+   * @return
+   */
+  public static String getJreHome() {
+    return "system".equals(getJreDirectory()) ? System.getProperty("java.home") : getJreDirectory();
   }
 
   /**
@@ -341,7 +418,10 @@ public final class AverroesOptions {
    * @return
    */
   public static boolean isApplicationClass(String className) {
-    return isApplicationClass(ObjectManager.v().getClass(className));
+    // The probe class table is shared by all the contexts
+    synchronized (ObjectManager.class) {
+      return isApplicationClass(ObjectManager.v().getClass(className));
+    }
   }
 
   /**
@@ -371,6 +451,36 @@ public final class AverroesOptions {
    * @return
    */
   public static boolean isEnableGuards() {
-    return cmd.hasOption(enableGuards.getOpt());
+    return cmd().hasOption(enableGuards.getOpt());
+  }
+
+  /**
+   * Setting this flag will make Averroes pack compatible library interfaces that are not implemented
+   * in the library into shared generated classes.
+   *
+   * @return
+   */
+  public static boolean isPackGeneratedClasses() {
+    return cmd().hasOption(packGeneratedClasses.getOpt());
+  }
+
+  /**
+   * The validation policy for the generated code.
+   *
+   * @return
+   */
+  public static ValidationPolicy getValidationPolicy() {
+    return ValidationPolicy.parse(
+        cmd().getOptionValue(validation.getOpt(), ValidationPolicy.DEFAULT));
+  }
+
+  /**
+   * Setting this flag will make the placeholder library methods call static helper methods in the
+   * Averroes abstract library class instead of repeating the LPT and doItAll code in every method.
+   *
+   * @return
+   */
+  public static boolean isCompactBodies() {
+    return cmd().hasOption(compactBodies.getOpt());
   }
 }
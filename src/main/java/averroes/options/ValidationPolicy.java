@@ -0,0 +1,121 @@
+package averroes.options;
+
+/**
+ * The policy that decides which Jimple bodies Averroes validates, and whether the generated JAR
+ * files are verified. The policy is given on the command line as one of:
+ *
+ * <ul>
+ *   <li>full: Soot validates every body it creates, and Averroes validates every generated body
+ *   <li>generated: Averroes validates every generated body
+ *   <li>sampled:N: Averroes validates N% of the generated bodies, chosen deterministically by the
+ *       hash of the method signature
+ *   <li>off: no validation or verification at all
+ * </ul>
+ */
+public final class ValidationPolicy {
+
+  /** The validation levels, from the most strict to the least strict. */
+  public enum Level {
+    FULL,
+    GENERATED,
+    SAMPLED,
+    OFF
+  }
+
+  public static final String DEFAULT = "full";
+  public static final int DEFAULT_SAMPLE_PERCENTAGE = 10;
+
+  private final Level level;
+  private final int samplePercentage;
+
+  /**
+   * Create a new validation policy.
+   *
+   * @param level
+   * @param samplePercentage
+   */
+  private ValidationPolicy(Level level, int samplePercentage) {
+    this.level = level;
+    this.samplePercentage = samplePercentage;
+  }
+
+  /**
+   * Parse a validation policy from its command-line representation.
+   *
+   * @param value
+   * @return
+   */
+  public static ValidationPolicy parse(String value) {
+    String[] parts = value.trim().toLowerCase().split(":", 2);
+
+    switch (parts[0]) {
+      case "full":
+        return new ValidationPolicy(Level.FULL, 100);
+      case "generated":
+        return new ValidationPolicy(Level.GENERATED, 100);
+      case "sampled":
+        int percentage =
+            parts.length > 1 ? Integer.parseInt(parts[1].trim()) : DEFAULT_SAMPLE_PERCENTAGE;
+        if (percentage < 0 || percentage > 100) {
+          throw new IllegalArgumentException(
+              "The sample percentage should be between 0 and 100, but was " + percentage);
+        }
+        return new ValidationPolicy(Level.SAMPLED, percentage);
+      case "off":
+        return new ValidationPolicy(Level.OFF, 0);
+      default:
+        throw new IllegalArgumentException("Unknown validation policy: " + value);
+    }
+  }
+
+  /**
+   * Get the validation level.
+   *
+   * @return
+   */
+  public Level getLevel() {
+    return level;
+  }
+
+  /**
+   * Should Soot validate every body it creates (i.e., Options.v().set_validate(true))?
+   *
+   * @return
+   */
+  public boolean isSceneWide() {
+    return level == Level.FULL;
+  }
+
+  /**
+   * Should the generated JAR files be verified using BCEL/ASM?
+   *
+   * @return
+   */
+  public boolean isVerifyJar() {
+    return level != Level.OFF;
+  }
+
+  /**
+   * Should the generated body of the method with the given signature be validated? Sampling is
+   * deterministic, so the same methods are sampled in every run.
+   *
+   * @param methodSignature
+   * @return
+   */
+  public boolean shouldValidate(String methodSignature) {
+    switch (level) {
+      case FULL:
+      case GENERATED:
+        return true;
+      case SAMPLED:
+        return Math.floorMod(methodSignature.hashCode(), 100) < samplePercentage;
+      default:
+        return false;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return level == Level.SAMPLED ? "sampled:" + samplePercentage : level.name().toLowerCase();
+  }
+}
@@ -155,7 +155,12 @@ public class AverroesJimpleBody {
 
   /** Insert an invocation to the doItAll Library method. */
   private void insertInvocationStmtToDoItAll() {
-    insertVirtualInvokeStatement(getInstance(), CodeGenerator.v().getAverroesAbstractDoItAll());
+    if (isCompact()) {
+      insertCompactInvokeStatement(
+          CodeGenerator.v().getAverroesAbstractCallDoItAll(), Collections.emptyList());
+    } else {
+      insertVirtualInvokeStatement(getInstance(), CodeGenerator.v().getAverroesAbstractDoItAll());
+    }
   }
 
   /** Insert the appropriate return statement at the end of the underlying Jimple body. */
@@ -253,7 +258,12 @@ public class AverroesJimpleBody {
   public void storeLibraryPointsToField(Value from) {
     // storeStaticField(CodeGenerator.v().getAverroesLibraryPointsTo(),
     // from);
-    storeInstanceField(getInstance(), CodeGenerator.v().getAverroesLibraryPointsTo(), from);
+    if (isCompact()) {
+      insertCompactInvokeStatement(
+          CodeGenerator.v().getAverroesAbstractStore(), Collections.singletonList(from));
+    } else {
+      storeInstanceField(getInstance(), CodeGenerator.v().getAverroesLibraryPointsTo(), from);
+    }
   }
 
   /**
@@ -322,6 +332,20 @@ public class AverroesJimpleBody {
     return body.getMethod().getName().equals(SootMethod.constructorName);
   }
 
+  /**
+   * Check if this method body should call the static helpers of the Averroes abstract library class
+   * instead of accessing the LPT and calling doItAll directly. The bodies of the Averroes library
+   * classes themselves are never compact.
+   *
+   * @return
+   */
+  public boolean isCompact() {
+    String cls = body.getMethod().getDeclaringClass().getName();
+    return AverroesOptions.isCompactBodies()
+        && !cls.equals(Names.AVERROES_LIBRARY_CLASS)
+        && !cls.equals(Names.AVERROES_ABSTRACT_LIBRARY_CLASS);
+  }
+
   /**
    * Check if this method body is for a static initializer.
    *
@@ -402,7 +426,17 @@ public class AverroesJimpleBody {
    * @return
    */
   public Local getLpt() {
-    if (!hasLpt()) {
+    if (!hasLpt() && isCompact()) {
+      lpt = newLocal(Hierarchy.v().getJavaLangObject().getType());
+      body.getUnits()
+          .add(
+              Jimple.v()
+                  .newAssignStmt(
+                      lpt,
+                      Jimple.v()
+                          .newStaticInvokeExpr(
+                              CodeGenerator.v().getAverroesAbstractLoad().makeRef())));
+    } else if (!hasLpt()) {
       lpt = loadField(getInstance(), CodeGenerator.v().getAverroesLibraryPointsTo(), true);
     }
 
@@ -722,9 +756,12 @@ public class AverroesJimpleBody {
     return tmp;
   }
 
-  /** Validate the underlying Jimple body. */
+  /**
+   * Submit the underlying Jimple body for validation. See {@link BodyValidator} for when it is
+   * actually validated.
+   */
   public void validate() {
-    body.validate();
+    BodyValidator.submit(body);
   }
 
   /**
@@ -739,6 +776,18 @@ public class AverroesJimpleBody {
         Jimple.v().newInvokeStmt(Jimple.v().newVirtualInvokeExpr(base, method.makeRef(), args)));
   }
 
+  /**
+   * Insert a static invoke statement to one of the helpers used by compact method bodies. These
+   * invocations are never guarded, because the helpers guard their own statements.
+   *
+   * @param helper
+   * @param args
+   */
+  private void insertCompactInvokeStatement(SootMethod helper, List<Value> args) {
+    body.getUnits()
+        .add(Jimple.v().newInvokeStmt(Jimple.v().newStaticInvokeExpr(helper.makeRef(), args)));
+  }
+
   /**
    * Insert a static invoke statement.
    *
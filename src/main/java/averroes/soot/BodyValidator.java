@@ -0,0 +1,80 @@
+package averroes.soot;
+
+import averroes.AverroesContext;
+import averroes.options.ValidationPolicy;
+import averroes.util.Metrics;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import soot.Body;
+
+/**
+ * Collects the Jimple bodies that Averroes generates, and validates them according to the current
+ * {@link ValidationPolicy} once all of them have been generated, instead of inline with code
+ * generation. Each {@link AverroesContext} has its own validator, which the static methods look up.
+ *
+ * <p>The bodies are validated one at a time. The Soot validators resolve field and method
+ * references (which may add phantom members to the scene) and query the class hierarchy, whose
+ * subclass lists are computed and cached on first use. These accesses are spread over all the
+ * validators, so they cannot be serialized without serializing validation as a whole.
+ */
+public class BodyValidator {
+
+  private volatile ValidationPolicy policy = ValidationPolicy.parse(ValidationPolicy.DEFAULT);
+  private List<Body> bodies = new ArrayList<Body>();
+
+  /**
+   * Set the validation policy, and discard any bodies that are pending validation.
+   *
+   * @param validationPolicy
+   */
+  public static void setPolicy(ValidationPolicy validationPolicy) {
+    BodyValidator validator = AverroesContext.v().getBodyValidator();
+    synchronized (validator) {
+      validator.policy = validationPolicy;
+      validator.bodies = new ArrayList<Body>();
+    }
+  }
+
+  /**
+   * Get the current validation policy.
+   *
+   * @return
+   */
+  public static ValidationPolicy getPolicy() {
+    return AverroesContext.v().getBodyValidator().policy;
+  }
+
+  /**
+   * Submit a generated body for validation, if the current policy selects it.
+   *
+   * @param body
+   */
+  public static void submit(Body body) {
+    BodyValidator validator = AverroesContext.v().getBodyValidator();
+    synchronized (validator) {
+      if (validator.policy.shouldValidate(body.getMethod().getSignature())) {
+        validator.bodies.add(body);
+      }
+    }
+  }
+
+  /**
+   * Validate all the submitted bodies, in method signature order. The exception of the first invalid
+   * body is rethrown, so that failures are reported deterministically.
+   */
+  public static void validateAll() {
+    BodyValidator validator = AverroesContext.v().getBodyValidator();
+    List<Body> toValidate;
+    synchronized (validator) {
+      toValidate = validator.bodies;
+      validator.bodies = new ArrayList<Body>();
+    }
+
+    toValidate.sort(Comparator.comparing(body -> body.getMethod().getSignature()));
+    for (Body body : toValidate) {
+      body.validate();
+      Metrics.add("validatedBodies", 1);
+    }
+  }
+}
@@ -9,15 +9,20 @@
  */
 package averroes.soot;
 
+import averroes.AverroesContext;
 import averroes.options.AverroesOptions;
 import averroes.tamiflex.TamiFlexFactsDatabase;
 import averroes.util.io.Paths;
+import averroes.util.jfr.ClassGenerationEvent;
+import averroes.util.jfr.ClassWriteEvent;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -45,6 +50,8 @@ import soot.jimple.IntConstant;
 import soot.jimple.InvokeExpr;
 import soot.jimple.Jimple;
 import soot.jimple.JimpleBody;
+import soot.jimple.NopStmt;
+import soot.jimple.Stmt;
 import soot.jimple.toolkits.scalar.NopEliminator;
 import soot.options.Options;
 import soot.util.JasminOutputStream;
@@ -57,36 +64,39 @@ import soot.util.JasminOutputStream;
  */
 public class CodeGenerator {
 
-  private static CodeGenerator instance = new CodeGenerator();
-
   private HashMap<SootClass, SootClass> libraryInterfaceToConcreteImplementationClass;
   private HashMap<SootClass, SootClass> abstractLibraryClassToConcreteImplementationClass;
 
   private int generatedMethodCount;
   private int generatedClassCount;
+  private int generatedStatementCount;
 
   private SootClass averroesLibraryClass = null;
   private SootClass averroesAbstractLibraryClass = null;
   private AverroesJimpleBody doItAllBody = null;
 
-  /** Create a new code generator with the given class Cleanup.v(). */
-  private CodeGenerator() {
+  /**
+   * Create a new code generator for the hierarchy of the current {@link AverroesContext}. Use {@link
+   * #v()} to get the code generator of the current context.
+   */
+  public CodeGenerator() {
     libraryInterfaceToConcreteImplementationClass = new HashMap<SootClass, SootClass>();
     abstractLibraryClassToConcreteImplementationClass = new HashMap<SootClass, SootClass>();
 
     generatedMethodCount = 0;
     generatedClassCount = 0;
+    generatedStatementCount = 0;
 
     initialize();
   }
 
   /**
-   * Get the CodeGenerator singleton.
+   * Get the code generator of the current {@link AverroesContext}.
    *
    * @return
    */
   public static CodeGenerator v() {
-    return instance;
+    return AverroesContext.v().getCodeGenerator();
   }
 
   /**
@@ -96,6 +106,8 @@ public class CodeGenerator {
    * @throws IOException
    */
   public static void writeLibraryClassFile(SootClass cls) throws IOException {
+    ClassWriteEvent event = new ClassWriteEvent();
+    event.begin();
     Options.v().set_output_dir(Paths.libraryClassesOutputDirectory().getPath());
 
     File file = new File(SourceLocator.v().getFileNameFor(cls, Options.output_format_class));
@@ -112,6 +124,7 @@ public class CodeGenerator {
 
     writerOut.flush();
     streamOut.close();
+    event.commit(cls.getName());
   }
 
   /**
@@ -132,6 +145,15 @@ public class CodeGenerator {
     return generatedClassCount;
   }
 
+  /**
+   * Get the number of statements in the generated method bodies.
+   *
+   * @return
+   */
+  public int getGeneratedStatementCount() {
+    return generatedStatementCount;
+  }
+
   /**
    * Get the concrete implementation class for the given library interface.
    *
@@ -170,6 +192,36 @@ public class CodeGenerator {
         Hierarchy.signatureToSubsignature(Names.AVERROES_ABSTRACT_DO_IT_ALL_METHOD_SIGNATURE));
   }
 
+  /**
+   * Get the static helper method that stores a value into the LPT.
+   *
+   * @return
+   */
+  public SootMethod getAverroesAbstractStore() {
+    return averroesAbstractLibraryClass.getMethod(
+        Hierarchy.signatureToSubsignature(Names.AVERROES_ABSTRACT_STORE_METHOD_SIGNATURE));
+  }
+
+  /**
+   * Get the static helper method that loads the LPT.
+   *
+   * @return
+   */
+  public SootMethod getAverroesAbstractLoad() {
+    return averroesAbstractLibraryClass.getMethod(
+        Hierarchy.signatureToSubsignature(Names.AVERROES_ABSTRACT_LOAD_METHOD_SIGNATURE));
+  }
+
+  /**
+   * Get the static helper method that calls the doItAll method.
+   *
+   * @return
+   */
+  public SootMethod getAverroesAbstractCallDoItAll() {
+    return averroesAbstractLibraryClass.getMethod(
+        Hierarchy.signatureToSubsignature(Names.AVERROES_ABSTRACT_CALL_DO_IT_ALL_METHOD_SIGNATURE));
+  }
+
   /**
    * Get the libraryPointsTo field.
    *
@@ -211,11 +263,10 @@ public class CodeGenerator {
   }
 
   /**
-   * Create the Averroes library class where all the fun takes place ;)
-   *
-   * @throws IOException
+   * Create the Averroes library class where all the fun takes place ;) The class files are written
+   * later by {@link #writeLibraryClassFiles()}, once the generated bodies have been validated.
    */
-  public void createAverroesLibraryClass() throws IOException {
+  public void createAverroesLibraryClass() {
     // Create the abstract library class (specifically to be compatible with
     // WALA/Java).
     // This class represents the interface of the AverroesLibraryClass and
@@ -235,8 +286,10 @@ public class CodeGenerator {
       // Create the abstract doItAll method
       createAverroesAbstractLibraryDoItAll();
 
-      // Write the class file to disk
-      writeLibraryClassFile(averroesAbstractLibraryClass);
+      // Create the static helpers that compact method bodies call
+      if (AverroesOptions.isCompactBodies()) {
+        createAverroesAbstractLibraryHelpers();
+      }
     }
 
     // Now create the AverroesLibraryClass which basically implements the
@@ -257,26 +310,36 @@ public class CodeGenerator {
 
       // Create the dotItAll method
       createAverroesLibraryDoItAll();
-
-      // Write the class file to disk
-      writeLibraryClassFile(averroesLibraryClass);
     }
   }
 
   /**
-   * Create the bodies of library methods.
-   *
-   * @throws IOException
+   * Create the bodies of library methods. The class files are written later by {@link
+   * #writeLibraryClassFiles()}, once the generated bodies have been validated.
    */
-  public void createLibraryMethodBodies() throws IOException {
+  public void createLibraryMethodBodies() {
     for (SootClass libraryClass : getLibraryClasses()) {
+      ClassGenerationEvent event = new ClassGenerationEvent();
+      event.begin();
       for (SootMethod method : libraryClass.getMethods()) {
         // Create our Jimple body for concrete methods only
         if (method.isConcrete()) {
           createJimpleBody(method);
         }
       }
+      event.commit(libraryClass.getName());
+    }
+  }
 
+  /**
+   * Write the class files of the Averroes library classes and of all the library classes.
+   *
+   * @throws IOException
+   */
+  public void writeLibraryClassFiles() throws IOException {
+    writeLibraryClassFile(averroesAbstractLibraryClass);
+    writeLibraryClassFile(averroesLibraryClass);
+    for (SootClass libraryClass : getLibraryClasses()) {
       writeLibraryClassFile(libraryClass);
     }
   }
@@ -316,6 +379,7 @@ public class CodeGenerator {
 
     // Eliminate Nops
     NopEliminator.v().transform(body.getJimpleBody());
+    generatedStatementCount += body.getJimpleBody().getUnits().size();
 
     // Validate the Jimple body
     body.validate();
@@ -348,12 +412,109 @@ public class CodeGenerator {
 
   /** Implement any library interface that is not implemented in the library. */
   private void implementLibraryInterfacesNotImplementedInLibrary() {
+    if (AverroesOptions.isPackGeneratedClasses()) {
+      packLibraryInterfacesNotImplementedInLibrary();
+      return;
+    }
+
     for (SootClass iface : Hierarchy.v().getLibraryInterfacesNotImplementedInLibrary()) {
       SootClass cls = createLibraryClassImplementsInterface(iface);
       libraryInterfaceToConcreteImplementationClass.put(iface, cls);
     }
   }
 
+  /**
+   * Implement the library interfaces that are not implemented in the library using as few
+   * generated classes as possible. Interfaces share a generated class only if they belong to the
+   * same package (so that package-private interfaces remain accessible) and none of their methods
+   * clash with the methods already declared in that class.
+   */
+  private void packLibraryInterfacesNotImplementedInLibrary() {
+    List<SootClass> interfaces =
+        new ArrayList<SootClass>(Hierarchy.v().getLibraryInterfacesNotImplementedInLibrary());
+    Collections.sort(interfaces, (a, b) -> a.getName().compareTo(b.getName()));
+    Map<String, List<SootClass>> packageToGeneratedClasses = new HashMap<String, List<SootClass>>();
+
+    for (SootClass iface : interfaces) {
+      List<SootClass> generatedClasses =
+          packageToGeneratedClasses.computeIfAbsent(
+              iface.getPackageName(), p -> new ArrayList<SootClass>());
+      Collection<SootMethod> methods = getSuperinterfacesMethods(iface);
+      SootClass cls =
+          generatedClasses.stream().filter(c -> canImplement(c, methods)).findFirst().orElse(null);
+
+      if (cls == null) {
+        cls = createLibraryClassImplementsInterface(iface);
+        generatedClasses.add(cls);
+      } else {
+        addInterfaceToGeneratedClass(cls, iface, methods);
+      }
+
+      libraryInterfaceToConcreteImplementationClass.put(iface, cls);
+    }
+  }
+
+  /**
+   * Check if the given generated class can implement the given interface methods without any
+   * clashes. A clash happens if the generated class already declares a method with the same name
+   * and parameter types, but with a different return type or a different static modifier.
+   *
+   * @param generatedClass
+   * @param methods
+   * @return
+   */
+  private boolean canImplement(SootClass generatedClass, Collection<SootMethod> methods) {
+    for (SootMethod method : methods) {
+      if (generatedClass.declaresMethod(method.getName(), method.getParameterTypes())) {
+        SootMethod existing = generatedClass.getMethodUnsafe(method.getSubSignature());
+        if (existing == null || existing.isStatic() != method.isStatic()) {
+          return false;
+        }
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Make the given generated class implement an additional interface. Methods that the generated
+   * class already declares are shared between all the interfaces it implements.
+   *
+   * @param generatedClass
+   * @param iface
+   * @param methods
+   */
+  private void addInterfaceToGeneratedClass(
+      SootClass generatedClass, SootClass iface, Collection<SootMethod> methods) {
+    generatedClass.addInterface(iface);
+
+    for (SootMethod method : methods) {
+      if (!generatedClass.declaresMethod(method.getSubSignature())) {
+        addMethodToGeneratedClass(generatedClass, getConcreteMethod(method));
+      }
+    }
+  }
+
+  /**
+   * Write a report that maps each library interface and abstract library class that is not
+   * implemented in the library to the class that Averroes generated for it. This is only useful
+   * when the generated classes are packed (see {@link AverroesOptions#isPackGeneratedClasses()}).
+   *
+   * @throws IOException
+   */
+  public void writeGeneratedClassesMapping() throws IOException {
+    List<String> lines = new ArrayList<String>();
+    libraryInterfaceToConcreteImplementationClass.forEach(
+        (iface, cls) -> lines.add(iface.getName() + " -> " + cls.getName()));
+    abstractLibraryClassToConcreteImplementationClass.forEach(
+        (abstractClass, cls) -> lines.add(abstractClass.getName() + " -> " + cls.getName()));
+    Collections.sort(lines);
+
+    File file = Paths.generatedClassesMappingFile();
+    file.getParentFile().mkdirs();
+    Files.write(file.toPath(), lines);
+  }
+
   /**
    * Create a concrete library subclass for any abstract library class that is not implemented in
    * the library.
@@ -390,7 +551,7 @@ public class CodeGenerator {
     body.getUnits().addLast(Jimple.v().newReturnVoidStmt());
 
     // Finally validate the Jimple body
-    body.validate();
+    BodyValidator.submit(body);
   }
 
   /**
@@ -441,6 +602,130 @@ public class CodeGenerator {
     averroesAbstractLibraryClass.addMethod(doItAll);
   }
 
+  /**
+   * Add the static helper methods to the AverroesAbstractLibrary class. In compact mode, the
+   * placeholder library methods call these helpers instead of loading the instance field, storing
+   * to and loading from the LPT, and calling doItAll themselves. The helpers access the same fields
+   * and call the same doItAll method, so the resulting call graph and points-to sets do not change.
+   */
+  private void createAverroesAbstractLibraryHelpers() {
+    Type objectType = Hierarchy.v().getJavaLangObject().getType();
+
+    // static void store(Object o) { instance.libraryPointsTo = o; }
+    JimpleBody store =
+        createAverroesAbstractLibraryHelper(
+            Names.AVERROES_STORE_METHOD_NAME, Collections.singletonList(objectType), VoidType.v());
+    insertAverroesAbstractLibraryHelperStmt(
+        store,
+        Jimple.v()
+            .newAssignStmt(
+                Jimple.v()
+                    .newInstanceFieldRef(
+                        loadAverroesInstance(store), getAverroesLibraryPointsTo().makeRef()),
+                store.getParameterLocal(0)));
+    store.getUnits().add(Jimple.v().newReturnVoidStmt());
+    NopEliminator.v().transform(store);
+    BodyValidator.submit(store);
+
+    // static Object load() { return instance.libraryPointsTo; }
+    JimpleBody load =
+        createAverroesAbstractLibraryHelper(
+            Names.AVERROES_LOAD_METHOD_NAME, Collections.emptyList(), objectType);
+    Local lpt = Jimple.v().newLocal(Names.LIBRARY_POINTS_TO, objectType);
+    load.getLocals().add(lpt);
+    load.getUnits()
+        .add(
+            Jimple.v()
+                .newAssignStmt(
+                    lpt,
+                    Jimple.v()
+                        .newInstanceFieldRef(
+                            loadAverroesInstance(load), getAverroesLibraryPointsTo().makeRef())));
+    load.getUnits().add(Jimple.v().newReturnStmt(lpt));
+    BodyValidator.submit(load);
+
+    // static void callDoItAll() { instance.doItAll(); }
+    JimpleBody callDoItAll =
+        createAverroesAbstractLibraryHelper(
+            Names.AVERROES_CALL_DO_IT_ALL_METHOD_NAME, Collections.emptyList(), VoidType.v());
+    insertAverroesAbstractLibraryHelperStmt(
+        callDoItAll,
+        Jimple.v()
+            .newInvokeStmt(
+                Jimple.v()
+                    .newVirtualInvokeExpr(
+                        loadAverroesInstance(callDoItAll), getAverroesAbstractDoItAll().makeRef())));
+    callDoItAll.getUnits().add(Jimple.v().newReturnVoidStmt());
+    NopEliminator.v().transform(callDoItAll);
+    BodyValidator.submit(callDoItAll);
+  }
+
+  /**
+   * Add a public static helper method with the given signature to the AverroesAbstractLibrary
+   * class, and return its (initially empty) Jimple body.
+   *
+   * @param name
+   * @param parameterTypes
+   * @param returnType
+   * @return
+   */
+  private JimpleBody createAverroesAbstractLibraryHelper(
+      String name, List<Type> parameterTypes, Type returnType) {
+    SootMethod helper =
+        new SootMethod(name, parameterTypes, returnType, Modifier.PUBLIC | Modifier.STATIC);
+    averroesAbstractLibraryClass.addMethod(helper);
+
+    JimpleBody body = Jimple.v().newBody(helper);
+    helper.setActiveBody(body);
+    body.insertIdentityStmts();
+    return body;
+  }
+
+  /**
+   * Load the instance field into a new local variable in the given helper body.
+   *
+   * @param body
+   * @return
+   */
+  private Local loadAverroesInstance(JimpleBody body) {
+    Local instance = Jimple.v().newLocal(Names.INSTANCE, averroesAbstractLibraryClass.getType());
+    body.getLocals().add(instance);
+    body.getUnits()
+        .add(
+            Jimple.v()
+                .newAssignStmt(
+                    instance, Jimple.v().newStaticFieldRef(getAverroesInstanceField().makeRef())));
+    return instance;
+  }
+
+  /**
+   * Insert a statement into the given helper body. The statement is guarded the same way {@link
+   * AverroesJimpleBody} guards statements if guards are enabled, so that moving it out of the
+   * placeholder library methods does not change its semantics.
+   *
+   * @param body
+   * @param stmt
+   */
+  private void insertAverroesAbstractLibraryHelperStmt(JimpleBody body, Stmt stmt) {
+    if (AverroesOptions.isEnableGuards()) {
+      Local guard = Jimple.v().newLocal(Names.GUARD_FIELD_NAME, BooleanType.v());
+      body.getLocals().add(guard);
+      body.getUnits()
+          .add(
+              Jimple.v()
+                  .newAssignStmt(
+                      guard, Jimple.v().newStaticFieldRef(getAverroesGuardField().makeRef())));
+
+      NopStmt nop = Jimple.v().newNopStmt();
+      body.getUnits()
+          .add(Jimple.v().newIfStmt(Jimple.v().newEqExpr(guard, IntConstant.v(0)), nop));
+      body.getUnits().add(stmt);
+      body.getUnits().add(nop);
+    } else {
+      body.getUnits().add(stmt);
+    }
+  }
+
   /** Create the static initializer for the Averroes library class. */
   private void createAverroesLibraryInit() {
     SootMethod init = Hierarchy.getNewDefaultConstructor();
@@ -468,7 +753,7 @@ public class CodeGenerator {
     NopEliminator.v().transform(body);
 
     // Finally validate the Jimple body
-    body.validate();
+    BodyValidator.submit(body);
   }
 
   /** Create the default constructor for the Averroes library class. */
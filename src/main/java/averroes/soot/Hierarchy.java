@@ -9,6 +9,7 @@
  */
 package averroes.soot;
 
+import averroes.AverroesContext;
 import averroes.options.AverroesOptions;
 import java.util.Arrays;
 import java.util.Collections;
@@ -38,8 +39,6 @@ import soot.tagkit.Tag;
  */
 public class Hierarchy {
 
-  private static Hierarchy instance = new Hierarchy();
-
   private AverroesApplicationConstantPool applicationConstantPool;
 
   private SootBasicClassesDatabase basicClassesDatabase;
@@ -103,9 +102,10 @@ public class Hierarchy {
   /**
    * Initialize the hierarchy with all the classes resolved at the level {@link
    * ResolvingLevel.#SIGNATURES} from the Soot scene. Averroes is only interested in those classes
-   * so it doesn't make sense to include any more classes.
+   * so it doesn't make sense to include any more classes. Use {@link #v()} to get the hierarchy of
+   * the current {@link AverroesContext}.
    */
-  private Hierarchy() {
+  public Hierarchy() {
     classToSuperclasses = new HashMap<SootClass, LinkedHashSet<SootClass>>();
     classToDirectSuperclass = new HashMap<SootClass, SootClass>();
     classToSubclasses = new HashMap<SootClass, LinkedHashSet<SootClass>>();
@@ -168,17 +168,17 @@ public class Hierarchy {
   }
 
   /**
-   * Get the Cleanup singleton.
+   * Get the hierarchy of the current {@link AverroesContext}.
    *
    * @return
    */
   public static Hierarchy v() {
-    return instance;
+    return AverroesContext.v().getHierarchy();
   }
 
   /** Reset the hierarchy. */
   public static void reset() {
-    instance = new Hierarchy();
+    AverroesContext.v().resetHierarchy();
   }
 
   /**
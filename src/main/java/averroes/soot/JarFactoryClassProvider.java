@@ -9,6 +9,7 @@
  */
 package averroes.soot;
 
+import averroes.options.AverroesOptions;
 import averroes.util.io.Paths;
 import averroes.util.io.Resource;
 import averroes.util.io.ZipEntryResource;
@@ -89,6 +90,9 @@ public class JarFactoryClassProvider implements ClassProvider {
     System.out.println("Preparing Averroes ...");
     addApplicationArchive();
     addLibraryArchive();
+    if (JreClassTable.isEnabled()) {
+      addLibraryClasses();
+    }
   }
 
   /**
@@ -208,6 +212,24 @@ public class JarFactoryClassProvider implements ClassProvider {
     return addArchive(Paths.organizedLibraryJarFile(), false);
   }
 
+  /**
+   * Add the classes of the shared library class table that are not shadowed by a class added
+   * earlier. Their names are already known, so their class files are not parsed.
+   *
+   * @throws IOException
+   */
+  private void addLibraryClasses() throws IOException {
+    JreClassTable.forCurrentOptions()
+        .getClasses()
+        .forEach(
+            (className, resource) -> {
+              if (!classes.containsKey(className)) {
+                libraryClassNames.add(className);
+                classes.put(className, resource);
+              }
+            });
+  }
+
   /**
    * Find the class for the given className. This method is invoked by {@link soot.SourceLocator}.
    */
@@ -0,0 +1,248 @@
+package averroes.soot;
+
+import averroes.AverroesContext;
+import averroes.options.AverroesOptions;
+import averroes.util.Metrics;
+import averroes.util.io.ZipEntryResource;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.filefilter.FileFilterUtils;
+import org.apache.commons.io.filefilter.IOFileFilter;
+
+/**
+ * The table of the classes in the library archives of a run, i.e., the library JAR files and the
+ * JRE archives (rt.jar, jsse.jar, jce.jar). By default, every run copies the library classes into
+ * the organized library JAR file, and then reads them back from there. When the table is enabled
+ * (e.g., by the {@link averroes.Daemon} or the {@link averroes.BatchMain}), each library archive is
+ * instead indexed once per process, kept open, and shared (read-only) by all the runs that use it.
+ * Each run then adds the library classes that it does not shadow straight from the table.
+ *
+ * <p>Only the index of the class files in each archive is shared. Each run still parses the library
+ * classes that it uses into its own Soot scene, so the saving is in organizing the JAR files (i.e.,
+ * not copying the library classes into the organized library JAR file and reading them back).
+ *
+ * <p>A table holds the archives it is made of until it is closed. An archive is indexed again if it
+ * changes, and its old index is closed once no table holds it anymore. All the archives are closed
+ * when sharing is disabled.
+ */
+public class JreClassTable implements AutoCloseable {
+
+  private static volatile boolean enabled = false;
+  private static Map<File, Archive> archives = new HashMap<File, Archive>();
+
+  // The outdated archives that some table still holds
+  private static Set<Archive> retired = new HashSet<Archive>();
+
+  private List<Archive> parts;
+  private Map<String, ZipEntryResource> classes;
+
+  /**
+   * Merge the classes of the given archives. The first archive that has a class wins.
+   *
+   * @param parts
+   */
+  private JreClassTable(List<Archive> parts) {
+    this.parts = parts;
+    classes = new LinkedHashMap<String, ZipEntryResource>();
+    parts.forEach(p -> p.classes.forEach(classes::putIfAbsent));
+  }
+
+  /**
+   * Enable or disable sharing the library archives across runs. Disabling it also closes all the
+   * archives.
+   *
+   * @param value
+   */
+  public static synchronized void setEnabled(boolean value) {
+    enabled = value;
+    if (!value) {
+      archives.values().forEach(Archive::close);
+      retired.forEach(Archive::close);
+      archives = new HashMap<File, Archive>();
+      retired = new HashSet<Archive>();
+    }
+  }
+
+  /**
+   * Is sharing the library archives across runs enabled?
+   *
+   * @return
+   */
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Get the table of the library JAR files and the JRE archives of the current options. The table
+   * belongs to the current {@link AverroesContext}, which closes it when it is released or gets new
+   * options, so all the steps of a run see the same archives.
+   *
+   * @return
+   * @throws IOException
+   */
+  public static JreClassTable forCurrentOptions() throws IOException {
+    AverroesContext context = AverroesContext.v();
+    JreClassTable table = context.getLibraryClassTable();
+    if (table == null) {
+      List<File> files = new ArrayList<File>();
+      AverroesOptions.getLibraryJarFiles().stream()
+          .filter(lib -> lib.trim().length() > 0)
+          .forEach(lib -> files.add(new File(lib)));
+      files.addAll(findJreArchives(AverroesOptions.getJreHome()));
+      table = get(files);
+      context.setLibraryClassTable(table);
+    }
+    return table;
+  }
+
+  /**
+   * Get the table of the given archives, indexing the ones that have not been indexed yet or that
+   * changed since. The table holds the archives until it is closed.
+   *
+   * @param files
+   * @return
+   * @throws IOException
+   */
+  public static JreClassTable get(Collection<File> files) throws IOException {
+    List<Archive> parts = new ArrayList<Archive>();
+    try {
+      for (File file : files) {
+        parts.add(archive(file));
+      }
+    } catch (IOException e) {
+      parts.forEach(JreClassTable::release);
+      throw e;
+    }
+    return new JreClassTable(parts);
+  }
+
+  /**
+   * Find the JRE archives (recognized JAR files are: rt.jar, jsse.jar, jce.jar) in the given
+   * directory.
+   *
+   * @param jreDirectory
+   * @return
+   */
+  public static Collection<File> findJreArchives(String jreDirectory) {
+    IOFileFilter nameFilter =
+        FileFilterUtils.or(
+            FileFilterUtils.nameFileFilter("rt.jar"),
+            FileFilterUtils.nameFileFilter("jsse.jar"),
+            FileFilterUtils.nameFileFilter("jce.jar"));
+
+    return FileUtils.listFiles(
+        new File(jreDirectory), nameFilter, FileFilterUtils.trueFileFilter());
+  }
+
+  /**
+   * Get the classes in this table, mapped to their class files, in the order of the archives.
+   *
+   * @return
+   */
+  public Map<String, ZipEntryResource> getClasses() {
+    return Collections.unmodifiableMap(classes);
+  }
+
+  /** Release the archives of this table. The class files in it cannot be read afterwards. */
+  @Override
+  public synchronized void close() {
+    if (parts != null) {
+      parts.forEach(JreClassTable::release);
+      parts = null;
+    }
+  }
+
+  /**
+   * Get the index of the given archive, and hold it. An outdated index is replaced, and closed once
+   * the tables that hold it are closed.
+   *
+   * @param file
+   * @return
+   * @throws IOException
+   */
+  private static synchronized Archive archive(File file) throws IOException {
+    File key = file.getCanonicalFile();
+    Archive archive = archives.get(key);
+
+    if (archive != null && archive.stamp == stamp(key)) {
+      Metrics.cacheHit("libraryArchives");
+      archive.users++;
+      return archive;
+    }
+
+    Metrics.cacheMiss("libraryArchives");
+    Archive outdated = archive;
+    archive = new Archive(key);
+    archive.users++;
+    archives.put(key, archive);
+    if (outdated != null) {
+      if (outdated.users == 0) {
+        outdated.close();
+      } else {
+        retired.add(outdated);
+      }
+    }
+    return archive;
+  }
+
+  /**
+   * Stop holding the given archive, and close it if it is outdated and no other table holds it.
+   *
+   * @param archive
+   */
+  private static synchronized void release(Archive archive) {
+    if (--archive.users == 0 && retired.remove(archive)) {
+      archive.close();
+    }
+  }
+
+  private static long stamp(File file) {
+    return file.lastModified() * 31 + file.length();
+  }
+
+  /**
+   * The index of the classes in one library archive.
+   */
+  private static class Archive {
+    private ZipFile zip;
+    private long stamp;
+    private Map<String, ZipEntryResource> classes;
+    private int users = 0;
+
+    private Archive(File file) throws IOException {
+      zip = new ZipFile(file);
+      stamp = stamp(file);
+      classes = new LinkedHashMap<String, ZipEntryResource>();
+
+      Enumeration<? extends ZipEntry> entries = zip.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry entry = entries.nextElement();
+        if (entry.getName().endsWith(".class")) {
+          String className = entry.getName().replace('/', '.').replace(".class", "");
+          classes.putIfAbsent(className, new ZipEntryResource(zip, entry));
+        }
+      }
+    }
+
+    private void close() {
+      try {
+        zip.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+}
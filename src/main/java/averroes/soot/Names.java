@@ -18,6 +18,7 @@ public class Names {
   public static final String AVERROES_ABSTRACT_LIBRARY_CLASS = "averroes.AbstractLibrary";
   public static final String RTA_CLASS = "rta.RTA";
   public static final String XTA_CLASS = "xta.XTA";
+  public static final String CFA_CLASS = "cfa.CFA";
 
   // Classes
   public static final String JAVA_LANG_OBJECT = "java.lang.Object";
@@ -61,6 +62,8 @@ public class Names {
       "<" + RTA_CLASS + ": boolean " + GUARD_FIELD_NAME + ">";
   public static final String XTA_GUARD_FIELD_SIGNATURE =
       "<" + XTA_CLASS + ": boolean " + GUARD_FIELD_NAME + ">";
+  public static final String CFA_BOOLEAN_FIELD_SIGNATURE =
+      "<" + CFA_CLASS + ": boolean " + BOOLEAN_FIELD_NAME + ">";
 
   // Methods
   public static final String AVERROES_DO_IT_ALL_METHOD_NAME = "doItAll";
@@ -71,6 +74,31 @@ public class Names {
       "<" + AVERROES_LIBRARY_CLASS + ": void " + AVERROES_DO_IT_ALL_METHOD_NAME + "()>";
   public static final String AVERROES_LIBRARY_CLINIT_METHOD_SIGNATURE =
       "<" + AVERROES_LIBRARY_CLASS + ": void " + SootMethod.staticInitializerName + "()>";
+  public static final String CFA_GUARD_METHOD_SIGNATURE =
+      "<" + CFA_CLASS + ": boolean " + GUARD_FIELD_NAME + "()>";
+
+  // Helper methods used by compact method bodies
+  public static final String AVERROES_STORE_METHOD_NAME = "store";
+  public static final String AVERROES_LOAD_METHOD_NAME = "load";
+  public static final String AVERROES_CALL_DO_IT_ALL_METHOD_NAME = "callDoItAll";
+  public static final String AVERROES_ABSTRACT_STORE_METHOD_SIGNATURE =
+      "<"
+          + AVERROES_ABSTRACT_LIBRARY_CLASS
+          + ": void "
+          + AVERROES_STORE_METHOD_NAME
+          + "(java.lang.Object)>";
+  public static final String AVERROES_ABSTRACT_LOAD_METHOD_SIGNATURE =
+      "<"
+          + AVERROES_ABSTRACT_LIBRARY_CLASS
+          + ": java.lang.Object "
+          + AVERROES_LOAD_METHOD_NAME
+          + "()>";
+  public static final String AVERROES_ABSTRACT_CALL_DO_IT_ALL_METHOD_SIGNATURE =
+      "<"
+          + AVERROES_ABSTRACT_LIBRARY_CLASS
+          + ": void "
+          + AVERROES_CALL_DO_IT_ALL_METHOD_NAME
+          + "()>";
 
   // Reflection methods
   public static final String FOR_NAME_SIG =
@@ -10,6 +10,7 @@
 package averroes.soot;
 
 import averroes.frameworks.options.FrameworksOptions;
+import averroes.frameworks.soot.DependencyResolver;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.SortedSet;
@@ -64,29 +65,44 @@ public class SootSceneUtil {
 
   /**
    * Return the set of classes that Averroes processes in the Scene. These include the library
-   * classes if {@link FrameworksOptions#isIncludeDependencies()} return true.
+   * classes if {@link FrameworksOptions#isIncludeDependencies()} return true (only the resolved
+   * ones if {@link FrameworksOptions#isLazyDependencies()} returns true too).
    *
    * @return
    */
   public static Set<SootClass> getClasses() {
     Set<SootClass> result = new HashSet<SootClass>(Scene.v().getApplicationClasses());
-    if (FrameworksOptions.isIncludeDependencies()) result.addAll(Scene.v().getLibraryClasses());
+    if (FrameworksOptions.isIncludeDependencies()) addLibraryClasses(result);
     return result;
   }
 
   /**
    * Return the set of classes that Averroes processes in the Scene. These include the library
-   * classes if {@link FrameworksOptions#isIncludeDependencies()} return true.
+   * classes if {@link FrameworksOptions#isIncludeDependencies()} return true (only the resolved
+   * ones if {@link FrameworksOptions#isLazyDependencies()} returns true too).
    *
    * @return
    */
   public static SortedSet<SootClass> getSortedClasses() {
     SortedSet<SootClass> result = new TreeSet<SootClass>(new SootClassComparer());
     result.addAll(Scene.v().getApplicationClasses());
-    if (FrameworksOptions.isIncludeDependencies()) result.addAll(Scene.v().getLibraryClasses());
+    if (FrameworksOptions.isIncludeDependencies()) addLibraryClasses(result);
     return result;
   }
 
+  /**
+   * Add the library classes that Averroes models to the given set. The input classes of other
+   * shards are left to the workers that model those shards.
+   *
+   * @param result
+   */
+  private static void addLibraryClasses(Set<SootClass> result) {
+    Scene.v().getLibraryClasses().stream()
+        .filter(DependencyResolver::isModelled)
+        .filter(c -> !FrameworksOptions.isInOtherShard(c.getName()))
+        .forEach(result::add);
+  }
+
   /**
    * Check if the method is native, then change it to be not native. This way Averroes will create a
    * method body for it. This is important because if such method has a RefLikeType return variable,
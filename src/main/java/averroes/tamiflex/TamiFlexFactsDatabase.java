@@ -9,6 +9,7 @@
  */
 package averroes.tamiflex;
 
+import averroes.AverroesContext;
 import averroes.options.AverroesOptions;
 import java.io.BufferedReader;
 import java.io.FileReader;
@@ -18,20 +19,24 @@ import java.util.HashSet;
 import java.util.Set;
 
 /**
- * A database for all the TamiFlex facts Averroes extracts from the given TamiFlex facts file.
+ * A database for all the TamiFlex facts Averroes extracts from the given TamiFlex facts file. Each
+ * {@link AverroesContext} has its own database, which the static getters look up.
  *
  * @author karim
  */
 public class TamiFlexFactsDatabase {
 
-  private static Set<String> arrayNewInstance = new HashSet<String>();
-  private static Set<String> classForName = new HashSet<String>();
-  private static Set<String> classNewInstance = new HashSet<String>();
-  private static Set<String> constructorNewInstance = new HashSet<String>();
-  private static Set<String> methodInvoke = new HashSet<String>();
+  private Set<String> arrayNewInstance = new HashSet<String>();
+  private Set<String> classForName = new HashSet<String>();
+  private Set<String> classNewInstance = new HashSet<String>();
+  private Set<String> constructorNewInstance = new HashSet<String>();
+  private Set<String> methodInvoke = new HashSet<String>();
 
-  // Load the TamiFlex facts file on the first call to any static method
-  static {
+  /**
+   * Create a new database from the TamiFlex facts file of the current options. Use the static
+   * getters to look up the database of the current {@link AverroesContext}.
+   */
+  public TamiFlexFactsDatabase() {
     try {
       loadFacts();
     } catch (IOException | URISyntaxException e) {
@@ -45,7 +50,7 @@ public class TamiFlexFactsDatabase {
    * @throws IOException
    * @throws URISyntaxException
    */
-  private static void loadFacts() throws IOException, URISyntaxException {
+  private void loadFacts() throws IOException, URISyntaxException {
 
     if (AverroesOptions.isTamiflexEnabled()) {
       String fileToLoad = AverroesOptions.getTamiflexFactsFile();
@@ -96,7 +101,7 @@ public class TamiFlexFactsDatabase {
    * @return
    */
   public static Set<String> getArrayNewInstance() {
-    return arrayNewInstance;
+    return AverroesContext.v().getTamiFlexFacts().arrayNewInstance;
   }
 
   /**
@@ -105,7 +110,7 @@ public class TamiFlexFactsDatabase {
    * @return
    */
   public static Set<String> getClassForName() {
-    return classForName;
+    return AverroesContext.v().getTamiFlexFacts().classForName;
   }
 
   /**
@@ -114,7 +119,7 @@ public class TamiFlexFactsDatabase {
    * @return
    */
   public static Set<String> getClassNewInstance() {
-    return classNewInstance;
+    return AverroesContext.v().getTamiFlexFacts().classNewInstance;
   }
 
   /**
@@ -123,7 +128,7 @@ public class TamiFlexFactsDatabase {
    * @return
    */
   public static Set<String> getConstructorNewInstance() {
-    return constructorNewInstance;
+    return AverroesContext.v().getTamiFlexFacts().constructorNewInstance;
   }
 
   /**
@@ -132,6 +137,6 @@ public class TamiFlexFactsDatabase {
    * @return
    */
   public static Set<String> getMethodInvoke() {
-    return methodInvoke;
+    return AverroesContext.v().getTamiFlexFacts().methodInvoke;
   }
 }
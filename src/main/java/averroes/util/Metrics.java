@@ -0,0 +1,349 @@
+package averroes.util;
+
+import averroes.AverroesContext;
+import averroes.util.jfr.PhaseEvent;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A utility class that records per-phase metrics (wall time, CPU time, allocated bytes, GC time,
+ * and peak heap) as well as counters (e.g., number of classes, methods, statements, and cache
+ * hits) for a run of Averroes. The metrics are written as a JSON report at the end of the run. Each
+ * {@link AverroesContext} records its own metrics, which the static methods look up. The process
+ * level measures (CPU time, GC, allocation, and heap) cover all the runs that overlap with a phase,
+ * though.
+ *
+ * <p>The heap usage and the bytes allocated by each thread are sampled in the background while a
+ * phase runs, so the peak heap of a phase is the highest total heap usage that was observed, and
+ * the threads that die during a phase still count with their last sample.
+ */
+public class Metrics {
+
+  private static final long SAMPLE_MILLIS = 10;
+
+  // The phases that are running in any context, which the sampler updates
+  private static final Set<Phase> running = ConcurrentHashMap.newKeySet();
+  private static ScheduledExecutorService sampler = null;
+
+  private List<Phase> phases = new ArrayList<Phase>();
+  private Phase current = null;
+  private Map<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+  private long start = System.nanoTime();
+
+  /** Reset all the recorded metrics. */
+  public static void reset() {
+    AverroesContext.v().resetMetrics();
+  }
+
+  /**
+   * Get the metrics of the current context.
+   *
+   * @return
+   */
+  private static Metrics v() {
+    return AverroesContext.v().getMetrics();
+  }
+
+  /**
+   * Start measuring a new phase. Any phase that is still running is ended first. Each phase is also
+   * reported as a {@link PhaseEvent} to Java Flight Recorder.
+   *
+   * @param name
+   */
+  public static void startPhase(String name) {
+    endPhase();
+    Metrics metrics = v();
+    metrics.current = new Phase(name);
+    metrics.phases.add(metrics.current);
+  }
+
+  /** End the phase that is currently running, if any. */
+  public static void endPhase() {
+    Metrics metrics = v();
+    if (metrics.current != null) {
+      metrics.current.end();
+      metrics.current = null;
+    }
+  }
+
+  /**
+   * Set the value of the given counter.
+   *
+   * @param name
+   * @param value
+   */
+  public static void count(String name, long value) {
+    v().counters.computeIfAbsent(name, k -> new AtomicLong()).set(value);
+  }
+
+  /**
+   * Add the given delta to the value of the given counter. This method is thread-safe.
+   *
+   * @param name
+   * @param delta
+   */
+  public static void add(String name, long delta) {
+    v().counters.computeIfAbsent(name, k -> new AtomicLong()).addAndGet(delta);
+  }
+
+  /**
+   * Record a hit in the given cache.
+   *
+   * @param cache
+   */
+  public static void cacheHit(String cache) {
+    add(cache + ".hits", 1);
+  }
+
+  /**
+   * Record a miss in the given cache.
+   *
+   * @param cache
+   */
+  public static void cacheMiss(String cache) {
+    add(cache + ".misses", 1);
+  }
+
+  /**
+   * Get the current value of the given counter.
+   *
+   * @param name
+   * @return
+   */
+  public static long getCount(String name) {
+    AtomicLong counter = v().counters.get(name);
+    return counter == null ? 0 : counter.get();
+  }
+
+  /**
+   * Create the JSON representation of all the recorded metrics.
+   *
+   * @return
+   */
+  public static JsonObject toJson() {
+    endPhase();
+    Metrics metrics = v();
+
+    JsonObject result = new JsonObject();
+    result.addProperty("wallMillis", (System.nanoTime() - metrics.start) / 1000000);
+    result.addProperty(
+        "peakHeapBytes",
+        metrics.phases.stream().mapToLong(p -> p.peakHeap).reduce(heapUsed(), Math::max));
+
+    JsonArray phasesJson = new JsonArray();
+    metrics.phases.forEach(p -> phasesJson.add(p.toJson()));
+    result.add("phases", phasesJson);
+
+    JsonObject countersJson = new JsonObject();
+    new TreeMap<String, AtomicLong>(metrics.counters)
+        .forEach((name, value) -> countersJson.addProperty(name, value.get()));
+    result.add("counters", countersJson);
+
+    return result;
+  }
+
+  /**
+   * Write the JSON report of all the recorded metrics to the given file.
+   *
+   * @param file
+   * @throws IOException
+   */
+  public static void writeReport(File file) throws IOException {
+    file.getAbsoluteFile().getParentFile().mkdirs();
+    String json = new GsonBuilder().setPrettyPrinting().create().toJson(toJson());
+    Files.write(file.toPath(), json.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * The CPU time (in nanoseconds) consumed by this process so far, or -1 if it's not supported by
+   * the JVM.
+   *
+   * @return
+   */
+  private static long processCpuTime() {
+    java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    if (os instanceof com.sun.management.OperatingSystemMXBean) {
+      return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+    }
+    return -1;
+  }
+
+  /**
+   * The number of bytes allocated so far by each live thread, by thread id, or null if it's not
+   * supported by the JVM.
+   *
+   * @return
+   */
+  private static Map<Long, Long> threadAllocatedBytes() {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+      if (sunThreads.isThreadAllocatedMemorySupported()
+          && sunThreads.isThreadAllocatedMemoryEnabled()) {
+        long[] ids = sunThreads.getAllThreadIds();
+        long[] bytes = sunThreads.getThreadAllocatedBytes(ids);
+        Map<Long, Long> result = new HashMap<Long, Long>();
+        for (int i = 0; i < ids.length; i++) {
+          // Threads that died since their ids were listed report -1
+          if (bytes[i] >= 0) {
+            result.put(ids[i], bytes[i]);
+          }
+        }
+        return result;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * The accumulated collection time (in milliseconds) of all the garbage collectors.
+   *
+   * @return
+   */
+  private static long gcTime() {
+    long result = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      result += Math.max(gc.getCollectionTime(), 0);
+    }
+    return result;
+  }
+
+  /**
+   * The accumulated collection count of all the garbage collectors.
+   *
+   * @return
+   */
+  private static long gcCount() {
+    long result = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      result += Math.max(gc.getCollectionCount(), 0);
+    }
+    return result;
+  }
+
+  /**
+   * The number of bytes currently used in the heap, over all the memory pools.
+   *
+   * @return
+   */
+  private static long heapUsed() {
+    return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+  }
+
+  /** Start sampling the running phases in the background, unless it's already started. */
+  private static synchronized void startSampler() {
+    if (sampler == null) {
+      sampler =
+          Executors.newSingleThreadScheduledExecutor(
+              r -> {
+                Thread thread = new Thread(r, "averroes-metrics");
+                thread.setDaemon(true);
+                return thread;
+              });
+      sampler.scheduleAtFixedRate(
+          () -> running.forEach(phase -> phase.sampleTask.run()),
+          SAMPLE_MILLIS,
+          SAMPLE_MILLIS,
+          TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /** The metrics of one phase of a run. */
+  private static class Phase {
+    private String name;
+    private long wall;
+    private long cpu;
+    private long allocated;
+    private long gcTime;
+    private long gcCount;
+    private long peakHeap;
+    private PhaseEvent event;
+
+    // Samples this phase in the context that started it, from the sampler thread
+    private Runnable sampleTask;
+
+    // The bytes allocated by each thread at the start of the phase, and at the last sample
+    private Map<Long, Long> startAllocated;
+    private Map<Long, Long> lastAllocated;
+
+    private Phase(String name) {
+      this.name = name;
+      wall = System.nanoTime();
+      cpu = processCpuTime();
+      gcTime = gcTime();
+      gcCount = gcCount();
+      peakHeap = heapUsed();
+      startAllocated = threadAllocatedBytes();
+      lastAllocated = startAllocated == null ? null : new HashMap<Long, Long>(startAllocated);
+      sampleTask = AverroesContext.wrap(this::sample);
+      running.add(this);
+      startSampler();
+
+      event = new PhaseEvent();
+      event.begin();
+    }
+
+    /** Record the current heap usage, and the bytes allocated so far by each live thread. */
+    private synchronized void sample() {
+      peakHeap = Math.max(peakHeap, heapUsed());
+      Map<Long, Long> now = threadAllocatedBytes();
+      if (lastAllocated != null && now != null) {
+        lastAllocated.putAll(now);
+      }
+    }
+
+    /**
+     * Replace the start values with the differences between the current values and them. The
+     * allocated bytes are summed over the threads, counting the threads that started during the
+     * phase from zero.
+     */
+    private synchronized void end() {
+      running.remove(this);
+      sample();
+      event.commit(name);
+      wall = System.nanoTime() - wall;
+      cpu = cpu < 0 ? -1 : processCpuTime() - cpu;
+      gcTime = gcTime() - gcTime;
+      gcCount = gcCount() - gcCount;
+      allocated = -1;
+      if (lastAllocated != null) {
+        allocated = 0;
+        for (Map.Entry<Long, Long> entry : lastAllocated.entrySet()) {
+          long start = startAllocated.getOrDefault(entry.getKey(), 0L);
+          allocated += Math.max(0, entry.getValue() - start);
+        }
+      }
+    }
+
+    private JsonObject toJson() {
+      JsonObject result = new JsonObject();
+      result.addProperty("name", name);
+      result.addProperty("wallMillis", wall / 1000000);
+      result.addProperty("cpuMillis", cpu < 0 ? -1 : cpu / 1000000);
+      result.addProperty("allocatedBytes", allocated);
+      result.addProperty("gcMillis", gcTime);
+      result.addProperty("gcCount", gcCount);
+      result.addProperty("peakHeapBytes", peakHeap);
+      return result;
+    }
+  }
+}
@@ -10,14 +10,15 @@
 package averroes.util;
 
 /**
- * A utility class to time operations.
+ * A utility class to time operations. Each thread has its own timers, so that runs on separate
+ * threads do not reset each other's.
  *
  * @author karim
  */
 public class TimeUtils {
 
-  private static long start = System.currentTimeMillis();
-  private static long splitStart = System.currentTimeMillis();
+  private static ThreadLocal<Long> start = ThreadLocal.withInitial(System::currentTimeMillis);
+  private static ThreadLocal<Long> splitStart = ThreadLocal.withInitial(System::currentTimeMillis);
 
   /**
    * Calculate the elapsed time in seconds.
@@ -25,7 +26,7 @@ public class TimeUtils {
    * @return
    */
   public static double elapsedTime() {
-    return MathUtils.round((System.currentTimeMillis() - start) / 1000.0);
+    return MathUtils.round((System.currentTimeMillis() - start.get()) / 1000.0);
   }
 
   /**
@@ -34,16 +35,16 @@ public class TimeUtils {
    * @return
    */
   public static double elapsedSplitTime() {
-    return MathUtils.round((System.currentTimeMillis() - splitStart) / 1000.0);
+    return MathUtils.round((System.currentTimeMillis() - splitStart.get()) / 1000.0);
   }
 
   /** Split the timer. */
   public static void splitStart() {
-    splitStart = System.currentTimeMillis();
+    splitStart.set(System.currentTimeMillis());
   }
 
   /** Reset the start time used to calculate the elapsed time. */
   public static void reset() {
-    start = System.currentTimeMillis();
+    start.set(System.currentTimeMillis());
   }
 }
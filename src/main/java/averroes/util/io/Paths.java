@@ -49,6 +49,19 @@ public class Paths {
         .toFile();
   }
 
+  /**
+   * The path to the JSON report of the metrics recorded while generating the frameworks
+   * placeholder library JAR file.
+   *
+   * @return
+   */
+  public static File frameworksReportFile() {
+    return java.nio.file.Paths.get(
+            FrameworksOptions.getOutputDirectory(),
+            "report-fwk-" + FrameworksOptions.getAnalysis() + ".json")
+        .toFile();
+  }
+
   /**
    * The path to the file where we output Jimple code.
    *
@@ -71,6 +84,18 @@ public class Paths {
     return dumpFile(jsonOutputDirectory(printerType), cls, "json");
   }
 
+  /**
+   * The path to the file where we output the binary encoding of the JSON code representation of the
+   * given class.
+   *
+   * @param printerType
+   * @param cls
+   * @return
+   */
+  public static File binaryOutputFile(PrinterType printerType, SootClass cls) {
+    return dumpFile(jsonOutputDirectory(printerType), cls, "bin");
+  }
+
   /**
    * The path to the output file where we output inlining information for the given class.
    *
@@ -147,6 +172,26 @@ public class Paths {
     return new File(AverroesOptions.getOutputDirectory(), "averroes-lib-class.jar");
   }
 
+  /**
+   * The path to the file that maps each library interface or abstract class to the class that
+   * Averroes generated to implement it.
+   *
+   * @return
+   */
+  public static File generatedClassesMappingFile() {
+    return new File(AverroesOptions.getOutputDirectory(), "generated-classes.txt");
+  }
+
+  /**
+   * The path to the JSON report of the metrics recorded while generating the placeholder library
+   * JAR file.
+   *
+   * @return
+   */
+  public static File reportFile() {
+    return new File(AverroesOptions.getOutputDirectory(), "averroes-report.json");
+  }
+
   /**
    * The path to the organized application JAR file.
    *
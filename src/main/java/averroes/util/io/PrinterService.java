@@ -0,0 +1,210 @@
+package averroes.util.io;
+
+import averroes.AverroesContext;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+
+/**
+ * Writes the output files of {@link Printers} on a background thread. Callers render their output
+ * and hand it over through a bounded queue, which blocks them if the writer falls behind. The
+ * writer keeps one buffered writer per output file, so consecutive writes to the same file do not
+ * reopen it. Only the most recently used writers are kept open, to bound the number of open files.
+ * Each write runs in the {@link AverroesContext} of the thread that submitted it.
+ */
+final class PrinterService {
+
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final int MAX_OPEN_WRITERS = 128;
+
+    private static final Job STOP = new Job(null, () -> null);
+
+    private final BlockingQueue<Job> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    // The open writers in access order, only used by the worker thread
+    private final Map<File, Writer> writers =
+            new LinkedHashMap<File, Writer>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<File, Writer> eldest) {
+                    if (size() > MAX_OPEN_WRITERS) {
+                        close(eldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+
+    // The files written so far, only used by the worker thread
+    private final Set<File> written = new HashSet<>();
+
+    private Thread worker = null;
+
+    PrinterService() {
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+    }
+
+    /**
+     * Queue up some content to be written to the given file. The first write to a file in a run
+     * truncates it, and later ones append to it, unless they replace the file.
+     *
+     * @param file
+     * @param replace
+     * @param content
+     */
+    synchronized void submit(File file, boolean replace, Content content) {
+        start();
+        put(
+                new Job(
+                        file,
+                        AverroesContext.wrap(
+                                () -> {
+                                    content.writeTo(writer(file, replace));
+                                    return null;
+                                })));
+    }
+
+    /**
+     * Queue up some binary content to replace the given file with.
+     *
+     * @param file
+     * @param bytes
+     */
+    synchronized void submit(File file, byte[] bytes) {
+        start();
+        put(
+                new Job(
+                        file,
+                        AverroesContext.wrap(
+                                () -> {
+                                    close(writers.remove(file));
+                                    written.add(file);
+                                    Files.createDirectories(
+                                            file.getAbsoluteFile().getParentFile().toPath());
+                                    Files.write(file.toPath(), bytes);
+                                    return null;
+                                })));
+    }
+
+    /**
+     * Write out all the queued content, then close all the files and stop the worker thread. A later
+     * submission starts a new one.
+     */
+    synchronized void close() {
+        if (worker == null) {
+            return;
+        }
+
+        put(STOP);
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        worker = null;
+    }
+
+    private void start() {
+        if (worker == null) {
+            worker = new Thread(this::run, "averroes-printer");
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    private void put(Job job) {
+        try {
+            queue.put(job);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while queueing output for " + job.file, e);
+        }
+    }
+
+    private void run() {
+        try {
+            for (Job job = queue.take(); job != STOP; job = queue.take()) {
+                try {
+                    job.write.call();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (Iterator<Writer> it = writers.values().iterator(); it.hasNext(); ) {
+                close(it.next());
+                it.remove();
+            }
+            written.clear();
+        }
+    }
+
+    /**
+     * Get the writer for the given file, opening it if necessary.
+     *
+     * @param file
+     * @param replace
+     * @return
+     * @throws IOException
+     */
+    private Writer writer(File file, boolean replace) throws IOException {
+        if (replace) {
+            close(writers.remove(file));
+            written.remove(file);
+        }
+
+        Writer writer = writers.get(file);
+        if (writer == null) {
+            Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+            StandardOpenOption mode =
+                    written.add(file) ? StandardOpenOption.TRUNCATE_EXISTING : StandardOpenOption.APPEND;
+            writer =
+                    Files.newBufferedWriter(
+                            file.toPath(), Charset.defaultCharset(), StandardOpenOption.CREATE, mode);
+            writers.put(file, writer);
+        }
+        return writer;
+    }
+
+    private static void close(Writer writer) {
+        if (writer == null) {
+            return;
+        }
+
+        try {
+            writer.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Some content to write to an output file.
+     */
+    @FunctionalInterface
+    interface Content {
+        void writeTo(Writer writer) throws IOException;
+    }
+
+    private static final class Job {
+        private final File file;
+        private final Callable<Void> write;
+
+        private Job(File file, Callable<Void> write) {
+            this.file = file;
+            this.write = write;
+        }
+    }
+}
@@ -12,28 +12,66 @@
  */
 package averroes.util.io;
 
+import averroes.frameworks.soot.ModelCache;
 import averroes.soot.SootSceneUtil;
 import averroes.util.SootUtils;
 import averroes.util.json.JsonUtils;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import org.apache.commons.io.FileUtils;
+import averroes.util.json.SootClassJson;
 import soot.SootClass;
 import soot.SootMethod;
 
-import java.io.File;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.util.Collections;
 
 /**
- * Utility class for printing-related operations.
+ * Utility class for printing-related operations. The output is rendered by the caller and written
+ * out by a {@link PrinterService} in the background, so call {@link #shutdown()} before reading
+ * any of the output files.
  *
  * @author Karim Ali
  */
 public class Printers {
 
-    // The main Gson printer
-    private static Gson gson = new GsonBuilder().disableHtmlEscaping().setPrettyPrinting().create();
+    // The background writer for all the output files
+    private static final PrinterService service = new PrinterService();
+
+    private static volatile boolean enabled = true;
+    private static volatile boolean binary = false;
+
+    /**
+     * Enable or disable printing. While disabled, nothing is rendered or written out.
+     *
+     * @param value
+     */
+    public static void setEnabled(boolean value) {
+        enabled = value;
+    }
+
+    /**
+     * Is printing enabled?
+     *
+     * @return
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Also print out the binary encoding of the JSON representations, for machine consumers.
+     *
+     * @param value
+     */
+    public static void setBinary(boolean value) {
+        binary = value;
+    }
+
+    /**
+     * Write out everything printed so far and close all the output files.
+     */
+    public static void shutdown() {
+        service.close();
+    }
 
     /**
      * Print out the Jimple representation of the given Soot method.
@@ -42,20 +80,25 @@ public class Printers {
      * @param method
      */
     public static void printJimple(PrinterType printerType, SootMethod method) {
+        if (!enabled) {
+            return;
+        }
+
         if (printerType == PrinterType.EXPECTED) {
             SootUtils.cleanup(method.retrieveActiveBody());
         }
 
-        File jimpleFile = Paths.jimpleOutputFile(printerType, method);
-        try {
-            FileUtils.writeLines(jimpleFile, Collections.singleton(method.getSignature()), true);
-            FileUtils.writeLines(
-                    jimpleFile, Collections.singleton(method.retrieveActiveBody().toString()), true);
-            FileUtils.writeLines(jimpleFile, null, true);
-            FileUtils.writeLines(jimpleFile, null, true);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        String signature = method.getSignature();
+        String body = method.retrieveActiveBody().toString();
+        service.submit(
+                Paths.jimpleOutputFile(printerType, method),
+                false,
+                w -> {
+                    w.write(signature);
+                    w.write(System.lineSeparator());
+                    w.write(body);
+                    w.write(System.lineSeparator());
+                });
     }
 
     /**
@@ -65,12 +108,37 @@ public class Printers {
      * @param cls
      */
     public static void printJson(PrinterType printerType, SootClass cls) {
-        File jsonFile = Paths.jsonOutputFile(printerType, cls);
-        String json = gson.toJson(JsonUtils.toJson(cls));
-        try {
-            FileUtils.writeLines(jsonFile, Collections.singleton(json));
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (!enabled) {
+            return;
+        }
+
+        printJson(printerType, cls, JsonUtils.toJson(cls));
+    }
+
+    /**
+     * Print out the given JSON representation of the given Soot class.
+     *
+     * @param printerType
+     * @param cls
+     * @param json
+     */
+    private static void printJson(PrinterType printerType, SootClass cls, SootClassJson json) {
+        service.submit(
+                Paths.jsonOutputFile(printerType, cls),
+                true,
+                w -> {
+                    json.writeJson(w);
+                    w.write(System.lineSeparator());
+                });
+
+        if (binary) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                json.writeBinary(out);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            service.submit(Paths.binaryOutputFile(printerType, cls), bytes.toByteArray());
         }
     }
 
@@ -82,11 +150,22 @@ public class Printers {
     }
 
     /**
-     * Print out the JSON representation of all the given generated Soot classes.
+     * Print out the JSON representation of all the given generated Soot classes. The representation
+     * of a class whose model is cached is taken from the {@link ModelCache}, and that of any other
+     * class is added to it.
      */
-
     public static void printGeneratedJson(SootClass cls) {
-        printJson(PrinterType.GENERATED, cls);
+        if (!enabled) {
+            return;
+        }
+
+        if (ModelCache.isCached(cls)) {
+            printJson(PrinterType.GENERATED, cls, ModelCache.getJson(cls));
+        } else {
+            SootClassJson json = JsonUtils.toJson(cls);
+            ModelCache.putJson(cls, json);
+            printJson(PrinterType.GENERATED, cls, json);
+        }
     }
 
     /**
@@ -106,12 +185,17 @@ public class Printers {
      * @param cls
      */
     public static void logInliningInfo(String message, SootClass cls) {
-        File inlinerFile = Paths.inlinerOutputFile(cls);
-        try {
-            FileUtils.writeLines(inlinerFile, Collections.singleton(message));
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (!enabled) {
+            return;
         }
+
+        service.submit(
+                Paths.inlinerOutputFile(cls),
+                false,
+                w -> {
+                    w.write(message);
+                    w.write(System.lineSeparator());
+                });
     }
 
     public enum PrinterType {
@@ -0,0 +1,28 @@
+package averroes.util.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+
+/**
+ * A Java Flight Recorder event for some work on one class. The subclasses only add the name and
+ * the description of the work, and any extra fields.
+ */
+@Category("Averroes")
+public abstract class ClassEvent extends Event {
+  @Label("Class")
+  public String className;
+
+  /**
+   * Commit this event for the given class. The class name is only recorded if the event is enabled
+   * and its duration exceeds the configured threshold.
+   *
+   * @param className
+   */
+  public void commit(String className) {
+    if (shouldCommit()) {
+      this.className = className;
+      commit();
+    }
+  }
+}
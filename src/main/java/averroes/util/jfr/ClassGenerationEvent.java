@@ -0,0 +1,11 @@
+package averroes.util.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** A Java Flight Recorder event for generating the method bodies of one placeholder library class. */
+@Name("averroes.ClassGeneration")
+@Label("Class Generation")
+@Description("Generating the method bodies of a placeholder library class")
+public class ClassGenerationEvent extends ClassEvent {}
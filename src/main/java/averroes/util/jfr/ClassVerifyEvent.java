@@ -0,0 +1,11 @@
+package averroes.util.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** A Java Flight Recorder event for verifying one generated class with BCEL or ASM. */
+@Name("averroes.ClassVerify")
+@Label("Class Verify")
+@Description("Verifying a generated class")
+public class ClassVerifyEvent extends ClassEvent {}
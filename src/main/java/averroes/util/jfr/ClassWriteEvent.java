@@ -0,0 +1,11 @@
+package averroes.util.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** A Java Flight Recorder event for writing the class file of one generated class. */
+@Name("averroes.ClassWrite")
+@Label("Class Write")
+@Description("Writing the class file of a generated class")
+public class ClassWriteEvent extends ClassEvent {}
@@ -0,0 +1,33 @@
+package averroes.util.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** A Java Flight Recorder event for generating the model of one frameworks method. */
+@Name("averroes.MethodGeneration")
+@Label("Method Generation")
+@Description("Generating the model of a frameworks method")
+public class MethodGenerationEvent extends ClassEvent {
+  @Label("Method")
+  public String methodName;
+
+  @Label("Analysis")
+  public String analysis;
+
+  /**
+   * Commit this event for the given method. The names are only recorded if the event is enabled
+   * and its duration exceeds the configured threshold.
+   *
+   * @param className
+   * @param methodName
+   * @param analysis
+   */
+  public void commit(String className, String methodName, String analysis) {
+    if (shouldCommit()) {
+      this.methodName = methodName;
+      this.analysis = analysis;
+      commit(className);
+    }
+  }
+}
@@ -0,0 +1,32 @@
+package averroes.util.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Java Flight Recorder event for one phase of an Averroes run (e.g., loading classes in Soot, or
+ * creating the class hierarchy).
+ */
+@Name("averroes.Phase")
+@Label("Phase")
+@Category("Averroes")
+@Description("One phase of an Averroes run")
+public class PhaseEvent extends Event {
+  @Label("Name")
+  public String name;
+
+  /**
+   * Commit this event for the phase with the given name.
+   *
+   * @param name
+   */
+  public void commit(String name) {
+    if (shouldCommit()) {
+      this.name = name;
+      commit();
+    }
+  }
+}
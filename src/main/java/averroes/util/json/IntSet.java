@@ -0,0 +1,55 @@
+package averroes.util.json;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A set of primitive ints, kept as a sorted array. It is meant for the small sets of fact ids that
+ * a {@link SootClassJson} records per method.
+ */
+public class IntSet {
+
+  private int[] elements = new int[4];
+  private int size = 0;
+
+  /**
+   * Add the given value to this set.
+   *
+   * @param value
+   * @return true if the set did not already contain the value
+   */
+  public boolean add(int value) {
+    int index = Arrays.binarySearch(elements, 0, size, value);
+    if (index >= 0) {
+      return false;
+    }
+
+    index = -index - 1;
+    if (size == elements.length) {
+      elements = Arrays.copyOf(elements, size * 2);
+    }
+    System.arraycopy(elements, index, elements, index + 1, size - index);
+    elements[index] = value;
+    size++;
+    return true;
+  }
+
+  public boolean contains(int value) {
+    return Arrays.binarySearch(elements, 0, size, value) >= 0;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Apply the given action to the elements of this set, in increasing order.
+   *
+   * @param action
+   */
+  public void forEach(IntConsumer action) {
+    for (int i = 0; i < size; i++) {
+      action.accept(elements[i]);
+    }
+  }
+}
@@ -1,12 +1,12 @@
 package averroes.util.json;
 
-import com.google.gson.FieldNamingPolicy;
-import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.util.stream.Collectors;
 import soot.RefLikeType;
 import soot.SootClass;
 import soot.Type;
@@ -87,87 +87,76 @@ public class JsonUtils {
    * @throws IOException
    */
   public static SootClassJson fromJson(File json) throws IOException {
-    InputStreamReader reader = new InputStreamReader(new FileInputStream(json));
-
-    SootClassJson sootClassJson =
-        new GsonBuilder()
-            .setFieldNamingPolicy(FieldNamingPolicy.IDENTITY)
-            .create()
-            .fromJson(reader, SootClassJson.class);
-    reader.close();
-
-    // System.out.println(sootClassJson.getMethodToObjectCreations());
-    // System.out.println(sootClassJson.getMethodToInvocations());
-    // System.out.println(sootClassJson.getMethodToFieldReads());
-    // System.out.println(sootClassJson.getMethodToFieldWrites());
-
-    return sootClassJson;
+    try (JsonReader reader = new JsonReader(new InputStreamReader(new FileInputStream(json)))) {
+      return SootClassJson.readJson(reader);
+    }
   }
 
   /**
-   * Get the JSON textual representation of a field reference.
+   * Create a SootClassJson from a binary file.
    *
-   * @param fieldRef
+   * @param file
    * @return
+   * @throws IOException
    */
-  public static String toJson(FieldRef fieldRef) {
-    StringBuilder str = new StringBuilder();
-
-    // Append the base (instance field) or declaring class (static field)
-    if (fieldRef instanceof StaticFieldRef) {
-      str.append(fieldRef.getField().getDeclaringClass().getType().toString());
-    } else {
-      str.append(((InstanceFieldRef) fieldRef).getBase().getType().toString());
+  public static SootClassJson fromBinary(File file) throws IOException {
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      return SootClassJson.readBinary(in);
     }
+  }
 
-    // append field name
-    str.append("." + fieldRef.getField().getName());
-
-    return str.toString();
+  /**
+   * Get the fact for a field reference, i.e., its base (instance field) or declaring class (static
+   * field), and its name.
+   *
+   * @param table
+   * @param fieldRef
+   * @return
+   */
+  public static int toFact(StringTable table, FieldRef fieldRef) {
+    Type base =
+        fieldRef instanceof StaticFieldRef
+            ? fieldRef.getField().getDeclaringClass().getType()
+            : ((InstanceFieldRef) fieldRef).getBase().getType();
+    return table.fact(table.id(base), table.name(fieldRef.getField()));
   }
 
   /**
-   * Get the JSON textual representation of an invoke expression.
+   * Get the fact for an invoke expression, i.e., its base (instance invoke) or declaring class
+   * (static invoke), the invoked method, and the types of its arguments.
    *
+   * @param table
    * @param invoke
    * @return
    */
-  public static String toJson(InvokeExpr invoke) {
-    StringBuilder str = new StringBuilder();
+  public static int toFact(StringTable table, InvokeExpr invoke) {
+    int[] parts = new int[invoke.getArgCount() + 2];
 
-    // Append the base (instance invoke) or declaring class (static invoke)
     if (invoke instanceof StaticInvokeExpr) {
-      str.append(invoke.getMethod().getDeclaringClass().getType().toString());
+      parts[0] = table.id(invoke.getMethod().getDeclaringClass().getType());
     } else if (invoke instanceof InstanceInvokeExpr) {
-      str.append(((InstanceInvokeExpr) invoke).getBase().getType().toString());
+      parts[0] = table.id(((InstanceInvokeExpr) invoke).getBase().getType());
+    } else {
+      parts[0] = StringTable.NONE;
     }
 
-    // append declaring class of method
-    str.append(".<" + invoke.getMethod().getDeclaringClass() + ":");
-
-    // append return type
-    str.append(" " + invoke.getMethod().getReturnType());
-
-    // append method name
-    str.append(" " + invoke.getMethod().getName());
-
-    // append types of arguments
-    str.append("(");
-    invoke.getArgs().stream().map(a -> a.getType().toString()).collect(Collectors.joining(", "));
-    invoke.getArgs().forEach(a -> str.append(a.getType().toString()));
-    str.append(")");
-    str.append(">");
+    parts[1] = table.callee(invoke.getMethod());
+    for (int i = 0; i < invoke.getArgCount(); i++) {
+      parts[i + 2] = table.id(invoke.getArg(i).getType());
+    }
 
-    return str.toString();
+    return table.fact(parts);
   }
 
   /**
-   * Get the JSON textual representation of a type.
+   * Get the fact for a type.
    *
+   * @param table
    * @param type
    * @return
    */
-  public static String toJson(Type type) {
-    return type.toString();
+  public static int toFact(StringTable table, Type type) {
+    return table.fact(table.id(type));
   }
 }
@@ -2,9 +2,19 @@ package averroes.util.json;
 
 import com.google.common.collect.MapDifference;
 import com.google.common.collect.Maps;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import soot.Modifier;
 import soot.SootMethod;
@@ -13,20 +23,43 @@ import soot.jimple.FieldRef;
 import soot.jimple.InvokeExpr;
 
 /**
- * A JSON representation for a Soot class.
+ * A JSON representation for a Soot class. The facts of each method are kept as sets of fact ids
+ * from the {@link StringTable} of this object, and turned back into strings only when they are
+ * written out or compared.
+ *
+ * <p>The JSON encoding keeps the facts as strings: each kind of fact maps a method signature to the
+ * set of its facts (e.g., "p.A.f" for a read of the field f of an A). The strings are only built
+ * when the file is written. The binary encoding is indexed instead: each file has a table of the
+ * strings it uses, and a fact is a list of indices into that table. An object creation is the
+ * index of its type. An invocation is the index of its receiver type (or -1 for a dynamic invoke),
+ * then the index of the callee, then the index of each argument type. A field access is the index
+ * of its base type (or declaring class, for a static field), then the index of the field name.
  *
  * @author Karim Ali
  */
 public class SootClassJson {
 
-  private HashMap<String, HashSet<String>> methodToObjectCreations =
-      new HashMap<String, HashSet<String>>();
-  private HashMap<String, HashSet<String>> methodToInvocations =
-      new HashMap<String, HashSet<String>>();
-  private HashMap<String, HashSet<String>> methodToFieldReads =
-      new HashMap<String, HashSet<String>>();
-  private HashMap<String, HashSet<String>> methodToFieldWrites =
-      new HashMap<String, HashSet<String>>();
+  private static final String[] KINDS = {
+    "methodToObjectCreations", "methodToInvocations", "methodToFieldReads", "methodToFieldWrites"
+  };
+  private static final int OBJECT_CREATIONS = 0;
+  private static final int INVOCATIONS = 1;
+  private static final int FIELD_READS = 2;
+  private static final int FIELD_WRITES = 3;
+
+  // Marks the start of the binary encoding ("AVRS")
+  private static final int MAGIC = 0x41565253;
+
+  // The strings and facts of this object
+  private final StringTable table = new StringTable();
+
+  // For each kind of fact, the ids of the facts in each method, keyed by the id of its signature
+  private final List<Map<Integer, IntSet>> tables =
+      Arrays.asList(
+          new LinkedHashMap<Integer, IntSet>(),
+          new LinkedHashMap<Integer, IntSet>(),
+          new LinkedHashMap<Integer, IntSet>(),
+          new LinkedHashMap<Integer, IntSet>());
 
   /**
    * Check whether a method is synthetic or not. This helps ignore checking some methods that the
@@ -46,10 +79,7 @@ public class SootClassJson {
    * @param type
    */
   public void addObjectCreation(SootMethod method, Type type) {
-    if (!isSynthetic(method)) {
-      methodToObjectCreations.putIfAbsent(method.getSignature(), new HashSet<String>());
-      methodToObjectCreations.get(method.getSignature()).add(JsonUtils.toJson(type));
-    }
+    add(OBJECT_CREATIONS, method, JsonUtils.toFact(table, type));
   }
 
   /**
@@ -59,10 +89,7 @@ public class SootClassJson {
    * @param invoke
    */
   public void addInvocation(SootMethod method, InvokeExpr invoke) {
-    if (!isSynthetic(method)) {
-      methodToInvocations.putIfAbsent(method.getSignature(), new HashSet<String>());
-      methodToInvocations.get(method.getSignature()).add(JsonUtils.toJson(invoke));
-    }
+    add(INVOCATIONS, method, JsonUtils.toFact(table, invoke));
   }
 
   /**
@@ -72,10 +99,7 @@ public class SootClassJson {
    * @param fieldRef
    */
   public void addFieldRead(SootMethod method, FieldRef fieldRef) {
-    if (!isSynthetic(method)) {
-      methodToFieldReads.putIfAbsent(method.getSignature(), new HashSet<String>());
-      methodToFieldReads.get(method.getSignature()).add(JsonUtils.toJson(fieldRef));
-    }
+    add(FIELD_READS, method, JsonUtils.toFact(table, fieldRef));
   }
 
   /**
@@ -85,10 +109,234 @@ public class SootClassJson {
    * @param fieldRef
    */
   public void addFieldWrite(SootMethod method, FieldRef fieldRef) {
+    add(FIELD_WRITES, method, JsonUtils.toFact(table, fieldRef));
+  }
+
+  private void add(int kind, SootMethod method, int fact) {
     if (!isSynthetic(method)) {
-      methodToFieldWrites.putIfAbsent(method.getSignature(), new HashSet<String>());
-      methodToFieldWrites.get(method.getSignature()).add(JsonUtils.toJson(fieldRef));
+      tables
+          .get(kind)
+          .computeIfAbsent(table.signature(method), m -> new IntSet())
+          .add(fact);
+    }
+  }
+
+  /**
+   * Write the JSON encoding of this object.
+   *
+   * @param writer
+   * @throws IOException
+   */
+  public void writeJson(Writer writer) throws IOException {
+    JsonWriter json = new JsonWriter(writer);
+    json.setIndent("  ");
+
+    json.beginObject();
+    for (int kind = 0; kind < KINDS.length; kind++) {
+      json.name(KINDS[kind]).beginObject();
+      for (Map.Entry<String, HashSet<String>> entry : decode(kind).entrySet()) {
+        json.name(entry.getKey()).beginArray();
+        for (String fact : entry.getValue()) {
+          json.value(fact);
+        }
+        json.endArray();
+      }
+      json.endObject();
+    }
+    json.endObject();
+    json.flush();
+  }
+
+  /**
+   * Read the JSON encoding of a SootClassJson. Each fact string is kept as a fact of one part, which
+   * is rendered back as the string itself.
+   *
+   * @param json
+   * @return
+   * @throws IOException
+   */
+  public static SootClassJson readJson(JsonReader json) throws IOException {
+    SootClassJson result = new SootClassJson();
+
+    json.beginObject();
+    while (json.hasNext()) {
+      int kind = Arrays.asList(KINDS).indexOf(json.nextName());
+      if (kind < 0) {
+        json.skipValue();
+        continue;
+      }
+
+      json.beginObject();
+      while (json.hasNext()) {
+        IntSet facts = result.facts(kind, result.table.intern(json.nextName()));
+        json.beginArray();
+        while (json.hasNext()) {
+          facts.add(result.table.fact(new int[] {result.table.intern(json.nextString())}));
+        }
+        json.endArray();
+      }
+      json.endObject();
+    }
+    json.endObject();
+
+    return result;
+  }
+
+  /**
+   * Write the binary encoding of this object.
+   *
+   * @param out
+   * @throws IOException
+   */
+  public void writeBinary(DataOutputStream out) throws IOException {
+    LocalTable local = new LocalTable();
+
+    out.writeInt(MAGIC);
+    out.writeInt(local.strings.size());
+    for (int id : local.strings) {
+      out.writeUTF(table.get(id));
+    }
+
+    for (Map<Integer, IntSet> kindTable : tables) {
+      out.writeInt(kindTable.size());
+      for (Map.Entry<Integer, IntSet> entry : kindTable.entrySet()) {
+        out.writeInt(local.index(entry.getKey()));
+        out.writeInt(entry.getValue().size());
+        for (int fact : toArray(entry.getValue())) {
+          int[] parts = table.parts(fact);
+          out.writeByte(parts.length);
+          for (int part : parts) {
+            out.writeInt(local.index(part));
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Read the binary encoding of a SootClassJson.
+   *
+   * @param in
+   * @return
+   * @throws IOException
+   */
+  public static SootClassJson readBinary(DataInputStream in) throws IOException {
+    if (in.readInt() != MAGIC) {
+      throw new IOException("Not a binary class summary");
+    }
+
+    SootClassJson result = new SootClassJson();
+    int[] strings = new int[in.readInt()];
+    for (int i = 0; i < strings.length; i++) {
+      strings[i] = result.table.intern(in.readUTF());
+    }
+
+    for (int kind = 0; kind < KINDS.length; kind++) {
+      for (int methods = in.readInt(); methods > 0; methods--) {
+        IntSet facts = result.facts(kind, global(strings, in.readInt()));
+        for (int count = in.readInt(); count > 0; count--) {
+          int[] parts = new int[in.readUnsignedByte()];
+          for (int i = 0; i < parts.length; i++) {
+            parts[i] = global(strings, in.readInt());
+          }
+          facts.add(result.table.fact(parts));
+        }
+      }
+    }
+
+    return result;
+  }
+
+  private IntSet facts(int kind, int method) {
+    return tables.get(kind).computeIfAbsent(method, m -> new IntSet());
+  }
+
+  private static int global(int[] strings, int index) {
+    return index == StringTable.NONE ? StringTable.NONE : strings[index];
+  }
+
+  private static int[] toArray(IntSet set) {
+    int[] result = new int[set.size()];
+    int[] i = {0};
+    set.forEach(e -> result[i[0]++] = e);
+    return result;
+  }
+
+  /**
+   * The strings used by this object, numbered in the order they are first used. This is the string
+   * table of a binary file.
+   */
+  private class LocalTable {
+    private final List<Integer> strings = new ArrayList<Integer>();
+    private final Map<Integer, Integer> indices = new HashMap<Integer, Integer>();
+
+    private LocalTable() {
+      for (Map<Integer, IntSet> kindTable : tables) {
+        for (Map.Entry<Integer, IntSet> entry : kindTable.entrySet()) {
+          add(entry.getKey());
+          entry.getValue().forEach(fact -> Arrays.stream(table.parts(fact)).forEach(this::add));
+        }
+      }
     }
+
+    private void add(int id) {
+      if (id != StringTable.NONE && !indices.containsKey(id)) {
+        indices.put(id, strings.size());
+        strings.add(id);
+      }
+    }
+
+    private int index(int id) {
+      return id == StringTable.NONE ? StringTable.NONE : indices.get(id);
+    }
+  }
+
+  /**
+   * Render the fact with the given id as a string, the way it is stored in the JSON encoding. A fact
+   * of one part (e.g., read from a JSON file) is the string itself.
+   *
+   * @param kind
+   * @param fact
+   * @return
+   */
+  private String render(int kind, int fact) {
+    int[] parts = table.parts(fact);
+    if (parts.length == 1) {
+      return table.get(parts[0]);
+    }
+
+    StringBuilder str = new StringBuilder();
+    if (parts[0] != StringTable.NONE) {
+      str.append(table.get(parts[0]));
+    }
+    str.append(".").append(table.get(parts[1]));
+    if (kind == INVOCATIONS) {
+      str.append("(");
+      for (int i = 2; i < parts.length; i++) {
+        str.append(table.get(parts[i]));
+      }
+      str.append(")>");
+    }
+    return str.toString();
+  }
+
+  /**
+   * Decode the facts of the given kind into strings, keyed by method signature.
+   *
+   * @param kind
+   * @return
+   */
+  private HashMap<String, HashSet<String>> decode(int kind) {
+    HashMap<String, HashSet<String>> result = new HashMap<String, HashSet<String>>();
+    tables
+        .get(kind)
+        .forEach(
+            (method, facts) -> {
+              HashSet<String> strings = new HashSet<String>();
+              facts.forEach(f -> strings.add(render(kind, f)));
+              result.put(table.get(method), strings);
+            });
+    return result;
   }
 
   /**
@@ -99,7 +347,7 @@ public class SootClassJson {
    */
   public boolean isEquivalentTo(SootClassJson other) {
     MapDifference<String, HashSet<String>> objectCreationsDifference =
-        Maps.difference(methodToObjectCreations, other.methodToObjectCreations);
+        Maps.difference(getMethodToObjectCreations(), other.getMethodToObjectCreations());
     if (!objectCreationsDifference.areEqual()) {
       System.out.println("There are some differences in object creations.");
       System.out.println(
@@ -117,7 +365,7 @@ public class SootClassJson {
     }
 
     MapDifference<String, HashSet<String>> invocationsDifference =
-        Maps.difference(methodToInvocations, other.methodToInvocations);
+        Maps.difference(getMethodToInvocations(), other.getMethodToInvocations());
     if (!invocationsDifference.areEqual()
         && !ignoreCalls(invocationsDifference.entriesOnlyOnLeft())) {
       System.out.println("There are some differences in invocations.");
@@ -136,7 +384,7 @@ public class SootClassJson {
     }
 
     MapDifference<String, HashSet<String>> fieldReadsDifference =
-        Maps.difference(methodToFieldReads, other.methodToFieldReads);
+        Maps.difference(getMethodToFieldReads(), other.getMethodToFieldReads());
     if (!fieldReadsDifference.areEqual()) { // &&
       // !onlyGuardReadIsMissing(fieldReadsDifference.entriesOnlyOnLeft()))
       // {
@@ -156,7 +404,7 @@ public class SootClassJson {
     }
 
     MapDifference<String, HashSet<String>> fieldWritesDifference =
-        Maps.difference(methodToFieldWrites, other.methodToFieldWrites);
+        Maps.difference(getMethodToFieldWrites(), other.getMethodToFieldWrites());
     if (!fieldWritesDifference.areEqual()
         && !ignoreFieldWrites(fieldWritesDifference.entriesOnlyOnLeft())) {
       System.out.println("There are some differences in field writes.");
@@ -180,19 +428,19 @@ public class SootClassJson {
   }
 
   public HashMap<String, HashSet<String>> getMethodToObjectCreations() {
-    return methodToObjectCreations;
+    return decode(OBJECT_CREATIONS);
   }
 
   public HashMap<String, HashSet<String>> getMethodToInvocations() {
-    return methodToInvocations;
+    return decode(INVOCATIONS);
   }
 
   public HashMap<String, HashSet<String>> getMethodToFieldReads() {
-    return methodToFieldReads;
+    return decode(FIELD_READS);
   }
 
   public HashMap<String, HashSet<String>> getMethodToFieldWrites() {
-    return methodToFieldWrites;
+    return decode(FIELD_WRITES);
   }
 
   private boolean ignoreCalls(Map<String, HashSet<String>> callsDiff) {
@@ -0,0 +1,152 @@
+package averroes.util.json;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import soot.SootField;
+import soot.SootMethod;
+import soot.Type;
+
+/**
+ * A table that assigns integer ids to the strings a {@link SootClassJson} summary uses (method
+ * signatures, types, field names, callees), and to the facts built from those strings. A fact is a
+ * tuple of string ids. The strings of a Soot object are computed only the first time it is
+ * interned.
+ *
+ * <p>Each summary owns its table, so summaries built in different runs or on different threads
+ * never share one. The table is still safe to use from several threads, because a summary is built
+ * on one thread and written out by the {@link averroes.util.io.PrinterService} on another.
+ */
+public class StringTable {
+
+  // The id that stands for a missing string in a fact (e.g., the receiver of a dynamic invoke)
+  public static final int NONE = -1;
+
+  private final List<String> strings = new ArrayList<String>();
+  private final Map<String, Integer> stringIds = new HashMap<String, Integer>();
+
+  private final List<int[]> facts = new ArrayList<int[]>();
+  private final Map<List<Integer>, Integer> factIds = new HashMap<List<Integer>, Integer>();
+
+  private final Map<Type, Integer> types = new HashMap<Type, Integer>();
+  private final Map<SootMethod, Integer> signatures = new HashMap<SootMethod, Integer>();
+  private final Map<SootMethod, Integer> callees = new HashMap<SootMethod, Integer>();
+  private final Map<SootField, Integer> fields = new HashMap<SootField, Integer>();
+
+  /**
+   * Get the id of the given string, adding it to the table if necessary.
+   *
+   * @param string
+   * @return
+   */
+  public synchronized int intern(String string) {
+    Integer id = stringIds.get(string);
+    if (id == null) {
+      id = strings.size();
+      strings.add(string);
+      stringIds.put(string, id);
+    }
+    return id;
+  }
+
+  /**
+   * Get the string with the given id.
+   *
+   * @param id
+   * @return
+   */
+  public synchronized String get(int id) {
+    return strings.get(id);
+  }
+
+  /**
+   * Get the id of the textual representation of the given type.
+   *
+   * @param type
+   * @return
+   */
+  public synchronized int id(Type type) {
+    return intern(types, type, type::toString);
+  }
+
+  /**
+   * Get the id of the signature of the given method.
+   *
+   * @param method
+   * @return
+   */
+  public synchronized int signature(SootMethod method) {
+    return intern(signatures, method, method::getSignature);
+  }
+
+  /**
+   * Get the id of the textual representation of the given method as the callee of an invocation
+   * (i.e., its declaring class, return type, and name).
+   *
+   * @param method
+   * @return
+   */
+  public synchronized int callee(SootMethod method) {
+    return intern(
+        callees,
+        method,
+        () ->
+            "<"
+                + method.getDeclaringClass()
+                + ": "
+                + method.getReturnType()
+                + " "
+                + method.getName());
+  }
+
+  /**
+   * Get the id of the name of the given field.
+   *
+   * @param field
+   * @return
+   */
+  public synchronized int name(SootField field) {
+    return intern(fields, field, field::getName);
+  }
+
+  /**
+   * Get the id of the fact made of the given string ids, adding it to the table if necessary.
+   *
+   * @param parts
+   * @return
+   */
+  public synchronized int fact(int... parts) {
+    List<Integer> key = new ArrayList<Integer>(parts.length);
+    Arrays.stream(parts).forEach(key::add);
+
+    Integer id = factIds.get(key);
+    if (id == null) {
+      id = facts.size();
+      facts.add(parts.clone());
+      factIds.put(key, id);
+    }
+    return id;
+  }
+
+  /**
+   * Get the string ids that make up the fact with the given id.
+   *
+   * @param fact
+   * @return
+   */
+  public synchronized int[] parts(int fact) {
+    return facts.get(fact).clone();
+  }
+
+  private <T> int intern(Map<T, Integer> cache, T key, Supplier<String> string) {
+    Integer id = cache.get(key);
+    if (id == null) {
+      id = intern(string.get());
+      cache.put(key, id);
+    }
+    return id;
+  }
+}
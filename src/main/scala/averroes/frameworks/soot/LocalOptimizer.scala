@@ -4,6 +4,8 @@ import soot.jimple._
 import soot._
 import soot.javaToJimple.LocalGenerator
 
+import java.util.stream.Collectors
+
 import scala.collection.mutable
 import scala.jdk.CollectionConverters._
 
@@ -39,6 +41,12 @@ object LocalOptimizer {
 
   case class MethodSummary(flowEdges: Set[(FlowNode, FlowNode)], calledMethods: Set[SootMethod])
 
+  /**
+   * Summarize the flow in the body of the given method. Resolving a field or method reference may
+   * add phantom members to the Scene, and computing the element type of an array may create a new
+   * array type. Summaries of different methods are computed in parallel, so they do that while
+   * holding the lock of the Scene, like every other parallel pass over the Scene.
+   */
   def summarize(method: SootMethod): MethodSummary = {
 
     val body = method.getActiveBody
@@ -50,20 +58,22 @@ object LocalOptimizer {
     def sourceNode(v: Value): FlowNode = v match {
       case ce: CastExpr => sourceNode(ce.getOp)
       case fr: InstanceFieldRef =>
-        edges.add(FieldReadReceiverNode(fr.getField), sourceNode(fr.getBase))
-        FieldReadValueNode(fr.getField)
+        val field = Scene.v.synchronized(fr.getField)
+        edges.add(FieldReadReceiverNode(field), sourceNode(fr.getBase))
+        FieldReadValueNode(field)
       case ar: ArrayRef =>
-        val elementType = ar.getType
+        val elementType = Scene.v.synchronized(ar.getType)
         edges.add(ArrayReadReceiverNode(elementType), sourceNode(ar.getBase))
         ArrayReadValueNode(elementType)
       case _ => ValueNode(v)
     }
     def targetNode(v: Value): FlowNode = v match {
       case fr: InstanceFieldRef =>
-        edges.add(FieldWriteReceiverNode(fr.getField), sourceNode(fr.getBase))
-        FieldWriteValueNode(fr.getField)
+        val field = Scene.v.synchronized(fr.getField)
+        edges.add(FieldWriteReceiverNode(field), sourceNode(fr.getBase))
+        FieldWriteValueNode(field)
       case ar: ArrayRef =>
-        val elementType = ar.getType
+        val elementType = Scene.v.synchronized(ar.getType)
         edges.add(ArrayWriteReceiverNode(elementType), sourceNode(ar.getBase))
         ArrayWriteValueNode(elementType)
       case _ => ValueNode(v)
@@ -82,7 +92,7 @@ object LocalOptimizer {
       u match {
         case s: Stmt if s.containsInvokeExpr =>
           val ie = s.getInvokeExpr
-          val target = ie.getMethod
+          val target = Scene.v.synchronized(ie.getMethod)
           calledMethods.add(target)
           for(i <- 0 until ie.getArgCount) {
             edges.add(ArgumentNode(target, i), sourceNode(ie.getArg(i)))
@@ -104,17 +114,107 @@ object LocalOptimizer {
     MethodSummary(edges.toSet, calledMethods.toSet)
   }
 
+  /**
+   * Remove the locals from the summary. The result has an edge (t, s) between two non-local nodes
+   * iff the summary has a path from s to t whose intermediate nodes are all locals.
+   *
+   * The flow nodes are interned to ints and the strongly connected components of the locals are
+   * collapsed. The non-local nodes reachable from each component are then computed once, in reverse
+   * topological order, and shared by all the non-local sources that flow into that component.
+   */
   def optimize(summary: MethodSummary): MethodSummary = {
-    val edges = mutable.Set[(FlowNode, FlowNode)]() ++ summary.flowEdges
-    val targets = summary.flowEdges.map(_._1)
-    val sources = summary.flowEdges.map(_._2)
-    def flowNodes[T <: FlowNode](nodes: Set[T]): Set[FlowNode] = Set() ++ nodes
-    val locals = (flowNodes(targets) intersect flowNodes(sources)).filter(_.isLocal)
-    for(k <- locals; i <- sources; j <- targets) {
-      if(edges(k,i) && edges(j,k)) edges.add(j,i)
+    val ids = mutable.HashMap[FlowNode, Int]()
+    val nodes = mutable.ArrayBuffer[FlowNode]()
+    val succs = mutable.ArrayBuffer[mutable.ArrayBuffer[Int]]()
+    def intern(node: FlowNode): Int = ids.getOrElseUpdate(node, {
+      nodes += node
+      succs += mutable.ArrayBuffer[Int]()
+      nodes.size - 1
+    })
+    for ((t, s) <- summary.flowEdges) {
+      val source = intern(s)
+      val target = intern(t)
+      succs(source) += target
+    }
+
+    val isLocal = nodes.map(_.isLocal).toArray
+    val (component, componentCount) = localComponents(isLocal, succs)
+
+    val members = Array.fill(componentCount)(mutable.ArrayBuffer[Int]())
+    for (v <- nodes.indices if isLocal(v)) members(component(v)) += v
+
+    // Components reachable from a component always have smaller numbers
+    val reach = Array.fill(componentCount)(mutable.BitSet())
+    for (c <- 0 until componentCount; v <- members(c); w <- succs(v)) {
+      if (!isLocal(w)) reach(c) += w
+      else if (component(w) != c) reach(c) |= reach(component(w))
+    }
+
+    val edges = mutable.Set[(FlowNode, FlowNode)]()
+    for (s <- nodes.indices if !isLocal(s); t <- succs(s)) {
+      if (!isLocal(t)) edges.add((nodes(t), nodes(s)))
+      else for (r <- reach(component(t))) edges.add((nodes(r), nodes(s)))
     }
-    val noLocals = edges.filterNot{case (t,s) => t.isLocal || s.isLocal}
-    MethodSummary(noLocals.toSet, summary.calledMethods)
+    MethodSummary(edges.toSet, summary.calledMethods)
+  }
+
+  /**
+   * Find the strongly connected components of the subgraph induced by the local nodes, using an
+   * iterative version of Tarjan's algorithm so that large bodies do not overflow the stack.
+   * Components are numbered in reverse topological order. Non-local nodes are in component -1.
+   */
+  private def localComponents(isLocal: Array[Boolean],
+                              succs: mutable.ArrayBuffer[mutable.ArrayBuffer[Int]]): (Array[Int], Int) = {
+    val n = isLocal.length
+    val component = Array.fill(n)(-1)
+    val index = Array.fill(n)(-1)
+    val lowLink = new Array[Int](n)
+    val onStack = new Array[Boolean](n)
+    val stack = mutable.ArrayBuffer[Int]()
+    val work = mutable.ArrayBuffer[(Int, Int)]()
+    var nextIndex = 0
+    var count = 0
+
+    def visit(v: Int): scala.Unit = {
+      index(v) = nextIndex
+      lowLink(v) = nextIndex
+      nextIndex += 1
+      stack += v
+      onStack(v) = true
+      work += ((v, 0))
+    }
+
+    for (root <- 0 until n if isLocal(root) && index(root) < 0) {
+      visit(root)
+      while (work.nonEmpty) {
+        val (v, i) = work.last
+        if (i < succs(v).size) {
+          work(work.size - 1) = (v, i + 1)
+          val w = succs(v)(i)
+          if (isLocal(w)) {
+            if (index(w) < 0) visit(w)
+            else if (onStack(w)) lowLink(v) = math.min(lowLink(v), index(w))
+          }
+        } else {
+          work.remove(work.size - 1)
+          if (work.nonEmpty) {
+            val u = work.last._1
+            lowLink(u) = math.min(lowLink(u), lowLink(v))
+          }
+          if (lowLink(v) == index(v)) {
+            var w = -1
+            while (w != v) {
+              w = stack.remove(stack.size - 1)
+              onStack(w) = false
+              component(w) = count
+            }
+            count += 1
+          }
+        }
+      }
+    }
+
+    (component, count)
   }
 
   def synthesize(method: SootMethod, summary: MethodSummary): scala.Unit = {
@@ -265,21 +365,24 @@ object LocalOptimizer {
       units.add(Jimple.v().newReturnVoidStmt())
   }
 
+  /**
+   * Optimize the bodies of all the application methods. Summarizing and optimizing a method only
+   * read its own body, so they run in parallel. Synthesizing creates locals and types, so it runs
+   * sequentially, in the same order as before, which keeps the output identical to a sequential run.
+   */
   def apply(): scala.Unit = {
-    for (cls <- Scene.v.getApplicationClasses.asScala) {
-      apply(cls)
+    val methods = for {
+      cls <- Scene.v.getApplicationClasses.asScala.toSeq
+      method <- cls.getMethods.asScala
+      if method.hasActiveBody
+    } yield method
+
+    val summaries = methods.asJava.parallelStream()
+      .map[MethodSummary](method => optimize(summarize(method)))
+      .collect(Collectors.toList[MethodSummary]())
+
+    for ((method, summary) <- methods.zip(summaries.asScala)) {
+      synthesize(method, summary)
     }
   }
-
-  private def apply(cls: SootClass): scala.Unit = {
-    for (method <- cls.getMethods.asScala) {
-      if (method.hasActiveBody) apply(method)
-    }
-  }
-
-  private def apply(method: SootMethod): scala.Unit = {
-    val summary = summarize(method)
-    val optimizedSummary = optimize(summary)
-    synthesize(method, optimizedSummary)
-  }
 }
@@ -1,15 +1,24 @@
 package averroes.frameworks.soot;
 
+import averroes.frameworks.options.FrameworksOptions;
 import averroes.soot.SootSceneUtil;
+import averroes.util.Metrics;
 import averroes.util.io.Printers;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import soot.ArrayType;
 import soot.Body;
 import soot.Local;
 import soot.PackManager;
+import soot.PhaseOptions;
 import soot.RefType;
 import soot.Scene;
 import soot.SootClass;
@@ -35,6 +44,40 @@ import soot.jimple.toolkits.invoke.SiteInliner;
 
 public class Optimizer {
   static final boolean DEBUG = false;
+  static final String INLINE_PHASE = "wjtp.si";
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+
+  private final int maxInlineRounds;
+  private final int inlineGrowthBudget;
+
+  /**
+   * Create an optimizer whose number of inlining rounds and inlining growth are capped by the
+   * command-line options.
+   */
+  public Optimizer() {
+    this(FrameworksOptions.getMaxInlineRounds(), FrameworksOptions.getInlineGrowthBudget());
+  }
+
+  /**
+   * Create an optimizer that runs at most the given number of inlining rounds.
+   *
+   * @param maxInlineRounds
+   */
+  public Optimizer(int maxInlineRounds) {
+    this(maxInlineRounds, -1);
+  }
+
+  /**
+   * Create an optimizer that runs at most the given number of inlining rounds, which add at most
+   * the given number of units to the scene in total (-1 for no limit).
+   *
+   * @param maxInlineRounds
+   * @param inlineGrowthBudget
+   */
+  public Optimizer(int maxInlineRounds, int inlineGrowthBudget) {
+    this.maxInlineRounds = maxInlineRounds;
+    this.inlineGrowthBudget = inlineGrowthBudget;
+  }
 
   /** Return true if it is possible for the application to override this library method. */
   public static boolean isOverridable(SootMethod method) {
@@ -50,12 +93,7 @@ public class Optimizer {
   }
 
   public void optimize() {
-    for (int i = 0; i < 5; i++) {
-      new CHABuilder().run();
-      ((Transform) PackManager.v().getPhase("wjtp.si")).apply();
-    }
-
-    new CHABuilder().run();
+    inlineToFixpoint();
 
     removeUnreachableMethods();
 
@@ -68,6 +106,54 @@ public class Optimizer {
     validate();
   }
 
+  /**
+   * Inline until a round inlines nothing, or the maximum number of rounds is reached. The call
+   * graph is built once, then only the call sites of the methods changed by each round are resolved
+   * again. Inlining only changes method bodies, so the dispatch targets stay valid across rounds.
+   * The growth budget is shared by all the rounds.
+   */
+  void inlineToFixpoint() {
+    CHABuilder cha = new CHABuilder(new DispatchCache());
+    cha.run();
+
+    Transform inline = inlineTransform();
+    StaticInliner inliner = (StaticInliner) inline.getTransformer();
+
+    int budget = inlineGrowthBudget;
+    for (int round = 1; round <= maxInlineRounds; round++) {
+      PhaseOptions.v().setPhaseOption(inline, "growth-budget:" + budget);
+      inline.apply();
+      Metrics.add("inline.growth", inliner.getGrowth());
+      if (budget >= 0) {
+        budget = Math.max(0, budget - inliner.getGrowth());
+      }
+
+      Set<SootMethod> changed = inliner.getChangedMethods();
+      logger.info("Inlining round " + round + " changed " + changed.size() + " method(s)");
+
+      if (changed.isEmpty()) {
+        return;
+      }
+
+      cha.update(changed);
+    }
+
+    logger.info("Inlining stopped after the maximum of " + maxInlineRounds + " round(s)");
+  }
+
+  /**
+   * Get the static inlining phase (wjtp.si), registering it in the whole-program pack the first
+   * time it is needed.
+   *
+   * @return
+   */
+  static Transform inlineTransform() {
+    if (!PackManager.v().hasPhase(INLINE_PHASE)) {
+      PackManager.v().getPack("wjtp").add(new StaticInlineTransform(INLINE_PHASE));
+    }
+    return (Transform) PackManager.v().getPhase(INLINE_PHASE);
+  }
+
   public void removeUnreachableMethods() {
     Set<String> signaturesToBeKept = new HashSet();
     signaturesToBeKept.add("void writeObject(java.io.ObjectOutputStream)");
@@ -127,43 +213,30 @@ public class Optimizer {
     return false;
   }
 
+  /**
+   * Fold every empty class that is not public into its superclass. Folding a class does not change
+   * which other classes are empty, so the complete mapping is computed first, following chains of
+   * classes that fold into other folded classes, and then applied to the scene in one pass.
+   */
   public void replaceEmptyClasses() {
-    for (SootClass cls : new ArrayList<SootClass>(SootSceneUtil.getClasses())) {
+    Map<SootClass, SootClass> replacements = new LinkedHashMap<SootClass, SootClass>();
+    for (SootClass cls : SootSceneUtil.getSortedClasses()) {
       if (!cls.isPublic() && !hasMethodsOrFields(cls)) {
-        if (DEBUG) System.out.println("folding class " + cls + " into " + cls.getSuperclass());
-        inlineConstructorCalls(cls);
-        new ClassReplacer(cls, cls.getSuperclass()).apply();
+        replacements.put(cls, cls.getSuperclass());
       }
     }
-  }
 
-  public void inlineConstructorCalls(SootClass toRemove) {
-    //        System.out.println("inlining constructors of empty class "+toRemove);
-
-    for (SootClass cls : SootSceneUtil.getClasses()) {
-      for (SootMethod method : cls.getMethods()) {
-        if (method.isConcrete()) {
-          ArrayList<Stmt> sites = new ArrayList<Stmt>();
-          ArrayList<SootMethod> targets = new ArrayList<SootMethod>();
-          Body body = method.getActiveBody();
-          for (Unit u : body.getUnits()) {
-            Stmt s = (Stmt) u;
-            if (s.containsInvokeExpr()) {
-              InvokeExpr ie = s.getInvokeExpr();
-              SootMethod target = ie.getMethod();
-              if (target.isConstructor() && target.getDeclaringClass().equals(toRemove)) {
-                sites.add(s);
-                targets.add(target);
-              }
-            }
-          }
-          for (int i = 0; i < sites.size(); i++) {
-            Printers.logInliningInfo(
-                "inlining constructor call " + sites.get(i) + " into " + method, method);
-            SiteInliner.inlineSite(targets.get(i), sites.get(i), method);
-          }
-        }
+    for (Map.Entry<SootClass, SootClass> entry : replacements.entrySet()) {
+      SootClass replacement = entry.getValue();
+      while (replacements.containsKey(replacement)) {
+        replacement = replacements.get(replacement);
       }
+      entry.setValue(replacement);
+      if (DEBUG) System.out.println("folding class " + entry.getKey() + " into " + replacement);
+    }
+
+    if (!replacements.isEmpty()) {
+      new ClassReplacer(replacements).apply();
     }
   }
 
@@ -221,20 +294,25 @@ public class Optimizer {
 }
 
 class ClassReplacer {
-  SootClass original;
-  SootClass replacement;
+  Map<SootClass, SootClass> replacements;
+  Map<String, SootClass> replacementsByName = new HashMap<String, SootClass>();
 
-  ClassReplacer(SootClass original, SootClass replacement) {
-    this.original = original;
-    this.replacement = replacement;
+  ClassReplacer(Map<SootClass, SootClass> replacements) {
+    this.replacements = replacements;
+    replacements.forEach(
+        (original, replacement) -> replacementsByName.put(original.getName(), replacement));
   }
 
   private Type replacementType(Type originalType) {
-    if (original.getType().equals(originalType)) return replacement.getType();
-    else if (originalType instanceof ArrayType) {
+    if (originalType instanceof RefType) {
+      SootClass replacement = replacementsByName.get(((RefType) originalType).getClassName());
+      if (replacement != null) return replacement.getType();
+    } else if (originalType instanceof ArrayType) {
       ArrayType arrayType = (ArrayType) originalType;
-      if (original.getType().equals(arrayType.getArrayElementType()))
-        return ArrayType.v(replacement.getType(), arrayType.numDimensions);
+      Type baseType = replacementType(arrayType.baseType);
+      if (baseType != null) {
+        return ArrayType.v(baseType, arrayType.numDimensions);
+      }
     }
     return null;
   }
@@ -246,23 +324,84 @@ class ClassReplacer {
   }
 
   private SootClass replacementOrOriginal(SootClass originalClass) {
-    if (original.equals(originalClass)) return replacement;
-    else return originalClass;
+    return replacements.getOrDefault(originalClass, originalClass);
   }
 
+  /**
+   * Replace the folded classes in the scene. The method bodies are rewritten first, after inlining
+   * the calls to the constructors of the folded classes, which needs those classes to still be in
+   * the scene. The class hierarchy and the signatures are rewritten afterwards. Everything runs one
+   * method at a time, since inlining resolves methods and changes bodies, locals, and types that
+   * Soot shares among all classes.
+   */
   void apply() {
-    Scene.v().removeClass(original);
-    for (SootClass cls : SootSceneUtil.getClasses()) {
-      apply(cls);
+    List<SootClass> classes =
+        SootSceneUtil.getSortedClasses().stream()
+            .filter(cls -> !replacements.containsKey(cls))
+            .collect(Collectors.toList());
+
+    classes.stream()
+        .flatMap(cls -> cls.getMethods().stream())
+        .filter(SootMethod::hasActiveBody)
+        .forEach(
+            method -> {
+              inlineConstructorCalls(method);
+              apply(method.getActiveBody());
+            });
+
+    replacements.keySet().forEach(Scene.v()::removeClass);
+    classes.forEach(this::apply);
+  }
+
+  /**
+   * Inline the calls to the constructors of the folded classes in the given method. The inlined
+   * code calls the constructor of the superclass, which might be folded too, so repeat until no
+   * such calls are left.
+   *
+   * @param method
+   */
+  void inlineConstructorCalls(SootMethod method) {
+    Body body = method.getActiveBody();
+    Set<Stmt> failed = new HashSet<Stmt>();
+
+    while (true) {
+      List<Stmt> sites = new ArrayList<Stmt>();
+      for (Unit u : body.getUnits()) {
+        Stmt s = (Stmt) u;
+        if (s.containsInvokeExpr() && !failed.contains(s)) {
+          SootMethodRef methodRef = s.getInvokeExpr().getMethodRef();
+          if (methodRef.name().equals(SootMethod.constructorName)
+              && replacements.containsKey(methodRef.declaringClass())) {
+            sites.add(s);
+          }
+        }
+      }
+
+      if (sites.isEmpty()) {
+        return;
+      }
+
+      for (Stmt site : sites) {
+        Printers.logInliningInfo("inlining constructor call " + site + " into " + method, method);
+        SootMethod target = site.getInvokeExpr().getMethodRef().resolve();
+        if (SiteInliner.inlineSite(target, site, method) == null) {
+          failed.add(site);
+        }
+      }
     }
   }
 
   void apply(SootClass cls) {
-    if (cls.hasOuterClass() && original.equals(cls.getOuterClass())) cls.setOuterClass(replacement);
-    if (original.equals(cls.getSuperclass())) cls.setSuperclass(replacement);
-    if (cls.implementsInterface(original.getName())) {
-      cls.removeInterface(original);
-      if (!cls.implementsInterface(replacement.getName())) cls.addInterface(replacement);
+    if (cls.hasOuterClass() && replacements.containsKey(cls.getOuterClass()))
+      cls.setOuterClass(replacements.get(cls.getOuterClass()));
+    if (replacements.containsKey(cls.getSuperclass()))
+      cls.setSuperclass(replacements.get(cls.getSuperclass()));
+    for (SootClass original : new ArrayList<SootClass>(cls.getInterfaces())) {
+      SootClass replacement = replacements.get(original);
+      if (replacement != null) {
+        cls.removeInterface(original);
+        if (!cls.implementsInterface(replacement.getName())) cls.addInterface(replacement);
+      }
     }
     for (SootMethod method : cls.getMethods()) {
       apply(method);
@@ -273,19 +412,18 @@ class ClassReplacer {
   }
 
   void apply(SootMethod method) {
-    if (method.throwsException(original)) {
-      method.removeException(original);
-      method.addExceptionIfAbsent(replacement);
+    for (SootClass original : new ArrayList<SootClass>(method.getExceptions())) {
+      SootClass replacement = replacements.get(original);
+      if (replacement != null) {
+        method.removeException(original);
+        method.addExceptionIfAbsent(replacement);
+      }
     }
 
     Type type = replacementType(method.getReturnType());
     if (type != null) method.setReturnType(type);
 
     method.setParameterTypes(apply(method.getParameterTypes()));
-
-    if (method.hasActiveBody()) {
-      apply(method.getActiveBody());
-    }
   }
 
   List<Type> apply(List<Type> types) {
@@ -312,7 +450,7 @@ class ClassReplacer {
   }
 
   void apply(Trap trap) {
-    if (trap.getException().equals(original)) trap.setException(replacement);
+    trap.setException(replacementOrOriginal(trap.getException()));
   }
 
   void apply(ValueBox box) {
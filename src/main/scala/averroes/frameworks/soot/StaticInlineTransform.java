@@ -9,7 +9,7 @@ public class StaticInlineTransform extends Transform {
 
   @Override
   public String getDeclaredOptions() {
-    return "enabled rerun-jb insert-null-checks insert-redundant-casts allowed-modifier-changes expansion-factor max-container-size max-inlinee-size ";
+    return "enabled rerun-jb insert-null-checks insert-redundant-casts allowed-modifier-changes expansion-factor max-container-size max-inlinee-size growth-budget ";
   }
 
   @Override
@@ -17,6 +17,6 @@ public class StaticInlineTransform extends Transform {
     //        return "enabled:true rerun-jb:true insert-null-checks:true insert-redundant-casts:true
     // allowed-modifier-changes:unsafe expansion-factor:3 max-container-size:5000
     // max-inlinee-size:20 ";
-    return "enabled:true rerun-jb:true insert-null-checks:true insert-redundant-casts:true allowed-modifier-changes:unsafe expansion-factor:30 max-container-size:50000 max-inlinee-size:50000 ";
+    return "enabled:true rerun-jb:true insert-null-checks:true insert-redundant-casts:true allowed-modifier-changes:unsafe expansion-factor:30 max-container-size:50000 max-inlinee-size:50000 growth-budget:-1 ";
   }
 }
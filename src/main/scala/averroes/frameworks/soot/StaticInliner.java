@@ -29,15 +29,16 @@ import averroes.soot.SootSceneUtil;
 import averroes.util.io.Printers;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 import soot.G;
-import soot.Hierarchy;
 import soot.PackManager;
 import soot.PhaseOptions;
 import soot.Scene;
@@ -57,7 +58,11 @@ import soot.jimple.toolkits.invoke.SiteInliner;
 import soot.options.Options;
 import soot.tagkit.Host;
 
-/** Uses the Scene's currently-active InvokeGraph to inline monomorphic call sites. */
+/**
+ * Uses the Scene's currently-active InvokeGraph to inline monomorphic call sites. The sites are
+ * inlined in the order of their estimated benefit, i.e., the call edges and methods they eliminate
+ * per unit of growth, for as long as the size limits and the growth budget allow.
+ */
 public class StaticInliner extends SceneTransformer {
   //    public StaticInliner( Singletons.Global g ) {}
   //    public static StaticInliner v() { return G.v().soot_jimple_toolkits_invoke_StaticInliner();
@@ -66,7 +71,35 @@ public class StaticInliner extends SceneTransformer {
   private final HashMap<SootMethod, Integer> methodToOriginalSize =
       new HashMap<SootMethod, Integer>();
 
+  // The current size of each method body, updated after each inlining
+  private final HashMap<SootMethod, Integer> methodToSize = new HashMap<SootMethod, Integer>();
+
+  private final Set<SootMethod> changedMethods = new HashSet<SootMethod>();
+
+  private int growth = 0;
+
+  /**
+   * Get the containers whose bodies were changed by the most recent application of this transformer.
+   *
+   * @return
+   */
+  public Set<SootMethod> getChangedMethods() {
+    return Collections.unmodifiableSet(changedMethods);
+  }
+
+  /**
+   * Get the number of units the most recent application of this transformer added to the scene.
+   *
+   * @return
+   */
+  public int getGrowth() {
+    return growth;
+  }
+
   protected void internalTransform(String phaseName, Map options) {
+    changedMethods.clear();
+    growth = 0;
+
     Filter explicitInvokesFilter = new Filter(new ExplicitEdgesPred());
     if (Options.v().verbose()) G.v().out.println("[] Inlining methods...");
 
@@ -78,14 +111,15 @@ public class StaticInliner extends SceneTransformer {
     float expansionFactor = PhaseOptions.getFloat(options, "expansion-factor");
     int maxContainerSize = PhaseOptions.getInt(options, "max-container-size");
     int maxInlineeSize = PhaseOptions.getInt(options, "max-inlinee-size");
+    int growthBudget = PhaseOptions.getInt(options, "growth-budget");
     boolean rerunJb = PhaseOptions.getBoolean(options, "rerun-jb");
 
-    HashMap instanceToStaticMap = new HashMap();
-
     CallGraph cg = Scene.v().getCallGraph();
-    Hierarchy hierarchy = Scene.v().getActiveHierarchy();
 
-    ArrayList<List<Host>> sitesToInline = new ArrayList<List<Host>>();
+    PriorityQueue<Site> sitesToInline =
+        new PriorityQueue<Site>(
+            Comparator.comparingDouble((Site site) -> -site.priority)
+                .thenComparingInt(site -> site.order));
 
     computeAverageMethodSizeAndSaveOriginalSizes();
     // Visit each potential site in reverse pseudo topological order.
@@ -126,48 +160,52 @@ public class StaticInliner extends SceneTransformer {
           if (!InlinerSafetyManager.ensureInlinability(target, s, container, modifierOptions))
             continue;
 
-          List<Host> l = new ArrayList<Host>();
-          l.add(target);
-          l.add(s);
-          l.add(container);
-
-          sitesToInline.add(l);
+          Site site = new Site(target, s, container, sitesToInline.size());
+          site.priority = priority(site, cg, explicitInvokesFilter);
+          sitesToInline.add(site);
         }
       }
     }
 
     Set<SootMethod> containers = new HashSet<SootMethod>();
 
-    // Proceed to inline the sites, one at a time, keeping track of
-    // expansion rates.
-    {
-      Iterator<List<Host>> sitesIt = sitesToInline.iterator();
-      while (sitesIt.hasNext()) {
-        List l = sitesIt.next();
-        SootMethod inlinee = (SootMethod) l.get(0);
-        int inlineeSize = inlinee.retrieveActiveBody().getUnits().size();
+    // Proceed to inline the sites, most beneficial first, keeping track of expansion rates and the
+    // growth budget.
+    while (!sitesToInline.isEmpty()) {
+      Site site = sitesToInline.poll();
+
+      // Inlining into the target since this site was queued makes it less beneficial
+      double priority = priority(site, cg, explicitInvokesFilter);
+      if (priority < site.priority) {
+        site.priority = priority;
+        sitesToInline.add(site);
+        continue;
+      }
 
-        Stmt invokeStmt = (Stmt) l.get(1);
+      int inlineeSize = methodToSize.get(site.target);
+      int containerSize = methodToSize.get(site.container);
 
-        SootMethod container = (SootMethod) l.get(2);
-        int containerSize = container.retrieveActiveBody().getUnits().size();
+      if (inlineeSize + containerSize > maxContainerSize) continue;
 
-        if (inlineeSize + containerSize > maxContainerSize) continue;
+      if (inlineeSize > maxInlineeSize) continue;
 
-        if (inlineeSize > maxInlineeSize) continue;
+      if (inlineeSize + containerSize
+          > expansionFactor * methodToOriginalSize.get(site.container).intValue()) continue;
 
-        if (inlineeSize + containerSize
-            > expansionFactor * methodToOriginalSize.get(container).intValue()) continue;
+      if (growthBudget >= 0 && growth + inlineeSize > growthBudget) continue;
 
-        if (InlinerSafetyManager.ensureInlinability(
-            inlinee, invokeStmt, container, modifierOptions)) {
-          // Not that it is important to check right before inlining if the site is still valid.
+      if (InlinerSafetyManager.ensureInlinability(
+          site.target, site.stmt, site.container, modifierOptions)) {
+        // Not that it is important to check right before inlining if the site is still valid.
 
-          SiteInliner.inlineSite(inlinee, invokeStmt, container, options);
-          Printers.logInliningInfo("inlined " + inlinee + " into " + container, container);
-          // System.out.println("inlined "+inlinee+" into "+container);
-          containers.add(container);
-        }
+        SiteInliner.inlineSite(site.target, site.stmt, site.container, options);
+        Printers.logInliningInfo(
+            "inlined " + site.target + " into " + site.container, site.container);
+        containers.add(site.container);
+
+        int size = site.container.getActiveBody().getUnits().size();
+        growth += Math.max(0, size - containerSize);
+        methodToSize.put(site.container, size);
       }
     }
 
@@ -176,6 +214,31 @@ public class StaticInliner extends SceneTransformer {
         PackManager.v().getPack("jb").apply(container.getActiveBody());
       }
     }
+
+    changedMethods.addAll(containers);
+  }
+
+  /**
+   * Estimate the benefit of inlining the given site per unit of growth. Inlining eliminates the
+   * call edge of the site. If the site is the only caller of the target, the target itself becomes
+   * unreachable and is removed. Its allocation sites are not counted, because the inlined copy
+   * keeps them.
+   *
+   * @param site
+   * @param cg
+   * @param explicitInvokesFilter
+   * @return
+   */
+  private double priority(Site site, CallGraph cg, Filter explicitInvokesFilter) {
+    double benefit = 1;
+
+    Iterator<?> callers = explicitInvokesFilter.wrap(cg.edgesInto(site.target));
+    callers.next();
+    if (!callers.hasNext()) {
+      benefit += 1;
+    }
+
+    return benefit / Math.max(1, methodToSize.get(site.target) - 1);
   }
 
   private void computeAverageMethodSizeAndSaveOriginalSizes() {
@@ -192,10 +255,30 @@ public class StaticInliner extends SceneTransformer {
           int size = m.retrieveActiveBody().getUnits().size();
           sum += size;
           methodToOriginalSize.put(m, new Integer(size));
+          methodToSize.put(m, size);
           count++;
         }
       }
     }
     if (count == 0) return;
   }
+
+  /** A call site that can be inlined, along with its priority. */
+  private static class Site {
+    final SootMethod target;
+    final Stmt stmt;
+    final SootMethod container;
+
+    // The position of the site in reverse pseudo topological order, which breaks ties
+    final int order;
+
+    double priority;
+
+    Site(SootMethod target, Stmt stmt, SootMethod container, int order) {
+      this.target = target;
+      this.stmt = stmt;
+      this.container = container;
+      this.order = order;
+    }
+  }
 }
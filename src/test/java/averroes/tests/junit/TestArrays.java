@@ -27,6 +27,11 @@ public class TestArrays {
     Tests.runXta("Arrays", guard, whole);
   }
 
+  @Test
+  public void testArraysCfa() {
+    Tests.runCfa("Arrays", guard, whole);
+  }
+
   @Test
   public void testArrays2Rta() {
     Tests.runRta("Arrays2", guard, whole);
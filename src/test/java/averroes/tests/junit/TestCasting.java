@@ -24,4 +24,9 @@ public class TestCasting {
   public void testCastingXta() {
     Tests.runXta(testCase, guard, whole);
   }
+
+  @Test
+  public void testCastingCfa() {
+    Tests.runCfa(testCase, guard, whole);
+  }
 }
@@ -24,4 +24,9 @@ public class TestExample {
   public void testExampleXta() {
     Tests.runXta(testCase, guard, whole);
   }
+
+  @Test
+  public void testExampleCfa() {
+    Tests.runCfa(testCase, guard, whole);
+  }
 }
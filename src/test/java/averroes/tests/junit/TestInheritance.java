@@ -24,4 +24,9 @@ public class TestInheritance {
   public void testInheritanceXta() {
     Tests.runXta(testCase, guard, whole);
   }
+
+  @Test
+  public void testInheritanceCfa() {
+    Tests.runCfa(testCase, guard, whole);
+  }
 }
@@ -1,6 +1,12 @@
 package averroes.tests.junit;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import averroes.frameworks.analysis.RtaJimpleBody;
+import averroes.frameworks.analysis.XtaJimpleBody;
 import averroes.tests.CommonOptions;
+import averroes.util.Metrics;
 import averroes.util.io.Paths;
 import org.junit.Before;
 import org.junit.Test;
@@ -24,4 +30,51 @@ public class TestLinkedList {
   public void testLinkedListXta() {
     Tests.runXta(testCase, guard, whole);
   }
+
+  @Test
+  public void testLinkedListCfa() {
+    Tests.runCfa(testCase, guard, whole);
+  }
+
+  @Test
+  public void testLinkedListRtaClassFiles() {
+    Tests.analyze(testCase, RtaJimpleBody.name);
+    Tests.compareWithSerialClassFiles();
+  }
+
+  @Test
+  public void testLinkedListXtaClassFiles() {
+    Tests.analyze(testCase, XtaJimpleBody.name);
+    Tests.compareWithSerialClassFiles();
+  }
+
+  @Test
+  public void testLinkedListXtaCheckFacts() {
+    Tests.runXta(testCase, guard, whole, "-f", "check");
+    assertEquals(0, Metrics.getCount("facts.mismatches"));
+  }
+
+  @Test
+  public void testLinkedListXtaBytecodeFacts() {
+    Tests.runXta(testCase, guard, whole, "-f", "bytecode");
+  }
+
+  @Test
+  public void testLinkedListXtaShareSets() {
+    Tests.analyze(testCase, XtaJimpleBody.name);
+    long setM = Metrics.getCount("xta.setM");
+
+    // Every method that uses a set_m field either adds one or shares one added before
+    Tests.analyze(testCase, XtaJimpleBody.name, "-x");
+    assertEquals(setM, Metrics.getCount("xta.setM") + Metrics.getCount("xta.sharedSetM"));
+  }
+
+  @Test
+  public void testLinkedListInlineGrowthBudget() {
+    Tests.analyze(testCase, RtaJimpleBody.name, "-O");
+    assertTrue(Metrics.getCount("inline.growth") > 0);
+
+    Tests.analyze(testCase, RtaJimpleBody.name, "-O", "-l", "0");
+    assertEquals(0, Metrics.getCount("inline.growth"));
+  }
 }
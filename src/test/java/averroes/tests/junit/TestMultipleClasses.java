@@ -24,4 +24,9 @@ public class TestMultipleClasses {
   public void testMultipleClassesXta() {
     Tests.runXta(testCase, guard, whole);
   }
+
+  @Test
+  public void testMultipleClassesCfa() {
+    Tests.runCfa(testCase, guard, whole);
+  }
 }
@@ -1,6 +1,9 @@
 package averroes.tests.junit;
 
+import static org.junit.Assert.assertEquals;
+
 import averroes.tests.CommonOptions;
+import averroes.util.Metrics;
 import averroes.util.io.Paths;
 import org.junit.Before;
 import org.junit.Test;
@@ -24,4 +27,11 @@ public class TestNestedClasses {
   public void testNestedClassesXta() {
     Tests.runXta(testCase, guard, whole);
   }
+
+  @Test
+  public void testNestedClassesXtaCheckFacts() {
+    // The constructors of the inner classes write this$0, which is not a fact in either source
+    Tests.runXta(testCase, guard, whole, "-f", "check");
+    assertEquals(0, Metrics.getCount("facts.mismatches"));
+  }
 }
@@ -24,4 +24,9 @@ public class TestPrivateClasses {
   public void testPrivateClassesXta() {
     Tests.runXta(testCase, guard, whole);
   }
+
+  @Test
+  public void testPrivateClassesCfa() {
+    Tests.runCfa(testCase, guard, whole);
+  }
 }
@@ -1,7 +1,15 @@
 package averroes.tests.junit;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import averroes.frameworks.analysis.RtaJimpleBody;
+import averroes.frameworks.analysis.XtaJimpleBody;
 import averroes.tests.CommonOptions;
+import averroes.util.Metrics;
 import averroes.util.io.Paths;
+import java.io.File;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -24,4 +32,90 @@ public class TestSimple {
   public void testSimpleXta() {
     Tests.runXta(testCase, guard, whole);
   }
+
+  @Test
+  public void testSimpleCfa() {
+    Tests.runCfa(testCase, guard, whole);
+  }
+
+  @Test
+  public void testSimpleXtaShareSets() {
+    // No two methods of A have the same footprint, so the model does not change
+    Tests.runXta(testCase, guard, whole, "-x");
+    assertEquals(0, Metrics.getCount("xta.sharedSetM"));
+  }
+
+  @Test
+  public void testSimpleXtaFieldSets() {
+    Tests.analyze(testCase, XtaJimpleBody.name);
+    assertEquals(0, Metrics.getCount("xta.setF"));
+
+    // One set_f field for each of the private fields f1, f2, and f3
+    Tests.analyze(testCase, XtaJimpleBody.name, "-e");
+    assertEquals(3, Metrics.getCount("xta.setF"));
+  }
+
+  @Test
+  public void testSimpleRtaLazyDependencies() {
+    // A only depends on the JRE, so its model does not change
+    Tests.runRta(testCase, guard, true, "-z");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSimpleLazyDependenciesRequireWhole() {
+    Tests.analyze(testCase, RtaJimpleBody.name, "-z");
+  }
+
+  @Test
+  public void testSimpleModelCacheOptions() {
+    String cache = new File(CommonOptions.getOutputDirectory(testCase), "cache").getPath();
+
+    Tests.analyze(testCase, RtaJimpleBody.name, "-c", cache);
+    assertEquals(0, Metrics.getCount("models.hits"));
+
+    Tests.analyze(testCase, RtaJimpleBody.name, "-c", cache);
+    assertTrue(Metrics.getCount("models.hits") > 0);
+    assertEquals(0, Metrics.getCount("models.misses"));
+
+    // The fact source affects the generated code, so it is part of the key
+    Tests.analyze(testCase, RtaJimpleBody.name, "-c", cache, "-f", "bytecode");
+    assertEquals(0, Metrics.getCount("models.hits"));
+    assertTrue(Metrics.getCount("models.misses") > 0);
+  }
+
+  @Test
+  public void testSimpleModelCacheOptimize() {
+    String cache = new File(CommonOptions.getOutputDirectory(testCase), "cache").getPath();
+
+    // The optimizer works across classes, so the models are neither stored nor taken from the store
+    Tests.analyze(testCase, RtaJimpleBody.name, "-O", "-c", cache);
+    assertEquals(0, Metrics.getCount("models.misses"));
+
+    Tests.analyze(testCase, RtaJimpleBody.name, "-O", "-c", cache);
+    assertEquals(0, Metrics.getCount("models.hits"));
+    assertEquals(0, Metrics.getCount("models.misses"));
+    assertFalse(new File(cache).exists());
+  }
+
+  @Test
+  public void testSimpleRtaCheckFacts() {
+    Tests.runRta(testCase, guard, whole, "-f", "check");
+    assertEquals(0, Metrics.getCount("facts.mismatches"));
+  }
+
+  @Test
+  public void testSimpleXtaCheckFacts() {
+    Tests.runXta(testCase, guard, whole, "-f", "check");
+    assertEquals(0, Metrics.getCount("facts.mismatches"));
+  }
+
+  @Test
+  public void testSimpleRtaBytecodeFacts() {
+    Tests.runRta(testCase, guard, whole, "-f", "bytecode");
+  }
+
+  @Test
+  public void testSimpleXtaBytecodeFacts() {
+    Tests.runXta(testCase, guard, whole, "-f", "bytecode");
+  }
 }
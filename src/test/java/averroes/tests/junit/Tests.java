@@ -1,30 +1,40 @@
 package averroes.tests.junit;
 
 import averroes.exceptions.AssertionError;
+import averroes.frameworks.analysis.CfaJimpleBody;
 import averroes.frameworks.analysis.RtaJimpleBody;
 import averroes.frameworks.analysis.XtaJimpleBody;
 import averroes.frameworks.options.FrameworksOptions;
+import averroes.frameworks.soot.ClassWriter;
 import averroes.soot.Names;
+import averroes.soot.SootSceneUtil;
 import averroes.tests.CommonOptions;
 import averroes.util.io.Printers.PrinterType;
 import averroes.util.json.JsonUtils;
 import averroes.util.json.SootClassJson;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import soot.SootClass;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.charset.Charset;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 public class Tests {
     private static final String xtaJimple = Names.XTA_CLASS.replace('.', '/') + ".jimple";
     private static final String rtaJimple = Names.RTA_CLASS.replace('.', '/') + ".jimple";
     private static final String xtaJson = Names.XTA_CLASS.replace('.', '/') + ".json";
     private static final String rtaJson = Names.RTA_CLASS.replace('.', '/') + ".json";
+    private static final String cfaJson = Names.CFA_CLASS.replace('.', '/') + ".json";
 
     public static void runRta(String testCase) {
         runRta(testCase, false);
@@ -34,10 +44,14 @@ public class Tests {
         runRta(testCase, guard, false);
     }
 
-    public static void runRta(String testCase, boolean guard, boolean whole) {
+    /**
+     * Run the RTA analysis on the given test case, and compare its output to the expected one.
+     * The extra arguments are passed on to Averroes, and must not change the generated model.
+     */
+    public static void runRta(String testCase, boolean guard, boolean whole, String... extraArgs) {
         System.out.println("======== Started testing " + testCase + " RTA ========");
         runExpectedOutputPrinter(testCase, RtaJimpleBody.name);
-        runAnalysis(testCase, RtaJimpleBody.name, guard, whole);
+        runAnalysis(testCase, RtaJimpleBody.name, guard, whole, extraArgs);
         cleanupFiles(testCase);
         compareJson();
         System.out.println("======== Finished testing " + testCase + " RTA ========");
@@ -51,15 +65,73 @@ public class Tests {
         runXta(testCase, guard, false);
     }
 
-    public static void runXta(String testCase, boolean guard, boolean whole) {
+    /**
+     * Run the XTA analysis on the given test case, and compare its output to the expected one.
+     * The extra arguments are passed on to Averroes, and must not change the generated model.
+     */
+    public static void runXta(String testCase, boolean guard, boolean whole, String... extraArgs) {
         System.out.println("======== Started testing " + testCase + " XTA ========");
         runExpectedOutputPrinter(testCase, XtaJimpleBody.name);
-        runAnalysis(testCase, XtaJimpleBody.name, guard, whole);
+        runAnalysis(testCase, XtaJimpleBody.name, guard, whole, extraArgs);
         cleanupFiles(testCase);
         compareJson();
         System.out.println("======== Finished testing " + testCase + " XTA ========");
     }
 
+    public static void runCfa(String testCase) {
+        runCfa(testCase, false);
+    }
+
+    public static void runCfa(String testCase, boolean guard) {
+        runCfa(testCase, guard, false);
+    }
+
+    /**
+     * Run the CFA analysis on the given test case, and compare its output to the expected one.
+     * The extra arguments are passed on to Averroes, and must not change the generated model.
+     */
+    public static void runCfa(String testCase, boolean guard, boolean whole, String... extraArgs) {
+        System.out.println("======== Started testing " + testCase + " CFA ========");
+        runExpectedOutputPrinter(testCase, CfaJimpleBody.name);
+        runAnalysis(testCase, CfaJimpleBody.name, guard, whole, extraArgs);
+        cleanupFiles(testCase);
+        compareJson();
+        System.out.println("======== Finished testing " + testCase + " CFA ========");
+    }
+
+    /**
+     * Run the given analysis on the given test case without comparing its output, e.g., to check the
+     * metrics of options that change the generated model.
+     */
+    public static void analyze(String testCase, String analysis, String... extraArgs) {
+        runAnalysis(testCase, analysis, false, false, extraArgs);
+    }
+
+    /**
+     * Check that every class in the placeholder framework JAR file of the last run is byte-for-byte
+     * the same as translating the class to bytecode on the current thread, i.e., that writing the
+     * class files in parallel does not change them.
+     */
+    public static void compareWithSerialClassFiles() {
+        try (ZipFile jar = new ZipFile(averroes.util.io.Paths.placeholderFrameworkJarFile())) {
+            for (SootClass cls : SootSceneUtil.getSortedClasses()) {
+                ZipEntry entry = jar.getEntry(cls.getName().replace('.', '/') + ".class");
+                if (entry == null) {
+                    throw new AssertionError("The class file of " + cls.getName() + " is missing!");
+                }
+
+                try (InputStream in = jar.getInputStream(entry)) {
+                    if (!Arrays.equals(IOUtils.toByteArray(in), ClassWriter.generateClassFile(cls))) {
+                        throw new AssertionError(
+                                "The class file of " + cls.getName() + " differs from the serial one!");
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     private static void cleanupFiles(String testCase) {
         cleanupFiles(
                 testCase,
@@ -154,9 +226,13 @@ public class Tests {
         // }
 
         // Now diff each generated file with its corresponding expected one,
-        // ignoring the xta.XTA and rta.RTA files for now
+        // ignoring the xta.XTA, rta.RTA, and cfa.CFA files for now
         expectedFiles.stream()
-                .filter(f -> !f.getPath().endsWith(xtaJson) && !f.getPath().endsWith(rtaJson))
+                .filter(
+                        f ->
+                                !f.getPath().endsWith(xtaJson)
+                                        && !f.getPath().endsWith(rtaJson)
+                                        && !f.getPath().endsWith(cfaJson))
                 .forEach(
                         expectedJsonFile -> {
                             File generatedJsonFile = generatedFiles.stream()
@@ -250,7 +326,8 @@ public class Tests {
         averroes.frameworks.ExpectedOutputPrinter.main(args.stream().toArray(String[]::new));
     }
 
-    private static void runAnalysis(String testCase, String analysis, boolean guard, boolean whole) {
+    private static void runAnalysis(
+            String testCase, String analysis, boolean guard, boolean whole, String... extraArgs) {
         ArrayList<String> args =
                 new ArrayList<String>(
                         Arrays.asList(
@@ -273,6 +350,8 @@ public class Tests {
             args.add("-w");
         }
 
+        args.addAll(Arrays.asList(extraArgs));
+
         // Process the arguments. This is necessary because many common
         // options depend on some of those processed arguments.
         FrameworksOptions.processArguments(args.stream().toArray(String[]::new));
@@ -3,10 +3,12 @@ package averroes.testsuite.example.output.cfa;
 class List {
   private int size;
   private String[] elements;
+  private String[] bla;
 
   public List() {
     // all arrays will be of size 1
     elements = new String[1];
+    bla = new String[1];
   }
 
   public void add(String o) {
@@ -57,15 +57,13 @@ class Map {
     return -1;
   }
 
-  public boolean containsKey(String k) {
-    return getIndex(k) != -1;
-  }
-
-  public String[] keys() {
-    return keys;
-  }
-
-  public String[] values() {
-    return values;
+  public String findKeyFor(String v) {
+    for (int i = 0; i < size; i++) {
+      if (CFA.guard()) {
+        values[0].equals(v);
+        return keys[0];
+      }
+    }
+    return null;
   }
 }
@@ -1,7 +0,0 @@
-package averroes.testsuite.example.output.cfa;
-
-class StringUtils {
-  public static String toUpper(String s) {
-    return s.toUpperCase();
-  }
-}
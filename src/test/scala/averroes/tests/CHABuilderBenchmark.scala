@@ -0,0 +1,93 @@
+package averroes.tests
+
+import averroes.exceptions.AssertionError
+import averroes.frameworks.options.FrameworksOptions
+import averroes.frameworks.soot.{CHABuilder, DispatchCache}
+import averroes.soot.SootSceneUtil
+import averroes.util.Metrics
+import soot.jimple.Stmt
+import soot.options.Options
+import soot.{G, Scene, SootMethod}
+
+import scala.jdk.CollectionConverters._
+
+/**
+ * Benchmark for CHABuilder.run on the given test cases (LL by default). It compares resolving every
+ * call site one after the other with a fresh dispatch cache, against the builder, which resolves the
+ * call sites sequentially and then builds the edges in parallel without locking the Scene. Both
+ * have to find the same number of edges.
+ *
+ * Run it after the test classes are compiled, optionally passing the test cases to measure.
+ */
+object CHABuilderBenchmark {
+
+  def main(args: Array[String]): scala.Unit = {
+    val testCases = if (args.isEmpty) Seq("LL") else args.toSeq
+
+    for (testCase <- testCases) {
+      val methods = loadMethods(testCase)
+      val (expected, serialMillis) = best(resolveSerially(methods))
+      val ((edges, resolveMillis, edgesMillis), builderMillis) = best(build())
+
+      if (expected != edges) {
+        throw new AssertionError(s"The serial and parallel call graphs of $testCase differ in size")
+      }
+      println(s"$testCase: $edges edges, serial $serialMillis ms, builder $builderMillis ms " +
+        s"(resolve $resolveMillis ms, edges $edgesMillis ms)")
+    }
+  }
+
+  /** Load the classes of the test case into Soot, and return their concrete methods. */
+  private def loadMethods(testCase: String): Seq[SootMethod] = {
+    FrameworksOptions.processArguments(Array(
+      "-i", CommonOptions.getInputProject(testCase),
+      "-p", "averroes.testsuite." + testCase.toLowerCase + ".input",
+      "-o", CommonOptions.getOutputDirectory(testCase),
+      "-j", CommonOptions.jre,
+      "-a", "rta"))
+
+    G.reset()
+    Options.v().classes().addAll(FrameworksOptions.getClasses)
+    Options.v().set_soot_classpath(FrameworksOptions.getSootClassPath)
+    Scene.v().loadNecessaryClasses()
+
+    SootSceneUtil.getSortedClasses.asScala.toSeq
+      .flatMap(_.getMethods.asScala)
+      .filter(_.isConcrete)
+      .map { method =>
+        method.retrieveActiveBody()
+        method
+      }
+  }
+
+  /** Resolve every call site on the current thread with a fresh cache, and count the targets. */
+  private def resolveSerially(methods: Seq[SootMethod]): Int = {
+    val cache = new DispatchCache()
+    methods.map { m =>
+      m.getActiveBody.getUnits.asScala
+        .map(_.asInstanceOf[Stmt])
+        .filter(_.containsInvokeExpr)
+        .map(s => cache.getTargets(s.getInvokeExpr, m).size)
+        .sum
+    }.sum
+  }
+
+  /** Build the call graph with a fresh cache, and return its size and the time of each step. */
+  private def build(): (Int, Long, Long) = {
+    Metrics.reset()
+    new CHABuilder(new DispatchCache()).run()
+    (Scene.v().getCallGraph.size, Metrics.getCount("cha.resolveMillis"), Metrics.getCount("cha.edgesMillis"))
+  }
+
+  /** Run the computation a few times and return its result with the best wall time in millis. */
+  private def best[T](computation: => T, runs: Int = 3): (T, Long) = {
+    var result: Option[T] = None
+    var millis = Long.MaxValue
+    for (_ <- 0 until runs) {
+      val start = System.nanoTime()
+      result = Some(computation)
+      millis = math.min(millis, (System.nanoTime() - start) / 1000000)
+    }
+    (result.get, millis)
+  }
+}
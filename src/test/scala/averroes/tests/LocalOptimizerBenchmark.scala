@@ -0,0 +1,111 @@
+package averroes.tests
+
+import averroes.exceptions.AssertionError
+import averroes.frameworks.options.FrameworksOptions
+import averroes.frameworks.soot.LocalOptimizer
+import averroes.frameworks.soot.LocalOptimizer._
+import averroes.soot.SootSceneUtil
+import soot.jimple.Jimple
+import soot.options.Options
+import soot.{G, Local, Scene}
+
+import scala.collection.mutable
+import scala.jdk.CollectionConverters._
+
+/**
+ * Benchmark for LocalOptimizer.optimize on the LL test case. Every method summary of LL is scaled
+ * up by merging several copies of it, each with its own locals, which mimics the large bodies that
+ * inlining creates. For small scales, the result is checked against the original cubic closure.
+ *
+ * Run it after the test classes are compiled, optionally passing the scales to measure.
+ */
+object LocalOptimizerBenchmark {
+  val testCase = "LL"
+  val maxCubicScale = 8
+
+  def main(args: Array[String]): scala.Unit = {
+    val scales = if (args.isEmpty) Seq(1, 2, 4, 8, 16, 32, 64) else args.toSeq.map(_.toInt)
+    val summaries = loadSummaries()
+
+    for (scale <- scales) {
+      val scaled = summaries.map(scaleUp(_, scale))
+      val flowEdges = scaled.map(_.flowEdges.size).sum
+      val (optimized, graphMillis) = best(scaled.map(LocalOptimizer.optimize))
+      val line = s"$testCase x$scale: $flowEdges flow edges, graph-based $graphMillis ms"
+
+      if (scale <= maxCubicScale) {
+        val (expected, cubicMillis) = best(scaled.map(optimizeCubic))
+        if (expected != optimized) {
+          throw new AssertionError(s"The graph-based and cubic results differ for $testCase x$scale")
+        }
+        println(s"$line, cubic $cubicMillis ms")
+      } else {
+        println(line)
+      }
+    }
+  }
+
+  /** Load the classes of the test case into Soot and summarize all their concrete methods. */
+  private def loadSummaries(): Seq[MethodSummary] = {
+    FrameworksOptions.processArguments(Array(
+      "-i", CommonOptions.getInputProject(testCase),
+      "-p", "averroes.testsuite." + testCase.toLowerCase + ".input",
+      "-o", CommonOptions.getOutputDirectory(testCase),
+      "-j", CommonOptions.jre,
+      "-a", "rta"))
+
+    G.reset()
+    Options.v().classes().addAll(FrameworksOptions.getClasses)
+    Options.v().set_soot_classpath(FrameworksOptions.getSootClassPath)
+    Scene.v().loadNecessaryClasses()
+
+    SootSceneUtil.getClasses.asScala.toSeq
+      .flatMap(_.getMethods.asScala)
+      .filter(_.isConcrete)
+      .sortBy(_.getSignature)
+      .map { method =>
+        method.retrieveActiveBody()
+        LocalOptimizer.summarize(method)
+      }
+  }
+
+  /** Merge the given number of copies of the summary, giving each copy fresh locals. */
+  private def scaleUp(summary: MethodSummary, scale: Int): MethodSummary = {
+    val copies = for (copy <- 0 until scale) yield {
+      val locals = mutable.HashMap[Local, Local]()
+      def rename(node: FlowNode): FlowNode = node match {
+        case ValueNode(l: Local) =>
+          ValueNode(locals.getOrElseUpdate(l, Jimple.v().newLocal(l.getName + "$" + copy, l.getType)))
+        case _ => node
+      }
+      summary.flowEdges.map { case (t, s) => (rename(t), rename(s)) }
+    }
+    MethodSummary(copies.flatten.toSet, summary.calledMethods)
+  }
+
+  /** The original closure of LocalOptimizer.optimize, which is cubic in the number of nodes. */
+  private def optimizeCubic(summary: MethodSummary): MethodSummary = {
+    val edges = mutable.Set[(FlowNode, FlowNode)]() ++ summary.flowEdges
+    val targets = summary.flowEdges.map(_._1)
+    val sources = summary.flowEdges.map(_._2)
+    def flowNodes[T <: FlowNode](nodes: Set[T]): Set[FlowNode] = Set() ++ nodes
+    val locals = (flowNodes(targets) intersect flowNodes(sources)).filter(_.isLocal)
+    for(k <- locals; i <- sources; j <- targets) {
+      if(edges(k,i) && edges(j,k)) edges.add(j,i)
+    }
+    val noLocals = edges.filterNot{case (t,s) => t.isLocal || s.isLocal}
+    MethodSummary(noLocals.toSet, summary.calledMethods)
+  }
+
+  /** Run the computation a few times and return its result with the best wall time in millis. */
+  private def best[T](computation: => T, runs: Int = 3): (T, Long) = {
+    var result: Option[T] = None
+    var millis = Long.MaxValue
+    for (_ <- 0 until runs) {
+      val start = System.nanoTime()
+      result = Some(computation)
+      millis = math.min(millis, (System.nanoTime() - start) / 1000000)
+    }
+    (result.get, millis)
+  }
+}